@@ -18,16 +18,23 @@ package com.physicaloid.lib;
 import android.content.Context;
 import android.util.Log;
 import com.physicaloid.BuildConfig;
+import com.physicaloid.lib.framework.AsyncWriter;
 import com.physicaloid.lib.framework.AutoCommunicator;
 import com.physicaloid.lib.framework.SerialCommunicator;
 import com.physicaloid.lib.framework.Uploader;
+import com.physicaloid.lib.framework.WriteCoalescer;
 import com.physicaloid.lib.programmer.avr.UploadErrors;
 import com.physicaloid.lib.usb.driver.uart.ReadLisener;
 import com.physicaloid.lib.usb.driver.uart.ReadListener;
+import com.physicaloid.lib.usb.driver.uart.StatusListener;
 import com.physicaloid.lib.usb.driver.uart.UartConfig;
+import com.physicaloid.lib.usb.driver.uart.UartStatus;
+import com.physicaloid.misc.BroadcastRingBuffer;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
 
 public class Physicaloid {
 
@@ -55,6 +62,10 @@ public class Physicaloid {
          * Bluetooth physical connection as a string
          */
         public static final String BLUETOOTH_STRING = "BlueTooth";
+        /**
+         * Longest line returned by readLine() in one piece
+         */
+        public static final int LINE_BUFFER_SIZE = 1024;
         private static final boolean DEBUG_SHOW = true && BuildConfig.DEBUG;
         private static final String TAG = Physicaloid.class.getSimpleName();
         private Context mContext;
@@ -64,9 +75,21 @@ public class Physicaloid {
         private Thread mUploadThread;
         private UploadCallBack mCallBack;
         private InputStream mFileStream;
-        private static final Object LOCK = new Object();
-        protected static final Object LOCK_WRITE = new Object();
-        protected static final Object LOCK_READ = new Object();
+        private final byte[] mLineBuf = new byte[LINE_BUFFER_SIZE];
+        private int mReadRequestCount = SerialCommunicator.READ_REQUEST_COUNT_DEFAULT;
+        private int mReadRequestSize = SerialCommunicator.READ_REQUEST_SIZE_AUTO;
+        private WriteCoalescer mCoalescer;      // guarded by LOCK_WRITE
+        private int mCoalesceThreshold = 0;     // 0 : coalescing off
+        private int mCoalesceDeadlineMs = 0;
+        private AsyncWriter mAsyncWriter;       // guarded by LOCK_ASYNC
+        private boolean mAsyncClosing;          // guarded by LOCK_ASYNC
+        private int mAsyncQueueCapacity = AsyncWriter.DEFAULT_QUEUE_CAPACITY;
+        private int mAsyncBackpressure = AsyncWriter.BACKPRESSURE_BLOCK;
+        private long mAsyncBlockTimeoutMs = AsyncWriter.DEFAULT_BLOCK_TIMEOUT_MS;
+        private final Object LOCK = new Object();
+        protected final Object LOCK_WRITE = new Object();
+        protected final Object LOCK_READ = new Object();
+        private final Object LOCK_ASYNC = new Object();
         private String mNetdest = null;
         private String mBlueName = null;
         private int mDport = 9001;
@@ -74,6 +97,7 @@ public class Physicaloid {
         private boolean USE_USB = true;
         private boolean USE_WIFI = false;
         private boolean USE_BLUETOOTH = false;
+        private int mUsbPort = 0;
 
         /**
          * Default, USB only
@@ -167,6 +191,25 @@ public class Physicaloid {
                 mBlueName = BlueName;
         }
 
+        /**
+         * Selects which port of a multi-port USB device to open, so that
+         * several Physicaloid instances can use the ports of one FT2232,
+         * FT4232 or CP2105 at the same time. Takes effect on the next open().
+         *
+         * @param port n-th interface of the matching devices, 0 : first port
+         */
+        public void setUsbPort(int port) {
+                synchronized(LOCK) {
+                        mUsbPort = port < 0 ? 0 : port;
+                }
+        }
+
+        private SerialCommunicator createSerial() {
+                AutoCommunicator auto = new AutoCommunicator(USE_USB, USE_WIFI, USE_BLUETOOTH, mDport, mCport, mNetdest, mBlueName);
+                auto.setUsbPort(mUsbPort);
+                return auto.getSerialCommunicator(mContext);
+        }
+
         /**
          * Opens a device and communicate USB UART by default settings
          *
@@ -187,10 +230,11 @@ public class Physicaloid {
         public boolean open(UartConfig uart) throws RuntimeException {
                 synchronized(LOCK) {
                         if(mSerial == null) {
-                                mSerial = new AutoCommunicator(USE_USB, USE_WIFI, USE_BLUETOOTH, mDport, mCport, mNetdest, mBlueName).getSerialCommunicator(mContext);
+                                mSerial = createSerial();
                                 if(mSerial == null) {
                                         return false;
                                 }
+                                mSerial.setReadRequests(mReadRequestCount, mReadRequestSize);
                         }
                         if(mSerial.open()) {
                                 mSerial.setUartConfig(uart);
@@ -212,11 +256,22 @@ public class Physicaloid {
                         if(mSerial == null) {
                                 return true;
                         }
-                        if(mSerial.close()) {
-                                mSerial = null;
-                                return true;
-                        } else {
-                                return false;
+                        closeAsyncWriter();
+                        try {
+                                synchronized(LOCK_WRITE) {
+                                        closeCoalescer();
+                                }
+                                mSerial.clearStatusListener();     // ends a status poller
+                                if(mSerial.close()) {
+                                        mSerial = null;
+                                        return true;
+                                } else {
+                                        return false;
+                                }
+                        } finally {
+                                synchronized(LOCK_ASYNC) {
+                                        mAsyncClosing = false;
+                                }
                         }
                 }
         }
@@ -252,6 +307,161 @@ public class Physicaloid {
                 }
         }
 
+        /**
+         * Reads from a device with starting offset
+         *
+         * @param buf
+         * @param off offset in buf to store from
+         * @param size
+         * @return read byte size
+         * @throws RuntimeException
+         */
+        public int read(byte[] buf, int off, int size) throws RuntimeException {
+                synchronized(LOCK_READ) {
+                        if(mSerial == null) {
+                                return 0;
+                        }
+                        return mSerial.read(buf, off, size);
+                }
+        }
+
+        /**
+         * Reads bytes of one received chunk with the receive time of the
+         * first byte. Call setChunkTimestamps(true) first.
+         *
+         * @param buf
+         * @param off offset in buf to store from
+         * @param size
+         * @param timestampNs timestampNs[0] receives the System.nanoTime() of
+         * the first byte, or RingBuffer.NO_TIMESTAMP
+         * @return read byte size
+         * @throws RuntimeException
+         */
+        public int readTimestamped(byte[] buf, int off, int size, long[] timestampNs) throws RuntimeException {
+                synchronized(LOCK_READ) {
+                        if(mSerial == null) {
+                                return 0;
+                        }
+                        return mSerial.readTimestamped(buf, off, size, timestampNs);
+                }
+        }
+
+        /**
+         * Records a receive timestamp per received chunk for readTimestamped()
+         *
+         * @param enable true : record, false : do not record (default)
+         * @return true : successful, false : fail
+         */
+        public boolean setChunkTimestamps(boolean enable) throws RuntimeException {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return false;
+                        }
+                        mSerial.setChunkTimestamps(enable);
+                        return true;
+                }
+        }
+
+        /**
+         * Reads from a device up to and including a delimiter
+         *
+         * @param delimiter delimiter byte e.g. '\n'
+         * @param buf
+         * @param off offset in buf to store from
+         * @param size
+         * @return read byte size, 0 if no complete frame has been received
+         * @throws RuntimeException
+         */
+        public int readUntil(byte delimiter, byte[] buf, int off, int size) throws RuntimeException {
+                synchronized(LOCK_READ) {
+                        if(mSerial == null) {
+                                return 0;
+                        }
+                        return mSerial.readUntil(delimiter, buf, off, size);
+                }
+        }
+
+        /**
+         * Reads a line terminated by '\n' from a device.
+         * The terminating "\r\n" or "\n" is removed. A line longer than
+         * LINE_BUFFER_SIZE bytes is returned in pieces.
+         *
+         * @return a line, null if no complete line has been received
+         * @throws RuntimeException
+         */
+        public String readLine() throws RuntimeException {
+                synchronized(LOCK_READ) {
+                        if(mSerial == null) {
+                                return null;
+                        }
+                        int len = mSerial.readUntil((byte) '\n', mLineBuf, 0, mLineBuf.length);
+                        if(len <= 0) {
+                                return null;
+                        }
+                        if(mLineBuf[len - 1] == '\n') {
+                                len--;
+                                if(len > 0 && mLineBuf[len - 1] == '\r') {
+                                        len--;
+                                }
+                        }
+                        return new String(mLineBuf, 0, len);
+                }
+        }
+
+        /**
+         * Reads from a device, waiting up to timeoutMs for data to arrive
+         *
+         * @param buf
+         * @param off offset in buf to store from
+         * @param size
+         * @param timeoutMs maximum wait in milliseconds, 0 then no wait
+         * @return read byte size, 0 on timeout
+         * @throws RuntimeException
+         */
+        public int read(byte[] buf, int off, int size, int timeoutMs) throws RuntimeException {
+                synchronized(LOCK_READ) {
+                        if(mSerial == null) {
+                                return 0;
+                        }
+                        return mSerial.read(buf, off, size, timeoutMs);
+                }
+        }
+
+        /**
+         * Reads from a device until size bytes are read or the deadline passes
+         *
+         * @param buf
+         * @param off offset in buf to store from
+         * @param size
+         * @param deadline absolute deadline in SystemClock.uptimeMillis() time base
+         * @return read byte size, less than size on timeout
+         * @throws RuntimeException
+         */
+        public int readFully(byte[] buf, int off, int size, long deadline) throws RuntimeException {
+                synchronized(LOCK_READ) {
+                        if(mSerial == null) {
+                                return 0;
+                        }
+                        return mSerial.readFully(buf, off, size, deadline);
+                }
+        }
+
+        /**
+         * Reads from a device into the remaining space of a ByteBuffer
+         *
+         * @param dst destination buffer, its position is advanced
+         * @return read byte size
+         * @throws RuntimeException
+         */
+        public int read(ByteBuffer dst) throws RuntimeException {
+                synchronized(LOCK_READ) {
+                        if(mSerial == null) {
+                                return 0;
+                        }
+                        return mSerial.read(dst);
+                }
+        }
+
         /**
          * Adds read listener
          *
@@ -296,6 +506,81 @@ public class Physicaloid {
                 }
         }
 
+        /**
+         * Adds a listener for modem line changes and line errors.
+         * Call after open(); listeners are dropped on close().
+         *
+         * @param listener StatusListener
+         * @return true : successful , false : fail
+         */
+        public boolean addStatusListener(StatusListener listener) {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return false;
+                        }
+                        if(listener == null) {
+                                return false;
+                        }
+                        mSerial.addStatusListener(listener);
+                        return true;
+                }
+        }
+
+        /**
+         * Removes a status listener
+         *
+         * @param listener StatusListener
+         */
+        public void removeStatusListener(StatusListener listener) {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return;
+                        }
+                        mSerial.removeStatusListener(listener);
+                }
+        }
+
+        /**
+         * Clears status listeners
+         */
+        public void clearStatusListener() {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return;
+                        }
+                        mSerial.clearStatusListener();
+                }
+        }
+
+        /**
+         * Gets the modem lines and the counters of line changes, overrun,
+         * parity and framing errors and breaks.
+         * Overrun errors mean the UART lost bytes; getDroppedBytes() counts
+         * bytes the application did not read in time.
+         *
+         * @return snapshot of the status, null if not opened
+         */
+        public UartStatus getUartStatus() {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return null;
+                        }
+                        return mSerial.getUartStatus();
+                }
+        }
+
+        /**
+         * Clears the line event counters
+         */
+        public void resetStatusCounters() {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return;
+                        }
+                        mSerial.resetStatusCounters();
+                }
+        }
+
         /**
          * Writes to a device.
          *
@@ -323,10 +608,213 @@ public class Physicaloid {
                         if(mSerial == null) {
                                 return 0;
                         }
+                        WriteCoalescer coalescer = getCoalescer();
+                        if(coalescer != null) {
+                                return coalescer.write(buf, size);
+                        }
                         return mSerial.write(buf, size);
                 }
         }
 
+        /**
+         * Writes to a device with starting offset.
+         *
+         * @param buf
+         * @param off offset in buf to write from
+         * @param size
+         * @return written byte size
+         * @throws RuntimeException
+         */
+        public int write(byte[] buf, int off, int size) throws RuntimeException {
+                synchronized(LOCK_WRITE) {
+                        if(mSerial == null) {
+                                return 0;
+                        }
+                        WriteCoalescer coalescer = getCoalescer();
+                        if(coalescer != null) {
+                                return coalescer.write(buf, off, size);
+                        }
+                        return mSerial.write(buf, off, size);
+                }
+        }
+
+        /**
+         * Queues a write made on a writer thread, so the caller does not wait
+         * for the transfer. buf is copied and may be reused at once.
+         * Writes are made in order, after earlier queued writes.
+         *
+         * @param buf
+         * @param size
+         * @param callback called on the writer thread when done, may be null
+         * @return future of the written byte size, null if the device is not
+         * opened or the queue is full
+         */
+        public Future<Integer> writeAsync(byte[] buf, int size, AsyncWriter.Callback callback) throws RuntimeException {
+                AsyncWriter writer = getAsyncWriter();
+                if(writer == null) {
+                        return null;
+                }
+                return writer.write(buf, size, callback);
+        }
+
+        /**
+         * Queues a write of the remaining bytes of a ByteBuffer made on a
+         * writer thread.
+         *
+         * @param src source buffer, its position is advanced when queued
+         * @param callback called on the writer thread when done, may be null
+         * @return future of the written byte size, null if the device is not
+         * opened or the queue is full
+         */
+        public Future<Integer> writeAsync(ByteBuffer src, AsyncWriter.Callback callback) throws RuntimeException {
+                AsyncWriter writer = getAsyncWriter();
+                if(writer == null) {
+                        return null;
+                }
+                return writer.write(src, callback);
+        }
+
+        /**
+         * Configures the writeAsync() queue. A new capacity takes effect on
+         * the next open().
+         *
+         * @param capacity number of writes that may wait
+         * @param backpressure AsyncWriter.BACKPRESSURE_BLOCK or BACKPRESSURE_REJECT
+         * @param timeoutMs longest wait for BACKPRESSURE_BLOCK, 0 : forever
+         * @return true : successful, false : bad parameters
+         */
+        public boolean setAsyncWriteQueue(int capacity, int backpressure, long timeoutMs) {
+                if(capacity < 1 || timeoutMs < 0
+                        || (backpressure != AsyncWriter.BACKPRESSURE_BLOCK && backpressure != AsyncWriter.BACKPRESSURE_REJECT)) {
+                        return false;
+                }
+                synchronized(LOCK_ASYNC) {
+                        mAsyncQueueCapacity = capacity;
+                        mAsyncBackpressure = backpressure;
+                        mAsyncBlockTimeoutMs = timeoutMs;
+                        if(mAsyncWriter != null) {
+                                mAsyncWriter.setBackpressure(backpressure, timeoutMs);
+                        }
+                        return true;
+                }
+        }
+
+        /**
+         * Gets the writer behind writeAsync(), e.g. for its queue depth and
+         * throughput
+         *
+         * @return writer, null if the device is not opened or is closing
+         */
+        public AsyncWriter getAsyncWriter() {
+                synchronized(LOCK_ASYNC) {
+                        if(mSerial == null || mAsyncClosing) {
+                                return null;
+                        }
+                        if(mAsyncWriter == null) {
+                                mAsyncWriter = new AsyncWriter(new AsyncWriter.Target() {
+
+                                        @Override
+                                        public int write(byte[] buf, int size) {
+                                                return Physicaloid.this.write(buf, size);
+                                        }
+                                }, mAsyncQueueCapacity);
+                                mAsyncWriter.setBackpressure(mAsyncBackpressure, mAsyncBlockTimeoutMs);
+                        }
+                        return mAsyncWriter;
+                }
+        }
+
+        private void closeAsyncWriter() {
+                AsyncWriter writer;
+                synchronized(LOCK_ASYNC) {
+                        writer = mAsyncWriter;
+                        mAsyncWriter = null;
+                        mAsyncClosing = true;   // no new writer until close() is done
+                }
+                if(writer != null) {
+                        writer.close();     // writes what is queued
+                }
+        }
+
+        /**
+         * Collects small writes into larger transfers. A transfer is made
+         * when threshold bytes are collected, deadlineMs after the first
+         * collected byte, or on flush(). Writes of threshold bytes or more
+         * go straight through.
+         *
+         * @param threshold bytes collected before a transfer, 0 : off
+         * @param deadlineMs longest time a byte waits in milliseconds,
+         * 0 : only on threshold or flush()
+         * @return true : successful, false : bad parameters or the pending
+         * bytes could not be written
+         */
+        public boolean setWriteCoalescing(int threshold, int deadlineMs) throws RuntimeException {
+                if(threshold < 0 || deadlineMs < 0) {
+                        return false;
+                }
+                synchronized(LOCK_WRITE) {
+                        int ret = closeCoalescer();
+                        mCoalesceThreshold = threshold;
+                        mCoalesceDeadlineMs = deadlineMs;
+                        return ret >= 0;
+                }
+        }
+
+        /**
+         * Writes the bytes collected by write coalescing now
+         *
+         * @return written byte size, -1 if a transfer failed
+         */
+        public int flush() throws RuntimeException {
+                synchronized(LOCK_WRITE) {
+                        if(mCoalescer == null) {
+                                return 0;
+                        }
+                        return mCoalescer.flush();
+                }
+        }
+
+        private WriteCoalescer getCoalescer() {
+                if(mCoalesceThreshold <= 0) {
+                        return null;
+                }
+                if(mCoalescer != null && mCoalescer.getSerialCommunicator() != mSerial) {
+                        closeCoalescer();
+                }
+                if(mCoalescer == null) {
+                        mCoalescer = new WriteCoalescer(mSerial, LOCK_WRITE, mCoalesceThreshold, mCoalesceDeadlineMs);
+                }
+                return mCoalescer;
+        }
+
+        private int closeCoalescer() {
+                if(mCoalescer == null) {
+                        return 0;
+                }
+                int ret = mCoalescer.close();
+                mCoalescer = null;
+                return ret;
+        }
+
+        /**
+         * Writes the remaining bytes of a ByteBuffer to a device.
+         *
+         * @param src source buffer, its position is advanced
+         * @return written byte size
+         * @throws RuntimeException
+         */
+        public int write(ByteBuffer src) throws RuntimeException {
+                synchronized(LOCK_WRITE) {
+                        if(mSerial == null) {
+                                return 0;
+                        }
+                        if(mCoalescer != null && mCoalescer.flush() < 0) {
+                                return -1;
+                        }
+                        return mSerial.write(src);
+                }
+        }
+
         /**
          * Uploads a binary file to a device on background process. No need to
          * open().
@@ -410,7 +898,10 @@ public class Physicaloid {
                         if(DEBUG_SHOW) {
                                 Log.d(TAG, "upload : mSerial is null");
                         }
-                        mSerial = new AutoCommunicator(USE_USB, USE_WIFI, USE_BLUETOOTH, mDport, mCport, mNetdest, mBlueName).getSerialCommunicator(mContext);   // need to run on non-thread
+                        mSerial = createSerial();   // need to run on non-thread
+                        if(mSerial != null) {
+                                mSerial.setReadRequests(mReadRequestCount, mReadRequestSize);
+                        }
                         serialIsNull = true;
                 }
 
@@ -423,6 +914,7 @@ public class Physicaloid {
                                         synchronized(LOCK_WRITE) {
                                                 synchronized(LOCK_READ) {
                                                         UartConfig tmpUartConfig = new UartConfig();
+                                                        closeCoalescer();       // send what was collected before the upload
 
 
                                                         if(mSerial == null) { // fail
@@ -466,6 +958,9 @@ public class Physicaloid {
                                                                 tmpUartConfig.parity = origUartConfig.parity;
                                                                 tmpUartConfig.dtrOn = origUartConfig.dtrOn;
                                                                 tmpUartConfig.rtsOn = origUartConfig.rtsOn;
+                                                                tmpUartConfig.flowControl = origUartConfig.flowControl;
+                                                                tmpUartConfig.readBufferSize = origUartConfig.readBufferSize;
+                                                                tmpUartConfig.readBufferStallMs = origUartConfig.readBufferStallMs;
                                                                 if(DEBUG_SHOW) {
                                                                         Log.d(TAG, "upload : already open");
                                                                 }
@@ -573,6 +1068,35 @@ public class Physicaloid {
                 }
         }
 
+        /**
+         * Gets the baud-rate the device really runs at.
+         * The divisor of most chips only approximates the set baud-rate.
+         *
+         * @return actual baud-rate, 0 if not opened
+         */
+        public int getActualBaudrate() {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return 0;
+                        }
+                        return mSerial.getActualBaudrate();
+                }
+        }
+
+        /**
+         * Gets the error of the actual baud-rate against the set one
+         *
+         * @return error in percent, positive when the device runs faster
+         */
+        public double getBaudrateError() {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return 0;
+                        }
+                        return mSerial.getBaudrateError();
+                }
+        }
+
         /**
          * Sets Data Bits
          *
@@ -634,6 +1158,265 @@ public class Physicaloid {
                 }
         }
 
+        /**
+         * Sets flow control
+         *
+         * @param flowControl UartConfig.FLOW_CONTROL_OFF, FLOW_CONTROL_RTS_CTS,
+         * FLOW_CONTROL_DTR_DSR or FLOW_CONTROL_XON_XOFF
+         * @return true : successful, false : not supported by the device or fail
+         */
+        public boolean setFlowControl(int flowControl) throws RuntimeException {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return false;
+                        }
+                        return mSerial.setFlowControl(flowControl);
+                }
+        }
+
+        /**
+         * Switches the receive buffer to lock-free access. Safe here because
+         * read() serializes all readers.
+         *
+         * @param lockFree true : lock-free, false : synchronized (default)
+         * @return true : successful, false : fail
+         */
+        public boolean setLockFreeBuffer(boolean lockFree) throws RuntimeException {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return false;
+                        }
+                        mSerial.setLockFreeBuffer(lockFree);
+                        return true;
+                }
+        }
+
+        /**
+         * Sets the receive buffer size. Buffered data is kept.
+         *
+         * @param size buffer size in bytes, or UartConfig.READ_BUFFER_SIZE_AUTO
+         * to size it from the baudrate and the read buffer stall time
+         * @return true : successful, false : fail
+         */
+        public boolean setReadBufferSize(int size) throws RuntimeException {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return false;
+                        }
+                        return mSerial.setReadBufferSize(size);
+                }
+        }
+
+        /**
+         * Sets how long the application may stop reading without losing
+         * data, used by UartConfig.READ_BUFFER_SIZE_AUTO
+         *
+         * @param stallMs tolerated consumer stall in milliseconds
+         * @return true : successful, false : fail
+         */
+        public boolean setReadBufferStallMs(int stallMs) throws RuntimeException {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return false;
+                        }
+                        return mSerial.setReadBufferStallMs(stallMs);
+                }
+        }
+
+        /**
+         * Sets how many USB IN requests are kept in flight and their size.
+         * Call before open(); the settings are used by every later open().
+         *
+         * @param count requests in flight, 1 to SerialCommunicator.READ_REQUEST_COUNT_MAX
+         * @param size bytes per request, or SerialCommunicator.READ_REQUEST_SIZE_AUTO
+         * @return true : successful, false : fail
+         */
+        public boolean setReadRequests(int count, int size) throws RuntimeException {
+                synchronized(LOCK) {
+                        if(count < 1 || count > SerialCommunicator.READ_REQUEST_COUNT_MAX || size < 0) {
+                                return false;
+                        }
+                        if(mSerial != null && !mSerial.setReadRequests(count, size)) {
+                                return false;
+                        }
+                        mReadRequestCount = count;
+                        mReadRequestSize = size;
+                        return true;
+                }
+        }
+
+        /**
+         * Selects how write() sends data, e.g. SerialCommunicator.WRITE_MODE_BULK
+         * for faster writes through FTDI chips
+         *
+         * @param mode SerialCommunicator.WRITE_MODE_CONSERVATIVE or WRITE_MODE_BULK
+         * @return true : successful, false : not supported by the driver
+         */
+        public boolean setWriteMode(int mode) throws RuntimeException {
+                synchronized(LOCK_WRITE) {
+                        if(mSerial == null) {
+                                return false;
+                        }
+                        return mSerial.setWriteMode(mode);
+                }
+        }
+
+        /**
+         * Sets how many max packets each USB bulk transfer of write() carries.
+         * Call after open().
+         *
+         * @param packets packets per transfer, at least 1
+         * @return true : successful, false : fail
+         */
+        public boolean setWriteChunkPackets(int packets) throws RuntimeException {
+                synchronized(LOCK_WRITE) {
+                        if(mSerial == null) {
+                                return false;
+                        }
+                        return mSerial.setWriteChunkPackets(packets);
+                }
+        }
+
+        /**
+         * Sets whether write() ends with a zero-length packet when its data
+         * ends on a USB packet boundary. Call after open().
+         *
+         * @param enable true : send (default), false : do not send
+         */
+        public void setWriteZeroLengthPacket(boolean enable) throws RuntimeException {
+                synchronized(LOCK_WRITE) {
+                        if(mSerial == null) {
+                                return;
+                        }
+                        mSerial.setWriteZeroLengthPacket(enable);
+                }
+        }
+
+        /**
+         * Sets how long the device holds back a partly filled receive packet,
+         * e.g. 1 ms for fast request/response protocols through FTDI chips.
+         * Call after open().
+         *
+         * @param ms latency in milliseconds, 1 to 255
+         * @return true : successful, false : not supported by the driver
+         */
+        public boolean setLatencyTimer(int ms) throws RuntimeException {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return false;
+                        }
+                        return mSerial.setLatencyTimer(ms);
+                }
+        }
+
+        /**
+         * Reads the latency timer back from the device
+         *
+         * @return latency in milliseconds, -1 if not supported
+         */
+        public int getLatencyTimer() throws RuntimeException {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return -1;
+                        }
+                        return mSerial.getLatencyTimer();
+                }
+        }
+
+        /**
+         * Sets a character that makes the device send received data at once,
+         * e.g. '\n'. Call after open().
+         *
+         * @param c event character
+         * @param enable true : enable, false : disable
+         * @return true : successful, false : not supported by the driver
+         */
+        public boolean setEventChar(byte c, boolean enable) throws RuntimeException {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return false;
+                        }
+                        return mSerial.setEventChar(c, enable);
+                }
+        }
+
+        /**
+         * Sets what happens when the receive buffer is full.
+         * Call after open(), which creates the buffer.
+         *
+         * @param policy RingBuffer.OVERFLOW_DROP_NEWEST (default), OVERFLOW_DROP_OLDEST or OVERFLOW_BLOCK
+         * @return true : successful, false : fail
+         */
+        public boolean setOverflowPolicy(int policy) throws RuntimeException {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return false;
+                        }
+                        mSerial.setOverflowPolicy(policy);
+                        return true;
+                }
+        }
+
+        /**
+         * Gets the number of received bytes dropped because the buffer was full
+         *
+         * @return dropped bytes
+         */
+        public long getDroppedBytes() {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return 0;
+                        }
+                        return mSerial.getDroppedBytes();
+                }
+        }
+
+        /**
+         * Gets how often the receive buffer reached its high-water mark
+         *
+         * @return high-water hits
+         */
+        public int getHighWaterCount() {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return 0;
+                        }
+                        return mSerial.getHighWaterCount();
+                }
+        }
+
+        /**
+         * Resets the receive buffer statistics
+         *
+         * @return true : successful, false : fail
+         */
+        public boolean resetBufferStats() {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return false;
+                        }
+                        mSerial.resetBufferStats();
+                        return true;
+                }
+        }
+
+        /**
+         * Registers a reader that gets its own copy of every received byte,
+         * e.g. for a logger next to the normal read() consumer.
+         *
+         * @param lossy true then the reader may lose data when it falls
+         * behind instead of holding back the other broadcast readers
+         * @return new reader, null if there is no device. Close it when done.
+         */
+        public BroadcastRingBuffer.Reader createBroadcastReader(boolean lossy) throws RuntimeException {
+                synchronized(LOCK) {
+                        if(mSerial == null) {
+                                return null;
+                        }
+                        return mSerial.createBroadcastReader(lossy);
+                }
+        }
+
         public String getDriverName() {
                 if(mSerial == null) {
                         return "None";
@@ -34,7 +34,7 @@ public class UartBluetooth extends SerialCommunicator {
         private boolean DEBUG_SHOW = false;
         private static final int DEFAULT_BAUDRATE = 9600;
         private UartConfig mUartConfig;
-        private static final int RING_BUFFER_SIZE = 1024;
+        private static final int RING_BUFFER_SIZE = UartConfig.READ_BUFFER_SIZE_DEFAULT;
         private static final int READ_BUFFER_SIZE = 256;
         private static final int WRITE_BUFFER_SIZE = 256;
         private RingBuffer mBuffer;
@@ -192,8 +192,14 @@ public class UartBluetooth extends SerialCommunicator {
         @Override
         @SuppressWarnings("CallToThreadDumpStack")
         public int write(byte[] buf, int size) {
+                return write(buf, 0, size);
+        }
+
+        @Override
+        @SuppressWarnings("CallToThreadDumpStack")
+        public int write(byte[] buf, int off, int size) {
                 try {
-                        DATA_OUT.write(buf, 0, size);
+                        DATA_OUT.write(buf, off, size);
                         DATA_OUT.flush();
                 } catch(Exception ex) {
                         Log.d(TAG, ex.toString());
@@ -206,6 +212,7 @@ public class UartBluetooth extends SerialCommunicator {
         public boolean setBaudrate(int baudrate) {
                 // We don't do this...
                 mUartConfig.baudrate = baudrate;
+                updateReadBufferSize(baudrate);
                 return true;
         }
 
@@ -253,6 +260,7 @@ public class UartBluetooth extends SerialCommunicator {
         public boolean setUartConfig(UartConfig config) {
                 boolean res;
                 boolean ret = true;
+                applyReadBufferConfig(config);
                 if(mUartConfig.baudrate != config.baudrate) {
                         res = setBaudrate(config.baudrate);
                         ret = ret && res;
@@ -326,6 +334,11 @@ public class UartBluetooth extends SerialCommunicator {
         public void clearBuffer() {
                 mBuffer.clear();
         }
+
+        @Override
+        protected RingBuffer getRingBuffer() {
+                return mBuffer;
+        }
         //////////////////////////////////////////////////////////
         // Listener for reading uart
         //////////////////////////////////////////////////////////
@@ -401,6 +414,7 @@ public class UartBluetooth extends SerialCommunicator {
                                                 len++;
                                         }
                                         if(len > 0) {
+                                                broadcast(rbuf, 0, len);
                                                 mBuffer.add(rbuf, len);
                                                 onRead(len);
                                         }
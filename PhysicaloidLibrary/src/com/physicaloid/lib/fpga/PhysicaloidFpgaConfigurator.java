@@ -14,7 +14,7 @@ public class PhysicaloidFpgaConfigurator {
     private SerialCommunicator mSerial;
     private boolean mCanceled;
 
-    private static final int READ_DELAY_MS          = 10;
+    private static final int READ_TIMEOUT_MS        = 10;
     private static final int CONF_CHECK_RETRY       = 10;
     private static final int CONF_WRITE_PACKET_SIZE = 128;
 
@@ -38,9 +38,7 @@ public class PhysicaloidFpgaConfigurator {
             readStatus = true;
             commandSwitchUserMode();
 
-            readDelay();
-
-            retlen = mSerial.read(rbuf, rbuf.length);
+            retlen = mSerial.read(rbuf, 0, rbuf.length, READ_TIMEOUT_MS);
 
             if(retlen == 0) {
                 if(DEBUG_SHOW){Log.d(TAG,"Configuration Fail : No response on switching user mode.");}
@@ -66,9 +64,7 @@ public class PhysicaloidFpgaConfigurator {
         for(int i=0; i<CONF_CHECK_RETRY; i++) {
             commandSwitchConfigMode();
 
-            readDelay();
-
-            retlen = mSerial.read(rbuf, rbuf.length);
+            retlen = mSerial.read(rbuf, 0, rbuf.length, READ_TIMEOUT_MS);
             if(retlen == 0) {
                 if(DEBUG_SHOW){Log.d(TAG,"Configuration Fail : No response on switching config mode.");}
                 continue;
@@ -94,9 +90,7 @@ public class PhysicaloidFpgaConfigurator {
         for(int i=0; i<CONF_CHECK_RETRY; i++) {
             commandStartConfig();
 
-            readDelay();
-
-            retlen = mSerial.read(rbuf, rbuf.length);
+            retlen = mSerial.read(rbuf, 0, rbuf.length, READ_TIMEOUT_MS);
 
             if(retlen == 0) {
                 if(DEBUG_SHOW){Log.d(TAG,"Configuration Fail : No response on starting config.");}
@@ -130,6 +124,7 @@ public class PhysicaloidFpgaConfigurator {
         }
 
         byte[] confBuf = new byte[CONF_WRITE_PACKET_SIZE];
+        PhysicaloidFpgaPacketFilter filter = new PhysicaloidFpgaPacketFilter();
 
         int offset=0;
         int writeSize=0;
@@ -148,7 +143,12 @@ public class PhysicaloidFpgaConfigurator {
                 returnUserMode();
                 return false;
             }
-            writtenSize = new PhysicaloidFpgaPacketFilter().writeWithEscape(mSerial, confBuf, writeSize);
+            writtenSize = filter.writeWithEscape(mSerial, confBuf, writeSize);
+            if(writtenSize < 0) {
+                if(DEBUG_SHOW){Log.d(TAG,"Cannot write .rbf data.");}
+                returnUserMode();
+                return false;
+            }
             offset += writtenSize;
         }
         if(DEBUG_SHOW){Log.d(TAG,"totalBytes : "+totalBytes+", writeSize : "+writeSize+", writtenSize : "+writtenSize+", offset : "+offset);}
@@ -162,9 +162,7 @@ public class PhysicaloidFpgaConfigurator {
         for(int i=0; i<CONF_CHECK_RETRY; i++) {
             commandStopConfig();
 
-            readDelay();
-
-            retlen = mSerial.read(rbuf, rbuf.length);
+            retlen = mSerial.read(rbuf, 0, rbuf.length, READ_TIMEOUT_MS);
 
             if(retlen == 0) {
                 if(DEBUG_SHOW){Log.d(TAG,"Configuration Fail : No response on configuration done.");}
@@ -229,8 +227,7 @@ public class PhysicaloidFpgaConfigurator {
     private void returnUserMode() {
         byte[] rbuf = new byte[1];
         commandSwitchUserMode();
-        readDelay();
-        mSerial.read(rbuf, rbuf.length); // throw a byte away
+        mSerial.read(rbuf, 0, rbuf.length, READ_TIMEOUT_MS); // throw a byte away
     }
 
     private boolean checkAsMode(byte ret) {
@@ -258,8 +255,7 @@ public class PhysicaloidFpgaConfigurator {
         int retlen;
         byte[] tmpbuf = new byte[128];
         while(true) {
-            readDelay();
-            retlen = mSerial.read(tmpbuf, tmpbuf.length);
+            retlen = mSerial.read(tmpbuf, 0, tmpbuf.length, READ_TIMEOUT_MS);
             if(retlen == 0) {
                 break;
             }
@@ -271,13 +267,6 @@ public class PhysicaloidFpgaConfigurator {
         }
     }
 
-    private void readDelay() {
-        try {
-            Thread.sleep(READ_DELAY_MS);
-        } catch (InterruptedException e) {
-        }
-    }
-
     private String toHexStr(byte[] b, int length) {
         String str="";
         for(int i=0; i<length; i++) {
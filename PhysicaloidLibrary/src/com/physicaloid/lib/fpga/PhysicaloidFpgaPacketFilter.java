@@ -3,6 +3,7 @@ package com.physicaloid.lib.fpga;
 import android.util.Log;
 import com.physicaloid.BuildConfig;
 import com.physicaloid.lib.framework.SerialCommunicator;
+import com.physicaloid.misc.BufferPool;
 
 public class PhysicaloidFpgaPacketFilter {
     @SuppressWarnings("unused")
@@ -17,25 +18,45 @@ public class PhysicaloidFpgaPacketFilter {
         if(comm == null) return 0;
         if(buf == null) return 0;
 
-        byte[] packet = createEscapedPacket(buf, offset, size);
-        if(DEBUG_SHOW) { Log.d(TAG, "write("+packet.length+") : "+toHexStr(packet, packet.length)); }
+        byte[] packet = BufferPool.getShared().acquire(size*2);
+        int packetSize = createEscapedPacket(buf, offset, size, packet);
+        if(DEBUG_SHOW) { Log.d(TAG, "write("+packetSize+") : "+toHexStr(packet, packetSize)); }
 
-        int totalWrittenSize = comm.write(packet, packet.length);
-
-        while(totalWrittenSize<packet.length) {
-            int remainingSize = packet.length - totalWrittenSize;
-            byte[] tmpBuf = new byte[remainingSize];
-            System.arraycopy(packet, totalWrittenSize, tmpBuf, 0, remainingSize);
-            totalWrittenSize += comm.write(tmpBuf, tmpBuf.length);
+        int ret = size;
+        int off = 0;
+        while(off < packetSize) {
+            int writtenSize = comm.write(packet, off, packetSize - off);
+            if(writtenSize <= 0) {
+                // failed or stalled, don't report the chunk as written
+                ret = -1;
+                break;
+            }
+            off += writtenSize;
         }
 
-        return size;
+        BufferPool.getShared().release(packet);
+        return ret;
     }
 
     public byte[] createEscapedPacket(byte[] buf, int offset, int size) {
         if(buf == null) return null;
+        byte[] escapedPacket = new byte[size*2];
+        int escapedBufPointer = createEscapedPacket(buf, offset, size, escapedPacket);
+
+        byte[] packet = new byte[escapedBufPointer];
+        System.arraycopy(escapedPacket, 0, packet, 0, escapedBufPointer);
+        return packet;
+    }
+
+    /**
+     * Escapes a packet into a caller supplied array
+     * @param dst destination, needs size*2 bytes
+     * @return escaped packet length
+     */
+    public int createEscapedPacket(byte[] buf, int offset, int size, byte[] dst) {
+        if(buf == null || dst == null) return 0;
         int escapedBufPointer=0;
-        byte[] escapedPacket = new byte[buf.length*2];
+        byte[] escapedPacket = dst;
 
         for(int i=0; i<size; i++) {
             int bufPointer = i+offset;
@@ -49,9 +70,7 @@ public class PhysicaloidFpgaPacketFilter {
             }
         }
 
-        byte[] packet = new byte[escapedBufPointer];
-        System.arraycopy(escapedPacket, 0, packet, 0, escapedBufPointer);
-        return packet;
+        return escapedBufPointer;
     }
 
 
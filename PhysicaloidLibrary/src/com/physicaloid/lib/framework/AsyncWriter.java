@@ -0,0 +1,352 @@
+package com.physicaloid.lib.framework;
+
+import com.physicaloid.misc.BufferPool;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Writes on a dedicated thread from a bounded queue, so callers such as
+ * the UI thread never wait for a transfer.
+ * Data is copied when queued; the caller may reuse its buffer at once.
+ * Writes are made in queue order.
+ */
+public class AsyncWriter {
+
+        /**
+         * Full queue: wait for space up to the block timeout
+         */
+        public static final int BACKPRESSURE_BLOCK = 0;
+        /**
+         * Full queue: reject the write at once
+         */
+        public static final int BACKPRESSURE_REJECT = 1;
+        public static final int DEFAULT_QUEUE_CAPACITY = 64;
+        public static final long DEFAULT_BLOCK_TIMEOUT_MS = 1000;
+        private static final String TAG = AsyncWriter.class.getSimpleName();
+        private final Target mTarget;
+        private final ArrayBlockingQueue<WriteTask> mQueue;
+        private final WriteTask mStop = new WriteTask(null, 0, null);
+        private final Thread mThread;
+        private volatile int mBackpressure = BACKPRESSURE_BLOCK;
+        private volatile long mBlockTimeoutMs = DEFAULT_BLOCK_TIMEOUT_MS;
+        private volatile boolean mClosed;        // set under the write lock
+        private final ReentrantReadWriteLock mCloseLock = new ReentrantReadWriteLock();
+        private volatile long mWrittenBytes;     // written by the writer thread only
+        private volatile long mWriteNanos;       // written by the writer thread only
+        private volatile int mPeakQueueDepth;
+        private final AtomicInteger mRejectedWrites = new AtomicInteger();
+        private volatile int mFailedWrites;      // written by the writer thread only
+
+        /**
+         * Where the writer thread writes to
+         */
+        public interface Target {
+
+                /**
+                 * Writes synchronously
+                 *
+                 * @param buf  byte array
+                 * @param size write size
+                 *
+                 * @return written byte size, negative on failure
+                 */
+                int write(byte[] buf, int size);
+        }
+
+        /**
+         * Called on the writer thread when a queued write has finished
+         */
+        public interface Callback {
+
+                /**
+                 * @param written written byte size, negative on failure
+                 */
+                void onWriteComplete(int written);
+        }
+
+        /**
+         * @param target        synchronous writer
+         * @param queueCapacity number of writes that may wait in the queue
+         */
+        public AsyncWriter(Target target, int queueCapacity) {
+                mTarget = target;
+                mQueue = new ArrayBlockingQueue<WriteTask>(queueCapacity < 1 ? 1 : queueCapacity);
+                mThread = new Thread(mLoop, TAG);
+                mThread.setDaemon(true);
+                mThread.start();
+        }
+
+        /**
+         * Sets what happens when the queue is full
+         *
+         * @param policy    BACKPRESSURE_BLOCK or BACKPRESSURE_REJECT
+         * @param timeoutMs longest wait for BACKPRESSURE_BLOCK, 0 : forever
+         *
+         * @return true : successful, false : unknown policy
+         */
+        public boolean setBackpressure(int policy, long timeoutMs) {
+                if((policy != BACKPRESSURE_BLOCK && policy != BACKPRESSURE_REJECT) || timeoutMs < 0) {
+                        return false;
+                }
+                mBackpressure = policy;
+                mBlockTimeoutMs = timeoutMs;
+                return true;
+        }
+
+        /**
+         * Queues a write
+         *
+         * @param buf      byte array
+         * @param size     write size
+         * @param callback called when done, may be null
+         *
+         * @return future of the written byte size, null if the queue is full
+         *         or the writer is closed
+         */
+        public Future<Integer> write(byte[] buf, int size, Callback callback) {
+                if(buf == null || size < 0) {
+                        return null;
+                }
+                if(size > buf.length) {
+                        size = buf.length;
+                }
+                byte[] copy = BufferPool.getShared().acquire(size);
+                System.arraycopy(buf, 0, copy, 0, size);
+                return enqueue(new WriteTask(copy, size, callback));
+        }
+
+        /**
+         * Queues the remaining bytes of a ByteBuffer. Its position is
+         * advanced when the write is queued.
+         *
+         * @param src      source buffer
+         * @param callback called when done, may be null
+         *
+         * @return future of the written byte size, null if the queue is full
+         *         or the writer is closed
+         */
+        public Future<Integer> write(ByteBuffer src, Callback callback) {
+                if(src == null) {
+                        return null;
+                }
+                int size = src.remaining();
+                byte[] copy = BufferPool.getShared().acquire(size);
+                int pos = src.position();
+                src.get(copy, 0, size);
+                Future<Integer> future = enqueue(new WriteTask(copy, size, callback));
+                if(future == null) {
+                        src.position(pos);
+                }
+                return future;
+        }
+
+        private Future<Integer> enqueue(WriteTask task) {
+                boolean queued = false;
+                // the read lock keeps close() from queueing mStop between the check and the put
+                mCloseLock.readLock().lock();
+                try {
+                        if(!mClosed) {
+                                if(mBackpressure == BACKPRESSURE_REJECT) {
+                                        queued = mQueue.offer(task);
+                                } else if(mBlockTimeoutMs == 0) {
+                                        mQueue.put(task);
+                                        queued = true;
+                                } else {
+                                        queued = mQueue.offer(task, mBlockTimeoutMs, TimeUnit.MILLISECONDS);
+                                }
+                        }
+                } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                } finally {
+                        mCloseLock.readLock().unlock();
+                }
+                if(!queued) {
+                        mRejectedWrites.incrementAndGet();
+                        BufferPool.getShared().release(task.mBuf);
+                        return null;
+                }
+                int depth = mQueue.size();
+                if(depth > mPeakQueueDepth) {
+                        mPeakQueueDepth = depth;
+                }
+                return task;
+        }
+
+        /**
+         * Writes everything queued, then stops the writer thread
+         */
+        public void close() {
+                mCloseLock.writeLock().lock();
+                try {
+                        if(mClosed) {
+                                return;
+                        }
+                        mClosed = true;
+                        mQueue.put(mStop);
+                } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                } finally {
+                        mCloseLock.writeLock().unlock();
+                }
+                try {
+                        if(Thread.currentThread() != mThread) {
+                                mThread.join();
+                        }
+                } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                }
+        }
+
+        /**
+         * Checks the writer is closed
+         *
+         * @return true : closed, false : accepting writes
+         */
+        public boolean isClosed() {
+                return mClosed;
+        }
+
+        /**
+         * Gets the number of queued writes
+         *
+         * @return queue depth
+         */
+        public int getQueueDepth() {
+                return mQueue.size();
+        }
+
+        /**
+         * Gets the largest queue depth since the last resetStats()
+         *
+         * @return peak queue depth
+         */
+        public int getPeakQueueDepth() {
+                return mPeakQueueDepth;
+        }
+
+        /**
+         * Gets the number of writes rejected by a full queue or a closed writer
+         *
+         * @return rejected writes
+         */
+        public int getRejectedWrites() {
+                return mRejectedWrites.get();
+        }
+
+        /**
+         * Gets the number of writes the target failed
+         *
+         * @return failed writes
+         */
+        public int getFailedWrites() {
+                return mFailedWrites;
+        }
+
+        /**
+         * Gets the bytes written since the last resetStats()
+         *
+         * @return written bytes
+         */
+        public long getWrittenBytes() {
+                return mWrittenBytes;
+        }
+
+        /**
+         * Gets the throughput while writing since the last resetStats()
+         *
+         * @return bytes per second, 0 if nothing was written
+         */
+        public long getThroughput() {
+                long nanos = mWriteNanos;
+                if(nanos <= 0) {
+                        return 0;
+                }
+                return mWrittenBytes * 1000000000L / nanos;
+        }
+
+        /**
+         * Clears the statistics
+         */
+        public void resetStats() {
+                mWrittenBytes = 0;
+                mWriteNanos = 0;
+                mPeakQueueDepth = mQueue.size();
+                mRejectedWrites.set(0);
+                mFailedWrites = 0;
+        }
+
+        private Runnable mLoop = new Runnable() {
+
+                @Override
+                public void run() {
+                        for(;;) {
+                                WriteTask task;
+                                try {
+                                        task = mQueue.take();
+                                } catch(InterruptedException e) {
+                                        continue;   // from a cancel(true), only mStop ends the loop
+                                }
+                                if(task == mStop) {
+                                        // queued while closing, never written
+                                        while((task = mQueue.poll()) != null) {
+                                                task.cancel(false);
+                                                BufferPool.getShared().release(task.mBuf);
+                                        }
+                                        return;
+                                }
+                                task.run();
+                                Thread.interrupted();   // clears an interrupt from cancel(true)
+                                // released here, done() may run while the target still sends it
+                                BufferPool.getShared().release(task.mBuf);
+                        }
+                }
+        };
+
+        private class WriteTask extends FutureTask<Integer> {
+
+                private final byte[] mBuf;
+                private final Callback mCallback;
+
+                WriteTask(final byte[] buf, final int size, Callback callback) {
+                        super(new Callable<Integer>() {
+
+                                @Override
+                                public Integer call() {
+                                        long start = System.nanoTime();
+                                        int written = mTarget.write(buf, size);
+                                        mWriteNanos += System.nanoTime() - start;
+                                        if(written > 0) {
+                                                mWrittenBytes += written;
+                                        } else if(written < 0) {
+                                                mFailedWrites++;
+                                        }
+                                        return written;
+                                }
+                        });
+                        mBuf = buf;
+                        mCallback = callback;
+                }
+
+                @Override
+                protected void done() {
+                        if(mCallback == null) {
+                                return;
+                        }
+                        int written = -1;
+                        try {
+                                if(!isCancelled()) {
+                                        written = get();
+                                }
+                        } catch(Exception e) {
+                        }
+                        mCallback.onWriteComplete(written);
+                }
+        }
+}
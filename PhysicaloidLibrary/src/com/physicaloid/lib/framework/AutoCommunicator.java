@@ -42,6 +42,7 @@ public class AutoCommunicator {
     private String mBlueName = null;
     private int mDport = 9001;
     private int mCport = 9002;
+    private int mUsbPort = 0;
 
     public AutoCommunicator(boolean u, boolean w, boolean b, int Dport, int Cport, String Netdest, String BlueName) {
         USE_USB = u;
@@ -57,6 +58,14 @@ public class AutoCommunicator {
     public AutoCommunicator() {
     }
 
+    /**
+     * Sets the port opened on multi-port USB devices (FTDI and CP210x)
+     * @param port n-th interface of the matching devices
+     */
+    public void setUsbPort(int port) {
+        mUsbPort = port;
+    }
+
     private boolean isNetworkConnected(Context context) {
         //Log.d(TAG, "Network available?");
         ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -80,7 +89,7 @@ public class AutoCommunicator {
         if (USE_USB) {
             UsbAccessor usbAccess = UsbAccessor.INSTANCE;
             usbAccess.init(context);
-            for (UsbDevice device : usbAccess.manager().getDeviceList().values()) {
+            for (UsbDevice device : usbAccess.getDevices()) {
                 int vid = device.getVendorId();
                 Log.d(TAG, "vid" + vid);
                 int pid = device.getProductId();
@@ -89,10 +98,10 @@ public class AutoCommunicator {
                     if (vid == usbVid.getVid()) {
                         if (vid == UsbVidList.FTDI.getVid()) {
                             Log.d(TAG, "FTDI ");
-                            sc = new UartFtdi(context);
+                            sc = new UartFtdi(context, mUsbPort);
                         } else if (vid == UsbVidList.CP210X.getVid()) {
                             Log.d(TAG, "CP210x");
-                            sc = new UartCp210x(context);
+                            sc = new UartCp210x(context, mUsbPort);
 
                         } else if (vid == UsbVidList.MAPLE_MINI.getVid()|| (vid == UsbVidList.ESP32S3.getVid())) {
                             Log.d(TAG, "MAPLE MIni");
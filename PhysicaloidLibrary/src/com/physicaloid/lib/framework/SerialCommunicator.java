@@ -17,12 +17,32 @@
 package com.physicaloid.lib.framework;
 
 import android.content.Context;
+import android.os.SystemClock;
 import com.physicaloid.lib.usb.driver.uart.ReadLisener;
 import com.physicaloid.lib.usb.driver.uart.ReadListener;
+import com.physicaloid.lib.usb.driver.uart.StatusListener;
 import com.physicaloid.lib.usb.driver.uart.UartConfig;
+import com.physicaloid.lib.usb.driver.uart.UartStatus;
+import com.physicaloid.misc.BroadcastRingBuffer;
+import com.physicaloid.misc.BufferPool;
+import com.physicaloid.misc.RingBuffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class SerialCommunicator {
 
+    private volatile BroadcastRingBuffer mBroadcast;
+    private volatile int mReadRequestCount = READ_REQUEST_COUNT_DEFAULT;
+    private volatile int mReadRequestSize = READ_REQUEST_SIZE_AUTO;
+    private volatile int mWriteChunkPackets = WRITE_CHUNK_PACKETS_DEFAULT;
+    private volatile boolean mWriteZlp = true;
+    private final UartStatus mStatus = new UartStatus();   // guarded by itself
+    private final CopyOnWriteArrayList<StatusListener> mStatusListeners = new CopyOnWriteArrayList<StatusListener>();
+    private volatile int mLastModemStatus = -1;
+    private volatile boolean mStatusChanged;
+    private Thread mStatusPoller;       // guarded by mStatusListeners
+    private static final int STATUS_POLL_MS = 100;
+
     public SerialCommunicator(Context context) {
     }
 
@@ -54,6 +74,430 @@ public abstract class SerialCommunicator {
      */
     abstract public int write(byte[] buf, int size);
 
+    /**
+     * Writes byte array with starting offset
+     * @param buf byte array
+     * @param off offset in buf to write from
+     * @param size write size
+     * @return actual written size
+     */
+    public int write(byte[] buf, int off, int size) {
+        if(buf == null || off < 0 || size <= 0) {
+            return 0;
+        }
+        if(buf.length - off < size) {
+            size = buf.length - off;
+        }
+        if(off == 0) {
+            return write(buf, size);
+        }
+        byte[] tmp = BufferPool.getShared().acquire(size);
+        System.arraycopy(buf, off, tmp, 0, size);
+        int len = write(tmp, size);
+        BufferPool.getShared().release(tmp);
+        return len;
+    }
+
+    /**
+     * Reads byte array with starting offset
+     * @param buf byte array
+     * @param off offset in buf to store from
+     * @param size read size
+     * @return actual read size
+     */
+    public int read(byte[] buf, int off, int size) {
+        if(buf == null || off < 0 || size <= 0) {
+            return 0;
+        }
+        if(buf.length - off < size) {
+            size = buf.length - off;
+        }
+        RingBuffer buffer = getRingBuffer();
+        if(buffer != null) {
+            return buffer.get(buf, off, size);
+        }
+        if(off == 0) {
+            return read(buf, size);
+        }
+        byte[] tmp = new byte[size];
+        int len = read(tmp, size);
+        if(len > 0) {
+            System.arraycopy(tmp, 0, buf, off, len);
+        }
+        return len;
+    }
+
+    /**
+     * Reads byte array, waiting for data up to a timeout.
+     * The caller is parked until the read thread adds data instead of polling.
+     * @param buf byte array
+     * @param off offset in buf to store from
+     * @param size read size
+     * @param timeoutMs maximum wait in milliseconds, 0 then no wait
+     * @return actual read size, 0 on timeout
+     */
+    public int read(byte[] buf, int off, int size, int timeoutMs) {
+        int len = read(buf, off, size);
+        if(len > 0 || timeoutMs <= 0) {
+            return len;
+        }
+        RingBuffer buffer = getRingBuffer();
+        if(buffer != null) {
+            buffer.waitForData(1, timeoutMs);
+            return read(buf, off, size);
+        }
+        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        while(len == 0 && SystemClock.uptimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            len = read(buf, off, size);
+        }
+        return len;
+    }
+
+    /**
+     * Reads until size bytes are read or the deadline passes
+     * @param buf byte array
+     * @param off offset in buf to store from
+     * @param size read size
+     * @param deadline absolute deadline in SystemClock.uptimeMillis() time base
+     * @return actual read size, less than size on timeout
+     */
+    public int readFully(byte[] buf, int off, int size, long deadline) {
+        if(buf == null || off < 0 || size <= 0) {
+            return 0;
+        }
+        if(buf.length - off < size) {
+            size = buf.length - off;
+        }
+        RingBuffer buffer = getRingBuffer();
+        int total = 0;
+        while(total < size) {
+            long remain = deadline - SystemClock.uptimeMillis();
+            if(buffer != null && remain > 0) {
+                // wake once for the rest, but at half the ring at most so
+                // the producer never has to drop while this waits
+                buffer.waitForData(Math.min(size - total, buffer.getRingBufferSize() / 2), remain);
+            }
+            int len = read(buf, off + total, size - total, buffer == null ? (int) Math.max(remain, 0) : 0);
+            if(len > 0) {
+                total += len;
+            } else if(remain <= 0 || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Finds a byte in the received data without consuming it
+     * @param b byte to find
+     * @return offset from the next byte to be read, -1 if not found
+     */
+    public int indexOf(byte b) {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            return -1;
+        }
+        return buffer.indexOf(b);
+    }
+
+    /**
+     * Reads bytes up to and including a delimiter.
+     * Returns size bytes without a delimiter when no delimiter is found
+     * within them, so overlong frames come out in pieces.
+     * @param delimiter delimiter byte e.g. '\n'
+     * @param buf byte array
+     * @param off offset in buf to store from
+     * @param size maximum read size
+     * @return actual read size, 0 if no complete frame has been received
+     */
+    public int readUntil(byte delimiter, byte[] buf, int off, int size) {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            return 0;
+        }
+        return buffer.getUntil(delimiter, buf, off, size);
+    }
+
+    /**
+     * Copies received bytes without consuming them
+     * @param buf byte array
+     * @param off offset in buf to store from
+     * @param size peek size
+     * @return actual peeked size
+     */
+    public int peek(byte[] buf, int off, int size) {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            return 0;
+        }
+        return buffer.peek(buf, off, size);
+    }
+
+    /**
+     * Discards received bytes without copying them
+     * @param size skip size
+     * @return actual skipped size
+     */
+    public int skip(int size) {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            return 0;
+        }
+        return buffer.skip(size);
+    }
+
+    /**
+     * Marks the current read position in the receive buffer
+     * @return true : successful, false : fail
+     */
+    public boolean mark() {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            return false;
+        }
+        buffer.mark();
+        return true;
+    }
+
+    /**
+     * Returns the read position to the mark and removes the mark
+     * @return true : successful, false : no valid mark
+     */
+    public boolean resetToMark() {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            return false;
+        }
+        return buffer.reset();
+    }
+
+    /**
+     * Removes the mark so the marked bytes can be reused
+     */
+    public void unmark() {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer != null) {
+            buffer.unmark();
+        }
+    }
+
+    /**
+     * Records a receive timestamp per USB transfer from now on
+     * @param enable true : record, false : do not record (default)
+     */
+    public void setChunkTimestamps(boolean enable) {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer != null) {
+            buffer.setChunkTimestamps(enable);
+        }
+    }
+
+    /**
+     * Reads bytes of one received chunk with the receive time of the first byte
+     * @param buf byte array
+     * @param off offset in buf to store from
+     * @param size read size
+     * @param timestampNs timestampNs[0] receives the System.nanoTime() of
+     * the first byte, or RingBuffer.NO_TIMESTAMP if it was not recorded
+     * @return actual read size
+     */
+    public int readTimestamped(byte[] buf, int off, int size, long[] timestampNs) {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            if(timestampNs != null && timestampNs.length > 0) {
+                timestampNs[0] = RingBuffer.NO_TIMESTAMP;
+            }
+            return read(buf, off, size);
+        }
+        return buffer.getTimestamped(buf, off, size, timestampNs);
+    }
+
+    /**
+     * Reads into the remaining space of a ByteBuffer
+     * @param dst destination buffer, its position is advanced by the read size
+     * @return actual read size
+     */
+    public int read(ByteBuffer dst) {
+        if(dst == null || !dst.hasRemaining()) {
+            return 0;
+        }
+        RingBuffer buffer = getRingBuffer();
+        if(buffer != null) {
+            return buffer.get(dst);
+        }
+        int len;
+        if(dst.hasArray()) {
+            len = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if(len > 0) {
+                dst.position(dst.position() + len);
+            }
+        } else {
+            byte[] tmp = new byte[dst.remaining()];
+            len = read(tmp, tmp.length);
+            if(len > 0) {
+                dst.put(tmp, 0, len);
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Writes the remaining bytes of a ByteBuffer
+     * @param src source buffer, its position is advanced by the written size
+     * @return actual written size
+     */
+    public int write(ByteBuffer src) {
+        if(src == null || !src.hasRemaining()) {
+            return 0;
+        }
+        int size = src.remaining();
+        int len;
+        if(src.hasArray()) {
+            len = write(src.array(), src.arrayOffset() + src.position(), size);
+        } else {
+            byte[] buf = BufferPool.getShared().acquire(size);
+            src.duplicate().get(buf, 0, size);
+            len = write(buf, 0, size);
+            BufferPool.getShared().release(buf);
+        }
+        if(len > 0) {
+            src.position(src.position() + len);
+        }
+        return len;
+    }
+
+    /**
+     * write() mode: a driver-specific careful mode, e.g. byte by byte
+     */
+    public static final int WRITE_MODE_CONSERVATIVE = 0;
+    /**
+     * write() mode: large bulk transfers
+     */
+    public static final int WRITE_MODE_BULK = 1;
+
+    /**
+     * Selects how write() sends data. Drivers that always use bulk
+     * transfers only accept WRITE_MODE_BULK.
+     * @param mode WRITE_MODE_CONSERVATIVE or WRITE_MODE_BULK
+     * @return true : successful, false : not supported
+     */
+    public boolean setWriteMode(int mode) {
+        return mode == WRITE_MODE_BULK;
+    }
+
+    /**
+     * Gets the write() mode
+     * @return WRITE_MODE_CONSERVATIVE or WRITE_MODE_BULK
+     */
+    public int getWriteMode() {
+        return WRITE_MODE_BULK;
+    }
+
+    /**
+     * Default number of max packets sent per USB bulk transfer
+     */
+    public static final int WRITE_CHUNK_PACKETS_DEFAULT = 4;
+    /**
+     * Largest USB bulk transfer made by write()
+     */
+    public static final int WRITE_CHUNK_SIZE_MAX = 16 * 1024;
+    private static final int WRITE_TIMEOUT_MS_MIN = 100;
+
+    /**
+     * Sets how many max packets of the OUT endpoint each USB bulk transfer
+     * of write() carries, up to WRITE_CHUNK_SIZE_MAX bytes.
+     * Drivers without USB bulk transfers ignore it.
+     * @param packets packets per transfer, at least 1
+     * @return true : successful, false : fail
+     */
+    public boolean setWriteChunkPackets(int packets) {
+        if(packets < 1) {
+            return false;
+        }
+        mWriteChunkPackets = packets;
+        return true;
+    }
+
+    /**
+     * Sets whether write() ends with a zero-length packet when its data
+     * ends exactly on a packet boundary. Some CDC devices only pass data
+     * on after a short packet. Enabled by default.
+     * @param enable true : send, false : do not send
+     */
+    public void setWriteZeroLengthPacket(boolean enable) {
+        mWriteZlp = enable;
+    }
+
+    /**
+     * Checks write() ends on a short packet
+     * @return true : zero-length packets are sent
+     */
+    protected boolean isWriteZeroLengthPacket() {
+        return mWriteZlp;
+    }
+
+    /**
+     * Gets the USB bulk transfer size for an endpoint
+     * @param maxPacketSize max packet size of the OUT endpoint
+     * @return transfer size, a multiple of maxPacketSize
+     */
+    protected int getWriteChunkSize(int maxPacketSize) {
+        if(maxPacketSize <= 0) {
+            maxPacketSize = 64;
+        }
+        int packets = Math.min(mWriteChunkPackets, WRITE_CHUNK_SIZE_MAX / maxPacketSize);
+        return maxPacketSize * Math.max(packets, 1);
+    }
+
+    /**
+     * Gets a timeout long enough for the device to send a chunk on the wire
+     * at the current baudrate, 10 bits per byte with a margin of two.
+     * @param chunkSize transfer size
+     * @return timeout in milliseconds
+     */
+    protected int getWriteTimeout(int chunkSize) {
+        UartConfig config = getUartConfig();
+        int baudrate = (config != null && config.baudrate > 0) ? config.baudrate : 9600;
+        return WRITE_TIMEOUT_MS_MIN + (int) ((long) chunkSize * 10 * 1000 * 2 / baudrate);
+    }
+
+    /**
+     * Sets how long the device holds back a partly filled receive packet.
+     * Lower values shorten the round trip of small replies at the cost of
+     * more USB transfers. Only drivers with a latency timer support it.
+     * @param ms latency in milliseconds, 1 to 255
+     * @return true : successful, false : not supported or fail
+     */
+    public boolean setLatencyTimer(int ms) {
+        return false;
+    }
+
+    /**
+     * Reads the latency timer back from the device
+     * @return latency in milliseconds, -1 if not supported or fail
+     */
+    public int getLatencyTimer() {
+        return -1;
+    }
+
+    /**
+     * Sets a character that makes the device send its receive packet at
+     * once, e.g. '\n' for line based protocols.
+     * Only drivers with an event character support it.
+     * @param c event character
+     * @param enable true : enable, false : disable
+     * @return true : successful, false : not supported or fail
+     */
+    public boolean setEventChar(byte c, boolean enable) {
+        return false;
+    }
+
     /**
      * Checks device is opened
      * @return true : opened, false : not opened
@@ -103,6 +547,31 @@ public abstract class SerialCommunicator {
      */
     abstract public boolean setDtrRts(boolean dtrOn, boolean rtsOn);
 
+    /**
+     * Sets flow control. With flow control on, the read thread also stops
+     * taking data from the device while the receive buffer is full, so the
+     * device holds the sender back.
+     * @param flowControl UartConfig.FLOW_CONTROL_OFF, FLOW_CONTROL_RTS_CTS,
+     * FLOW_CONTROL_DTR_DSR or FLOW_CONTROL_XON_XOFF
+     * @return true : successful, false : not supported by the device or fail
+     */
+    public boolean setFlowControl(int flowControl) {
+        return flowControl == UartConfig.FLOW_CONTROL_OFF;
+    }
+
+    /**
+     * Gets flow control
+     * @return UartConfig.FLOW_CONTROL_OFF, FLOW_CONTROL_RTS_CTS,
+     * FLOW_CONTROL_DTR_DSR or FLOW_CONTROL_XON_XOFF
+     */
+    public int getFlowControl() {
+        UartConfig config = getUartConfig();
+        if(config == null) {
+            return UartConfig.FLOW_CONTROL_OFF;
+        }
+        return config.flowControl;
+    }
+
     /**
      * Gets Uart configurations
      * @return UART configurations
@@ -115,6 +584,27 @@ public abstract class SerialCommunicator {
      */
     abstract public int getBaudrate();
 
+    /**
+     * Gets the baud-rate the chip really runs at. Most chips can only
+     * approximate the configured rate with their clock divisor.
+     * @return actual baud-rate, the configured one if the driver cannot tell
+     */
+    public int getActualBaudrate() {
+        return getBaudrate();
+    }
+
+    /**
+     * Gets the error of the actual baud-rate against the configured one
+     * @return error in percent, positive when the chip runs faster
+     */
+    public double getBaudrateError() {
+        int baudrate = getBaudrate();
+        if(baudrate <= 0) {
+            return 0;
+        }
+        return (getActualBaudrate() - baudrate) * 100.0 / baudrate;
+    }
+
     /**
      * Gets Data bits
      * @return data bits e.g. UartConfig.DATA_BITS8
@@ -174,7 +664,9 @@ public abstract class SerialCommunicator {
     abstract public void stopReadListener();
 
     /**
-     * Clears read buffer
+     * Clears read buffer. USB drivers also purge the chip's RX and TX
+     * FIFOs where the chip supports it and drop reads in flight, so no
+     * byte received before the call is returned after it.
      */
     abstract public void clearBuffer();
 
@@ -195,4 +687,539 @@ public abstract class SerialCommunicator {
      * @param flag true to turn on debugging.
      */
     abstract public void setDebug(boolean flag);
+
+    /**
+     * Gets the receive buffer filled by the driver's read thread
+     * @return RingBuffer or null if the driver does not buffer received data
+     */
+    protected RingBuffer getRingBuffer() {
+        return null;
+    }
+
+    /**
+     * Switches the receive buffer between synchronized and lock-free access.
+     * Lock-free access is only safe while a single thread reads at a time.
+     * @param lockFree true : lock-free, false : synchronized (default)
+     */
+    public void setLockFreeBuffer(boolean lockFree) {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer != null) {
+            buffer.setLockFree(lockFree);
+        }
+    }
+
+    /**
+     * Checks the receive buffer access mode
+     * @return true : lock-free, false : synchronized
+     */
+    public boolean isLockFreeBuffer() {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            return false;
+        }
+        return buffer.isLockFree();
+    }
+
+    /**
+     * Sets what happens when the receive buffer is full
+     * @param policy RingBuffer.OVERFLOW_DROP_NEWEST, OVERFLOW_DROP_OLDEST or OVERFLOW_BLOCK
+     */
+    public void setOverflowPolicy(int policy) {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer != null) {
+            buffer.setOverflowPolicy(policy);
+        }
+    }
+
+    /**
+     * Gets the receive buffer overflow policy
+     * @return RingBuffer.OVERFLOW_DROP_NEWEST, OVERFLOW_DROP_OLDEST or OVERFLOW_BLOCK
+     */
+    public int getOverflowPolicy() {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            return RingBuffer.OVERFLOW_DROP_NEWEST;
+        }
+        return buffer.getOverflowPolicy();
+    }
+
+    /**
+     * Sets the receive buffer fill level counted as a high-water hit
+     * @param bytes buffered length
+     */
+    public void setHighWaterMark(int bytes) {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer != null) {
+            buffer.setHighWaterMark(bytes);
+        }
+    }
+
+    /**
+     * Gets the number of received bytes dropped because the buffer was full
+     * @return dropped bytes
+     */
+    public long getDroppedBytes() {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            return 0;
+        }
+        return buffer.getDroppedBytes();
+    }
+
+    /**
+     * Gets how often the receive buffer reached the high-water mark
+     * @return high-water hits
+     */
+    public int getHighWaterCount() {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            return 0;
+        }
+        return buffer.getHighWaterCount();
+    }
+
+    /**
+     * Gets the largest receive buffer fill level seen
+     * @return peak buffered length
+     */
+    public int getPeakBufferedLength() {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            return 0;
+        }
+        return buffer.getPeakBufferedLength();
+    }
+
+    /**
+     * Adds a listener for modem line changes and line errors.
+     * Overrun errors mean the UART itself lost bytes; getDroppedBytes()
+     * counts bytes the application did not read in time.
+     * Drivers that cannot read the chip status never call it; drivers that
+     * poll the chip do it every 100ms while a listener is registered.
+     * @param listener StatusListener
+     */
+    public void addStatusListener(StatusListener listener) {
+        if(listener == null) {
+            return;
+        }
+        mStatusListeners.addIfAbsent(listener);
+        if(isStatusPolled()) {
+            synchronized(mStatusListeners) {
+                if(mStatusPoller == null) {
+                    mStatusPoller = new Thread(mStatusPoll, "StatusPoller");
+                    mStatusPoller.setDaemon(true);
+                    mStatusPoller.start();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a status listener
+     * @param listener StatusListener
+     */
+    public void removeStatusListener(StatusListener listener) {
+        mStatusListeners.remove(listener);
+    }
+
+    /**
+     * Clears status listeners
+     */
+    public void clearStatusListener() {
+        mStatusListeners.clear();
+    }
+
+    /**
+     * Gets the modem lines and the line event counters.
+     * Drivers that poll the chip read its status first.
+     * @return snapshot of the status
+     */
+    public UartStatus getUartStatus() {
+        pollStatus();
+        synchronized(mStatus) {
+            return new UartStatus(mStatus);
+        }
+    }
+
+    /**
+     * Clears the line event counters
+     */
+    public void resetStatusCounters() {
+        synchronized(mStatus) {
+            mStatus.lineErrors = 0;
+            mStatus.ctsChanges = 0;
+            mStatus.dsrChanges = 0;
+            mStatus.riChanges = 0;
+            mStatus.dcdChanges = 0;
+            mStatus.overrunErrors = 0;
+            mStatus.parityErrors = 0;
+            mStatus.framingErrors = 0;
+            mStatus.breaks = 0;
+        }
+    }
+
+    /**
+     * Checks a status listener is registered, so drivers that poll the
+     * chip only do it when someone is listening
+     * @return true : listened, false : not
+     */
+    protected boolean hasStatusListeners() {
+        return !mStatusListeners.isEmpty();
+    }
+
+    /**
+     * Checks the driver has to poll the chip for its status
+     * @return true : pollStatus() reads the chip, false : status comes with the data or not at all
+     */
+    protected boolean isStatusPolled() {
+        return false;
+    }
+
+    /**
+     * Reads the chip status now. Drivers without status in the data
+     * stream override it and isStatusPolled() to poll the chip and
+     * call updateStatus().
+     */
+    protected void pollStatus() {
+    }
+
+    private Runnable mStatusPoll = new Runnable() {
+        @Override
+        public void run() {
+            for(;;) {
+                synchronized(mStatusListeners) {
+                    if(mStatusListeners.isEmpty()) {
+                        mStatusPoller = null;
+                        return;
+                    }
+                }
+                if(isOpened()) {
+                    pollStatus();
+                    dispatchStatus();
+                }
+                try {
+                    Thread.sleep(STATUS_POLL_MS);
+                } catch(InterruptedException e) {
+                    synchronized(mStatusListeners) {
+                        mStatusPoller = null;
+                    }
+                    return;
+                }
+            }
+        }
+    };
+
+    /**
+     * Records a status report from the chip and counts the changes.
+     * Cheap when nothing changed, so drivers may call it for every packet.
+     * @param modemStatus UartStatus.MODEM_* bits
+     * @param lineErrors UartStatus.LINE_* bits
+     */
+    protected void updateStatus(int modemStatus, int lineErrors) {
+        if(modemStatus == mLastModemStatus && lineErrors == 0) {
+            return;
+        }
+        synchronized(mStatus) {
+            int changed = mStatus.modemStatus < 0 ? 0 : mStatus.modemStatus ^ modemStatus;
+            if((changed & UartStatus.MODEM_CTS) != 0) {
+                mStatus.ctsChanges++;
+            }
+            if((changed & UartStatus.MODEM_DSR) != 0) {
+                mStatus.dsrChanges++;
+            }
+            if((changed & UartStatus.MODEM_RI) != 0) {
+                mStatus.riChanges++;
+            }
+            if((changed & UartStatus.MODEM_DCD) != 0) {
+                mStatus.dcdChanges++;
+            }
+            if((lineErrors & UartStatus.LINE_OVERRUN) != 0) {
+                mStatus.overrunErrors++;
+            }
+            if((lineErrors & UartStatus.LINE_PARITY) != 0) {
+                mStatus.parityErrors++;
+            }
+            if((lineErrors & UartStatus.LINE_FRAMING) != 0) {
+                mStatus.framingErrors++;
+            }
+            if((lineErrors & UartStatus.LINE_BREAK) != 0) {
+                mStatus.breaks++;
+            }
+            mStatus.modemStatus = modemStatus;
+            mStatus.lineErrors = lineErrors;
+            mLastModemStatus = modemStatus;
+        }
+        mStatusChanged = true;
+    }
+
+    /**
+     * Calls the status listeners if updateStatus() recorded a change.
+     * Drivers call this from their read thread outside of any lock.
+     */
+    protected void dispatchStatus() {
+        if(!mStatusChanged) {
+            return;
+        }
+        mStatusChanged = false;
+        if(mStatusListeners.isEmpty()) {
+            return;
+        }
+        UartStatus status;
+        synchronized(mStatus) {
+            status = new UartStatus(mStatus);
+        }
+        for(StatusListener listener : mStatusListeners) {
+            listener.onStatusChanged(status);
+        }
+    }
+
+    /**
+     * Resets dropped bytes, high-water count and peak length
+     */
+    public void resetBufferStats() {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer != null) {
+            buffer.resetStats();
+        }
+    }
+
+    /**
+     * Smallest and largest size chosen by UartConfig.READ_BUFFER_SIZE_AUTO
+     */
+    public static final int READ_BUFFER_SIZE_AUTO_MIN = 1024;
+    public static final int READ_BUFFER_SIZE_AUTO_MAX = 1024 * 1024;
+
+    /**
+     * Sets the receive buffer size. Buffered data is kept.
+     * @param size buffer size in bytes, or UartConfig.READ_BUFFER_SIZE_AUTO
+     * to size it from the baudrate and the read buffer stall time
+     * @return true : successful, false : fail
+     */
+    public boolean setReadBufferSize(int size) {
+        UartConfig config = getUartConfig();
+        if(config == null) {
+            return false;
+        }
+        config.readBufferSize = size;
+        return updateReadBufferSize(config.baudrate);
+    }
+
+    /**
+     * Sets how long the application may stop reading without losing data,
+     * used by UartConfig.READ_BUFFER_SIZE_AUTO
+     * @param stallMs tolerated consumer stall in milliseconds
+     * @return true : successful, false : fail
+     */
+    public boolean setReadBufferStallMs(int stallMs) {
+        UartConfig config = getUartConfig();
+        if(config == null) {
+            return false;
+        }
+        config.readBufferStallMs = stallMs;
+        return updateReadBufferSize(config.baudrate);
+    }
+
+    /**
+     * Gets the current receive buffer size
+     * @return buffer size in bytes, 0 if the driver has no receive buffer
+     */
+    public int getReadBufferSize() {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null) {
+            return 0;
+        }
+        return buffer.getRingBufferSize();
+    }
+
+    /**
+     * Calculates the receive buffer size holding stallMs of data at a baudrate
+     * @param baudrate baudrate e.g. 921600
+     * @param stallMs tolerated consumer stall in milliseconds
+     * @return power of two between READ_BUFFER_SIZE_AUTO_MIN and READ_BUFFER_SIZE_AUTO_MAX
+     */
+    public static int calcReadBufferSize(int baudrate, int stallMs) {
+        long bytes = (long) baudrate / 10 * stallMs / 1000; // 10 bits per byte on the wire
+        int size = READ_BUFFER_SIZE_AUTO_MIN;
+        while(size < bytes && size < READ_BUFFER_SIZE_AUTO_MAX) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Takes the receive buffer settings of a new configuration.
+     * Drivers call this from setUartConfig().
+     * @param config new configurations
+     */
+    protected void applyReadBufferConfig(UartConfig config) {
+        UartConfig current = getUartConfig();
+        if(config == null || current == null) {
+            return;
+        }
+        current.readBufferSize = config.readBufferSize;
+        current.readBufferStallMs = config.readBufferStallMs;
+        updateReadBufferSize(config.baudrate);
+    }
+
+    /**
+     * Resizes the receive buffer for a baudrate. Drivers call this after
+     * the baudrate is changed; it only has an effect in auto mode or after
+     * the configured size has changed.
+     * @param baudrate current baudrate
+     * @return true : successful, false : fail
+     */
+    protected boolean updateReadBufferSize(int baudrate) {
+        RingBuffer buffer = getRingBuffer();
+        UartConfig config = getUartConfig();
+        if(buffer == null || config == null) {
+            return false;
+        }
+        int size = config.readBufferSize;
+        if(size == UartConfig.READ_BUFFER_SIZE_AUTO) {
+            size = calcReadBufferSize(baudrate, config.readBufferStallMs);
+        }
+        return buffer.resize(size);
+    }
+
+    /**
+     * Registers a reader that gets its own copy of every received byte,
+     * independent of read() and of other readers.
+     * Close the reader when done.
+     * @param lossy true then the reader may lose data when it falls behind,
+     * false then it holds back the other broadcast readers instead
+     * @return new reader
+     */
+    public BroadcastRingBuffer.Reader createBroadcastReader(boolean lossy) {
+        BroadcastRingBuffer broadcast;
+        synchronized(this) {
+            broadcast = mBroadcast;
+            if(broadcast == null) {
+                int size = getReadBufferSize();
+                if(size < READ_BUFFER_SIZE_AUTO_MIN) {
+                    size = READ_BUFFER_SIZE_AUTO_MIN;
+                }
+                broadcast = new BroadcastRingBuffer(size);
+                mBroadcast = broadcast;
+            }
+        }
+        return broadcast.createReader(lossy);
+    }
+
+    /**
+     * Passes received bytes to the broadcast readers.
+     * Drivers call this from their read thread.
+     * @param buf byte array
+     * @param off offset to start from
+     * @param size received size
+     */
+    protected void broadcast(byte[] buf, int off, int size) {
+        BroadcastRingBuffer broadcast = mBroadcast;
+        if(broadcast != null && broadcast.hasReaders()) {
+            broadcast.add(buf, off, size);
+        }
+    }
+
+    /**
+     * Passes the remaining bytes of a ByteBuffer to the broadcast readers
+     * without changing its position. Drivers call this from their read thread.
+     * @param src received data
+     */
+    protected void broadcast(ByteBuffer src) {
+        BroadcastRingBuffer broadcast = mBroadcast;
+        if(broadcast != null && broadcast.hasReaders()) {
+            broadcast.add(src);
+        }
+    }
+
+    /**
+     * Number of USB IN requests kept in flight by default
+     */
+    public static final int READ_REQUEST_COUNT_DEFAULT = 4;
+    /**
+     * Request size chosen from the endpoint packet size
+     */
+    public static final int READ_REQUEST_SIZE_AUTO = 0;
+    /**
+     * Largest request size used by READ_REQUEST_SIZE_AUTO
+     */
+    public static final int READ_REQUEST_SIZE_AUTO_MAX = 16 * 1024;
+    /**
+     * Largest number of USB IN requests in flight
+     */
+    public static final int READ_REQUEST_COUNT_MAX = 32;
+    private static final int READ_REQUEST_PACKETS_AUTO = 4;
+
+    /**
+     * Sets how many USB IN requests the read thread keeps in flight and
+     * how large each one is. More and larger requests keep the host
+     * controller busy while received data is copied, at the cost of latency
+     * for short messages. Takes effect the next time the device is opened.
+     * Drivers without USB requests ignore it.
+     * @param count requests in flight, 1 to READ_REQUEST_COUNT_MAX
+     * @param size bytes per request, or READ_REQUEST_SIZE_AUTO
+     * @return true : successful, false : fail
+     */
+    public boolean setReadRequests(int count, int size) {
+        if(count < 1 || count > READ_REQUEST_COUNT_MAX || size < 0) {
+            return false;
+        }
+        mReadRequestCount = count;
+        mReadRequestSize = size;
+        return true;
+    }
+
+    /**
+     * Gets the number of USB IN requests to keep in flight
+     * @return request count
+     */
+    protected int getReadRequestCount() {
+        return mReadRequestCount;
+    }
+
+    /**
+     * Gets how many bytes the read thread may request from the device.
+     * Without flow control there is no limit. With flow control it is the
+     * free receive buffer space, so a full buffer stops the reads and the
+     * device flow control holds the sender back. It is never less than one
+     * request, so a buffer smaller than a request still reads.
+     * @param requestSize bytes per USB IN request
+     * @return byte limit for requests in flight
+     */
+    protected int getReadRequestLimit(int requestSize) {
+        RingBuffer buffer = getRingBuffer();
+        if(buffer == null || getFlowControl() == UartConfig.FLOW_CONTROL_OFF) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(buffer.getRingBufferSize() - buffer.getBufferdLength(), requestSize);
+    }
+
+    /**
+     * Waits briefly while no read request could be queued.
+     * Drivers call this from their read thread.
+     */
+    protected void waitForReadSpace() {
+        try {
+            Thread.sleep(1);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the USB IN request size for an endpoint.
+     * The size is rounded up to a multiple of maxPacketSize so that a short
+     * packet always ends a transfer.
+     * @param maxPacketSize max packet size of the IN endpoint
+     * @return request size in bytes
+     */
+    protected int getReadRequestSize(int maxPacketSize) {
+        if(maxPacketSize <= 0) {
+            return mReadRequestSize > 0 ? mReadRequestSize : 64;
+        }
+        int size = mReadRequestSize;
+        if(size == READ_REQUEST_SIZE_AUTO) {
+            size = Math.min(maxPacketSize * READ_REQUEST_PACKETS_AUTO, READ_REQUEST_SIZE_AUTO_MAX);
+        }
+        return (size + maxPacketSize - 1) / maxPacketSize * maxPacketSize;
+    }
 }
@@ -0,0 +1,215 @@
+package com.physicaloid.lib.framework;
+
+import android.os.SystemClock;
+
+/**
+ * Collects small writes and passes them to a SerialCommunicator as one
+ * transfer, once the threshold is reached, the deadline after the first
+ * pending byte expires, or flush() is called.
+ * Writes of threshold bytes or more go straight through.
+ *
+ * All calls and the deadline flush synchronize on the lock given to the
+ * constructor, so it also serializes against other writers using it.
+ */
+public class WriteCoalescer {
+
+        private static final String TAG = WriteCoalescer.class.getSimpleName();
+        private final SerialCommunicator mSerial;
+        private final Object mLock;
+        private final byte[] mBuf;
+        private final int mDeadlineMs;
+        private int mPending;
+        private long mDeadline;         // uptimeMillis when the pending bytes are due
+        private boolean mFailed;        // a deadline flush failed since the last call
+        private boolean mClosed;
+        private Thread mFlushThread;
+
+        /**
+         * @param serial     opened communicator to write to
+         * @param lock       object synchronized on for every write to serial
+         * @param threshold  bytes collected before a transfer, at least 2
+         * @param deadlineMs longest time a byte waits in milliseconds,
+         *                   0 : only flush on threshold or flush()
+         */
+        public WriteCoalescer(SerialCommunicator serial, Object lock, int threshold, int deadlineMs) {
+                mSerial = serial;
+                mLock = lock;
+                mBuf = new byte[threshold < 2 ? 2 : threshold];
+                mDeadlineMs = deadlineMs < 0 ? 0 : deadlineMs;
+                if(mDeadlineMs > 0) {
+                        mFlushThread = new Thread(mFlushLoop, TAG);
+                        mFlushThread.setDaemon(true);
+                        mFlushThread.start();
+                }
+        }
+
+        /**
+         * Gets the communicator written to
+         *
+         * @return communicator
+         */
+        public SerialCommunicator getSerialCommunicator() {
+                return mSerial;
+        }
+
+        /**
+         * Gets the threshold
+         *
+         * @return bytes collected before a transfer
+         */
+        public int getThreshold() {
+                return mBuf.length;
+        }
+
+        /**
+         * Gets the deadline
+         *
+         * @return deadline in milliseconds, 0 : none
+         */
+        public int getDeadlineMs() {
+                return mDeadlineMs;
+        }
+
+        /**
+         * Gets the number of bytes waiting to be written
+         *
+         * @return pending bytes
+         */
+        public int getPending() {
+                synchronized(mLock) {
+                        return mPending;
+                }
+        }
+
+        /**
+         * Writes or collects bytes
+         *
+         * @param buf  byte array
+         * @param size write size
+         *
+         * @return accepted byte size, -1 if a transfer failed
+         */
+        public int write(byte[] buf, int size) {
+                return write(buf, 0, size);
+        }
+
+        /**
+         * Writes or collects bytes with starting offset
+         *
+         * @param buf  byte array
+         * @param off  offset in buf to write from
+         * @param size write size
+         *
+         * @return accepted byte size, -1 if a transfer failed
+         */
+        public int write(byte[] buf, int off, int size) {
+                if(buf == null || off < 0 || size <= 0) {
+                        return 0;
+                }
+                if(buf.length - off < size) {
+                        size = buf.length - off;
+                }
+                synchronized(mLock) {
+                        if(mClosed) {
+                                return mSerial.write(buf, off, size);
+                        }
+                        if(takeFailed()) {
+                                return -1;
+                        }
+                        if(mPending + size > mBuf.length && flushLocked() < 0) {
+                                return -1;
+                        }
+                        if(size >= mBuf.length) {
+                                return mSerial.write(buf, off, size);
+                        }
+                        System.arraycopy(buf, off, mBuf, mPending, size);
+                        if(mPending == 0) {
+                                mDeadline = SystemClock.uptimeMillis() + mDeadlineMs;
+                                mLock.notifyAll();
+                        }
+                        mPending += size;
+                        if(mPending == mBuf.length && flushLocked() < 0) {
+                                return -1;
+                        }
+                        return size;
+                }
+        }
+
+        /**
+         * Writes the pending bytes now
+         *
+         * @return written byte size, -1 if a transfer failed
+         */
+        public int flush() {
+                synchronized(mLock) {
+                        if(takeFailed()) {
+                                return -1;
+                        }
+                        return flushLocked();
+                }
+        }
+
+        /**
+         * Writes the pending bytes and stops the deadline thread.
+         * Later writes go straight through.
+         *
+         * @return written byte size, -1 if a transfer failed
+         */
+        public int close() {
+                synchronized(mLock) {
+                        int ret = flush();
+                        mClosed = true;
+                        mLock.notifyAll();
+                        return ret;
+                }
+        }
+
+        private boolean takeFailed() {
+                boolean failed = mFailed;
+                mFailed = false;
+                return failed;
+        }
+
+        private int flushLocked() {
+                int size = mPending;
+                if(size == 0) {
+                        return 0;
+                }
+                mPending = 0;
+                int off = 0;
+                while(off < size) {     // a short write leaves the rest for another transfer
+                        int written = mSerial.write(mBuf, off, size - off);
+                        if(written <= 0) {
+                                return -1;
+                        }
+                        off += written;
+                }
+                return size;
+        }
+
+        private Runnable mFlushLoop = new Runnable() {
+
+                @Override
+                public void run() {
+                        synchronized(mLock) {
+                                try {
+                                        while(!mClosed) {
+                                                if(mPending == 0) {
+                                                        mLock.wait();
+                                                        continue;
+                                                }
+                                                long remain = mDeadline - SystemClock.uptimeMillis();
+                                                if(remain > 0) {
+                                                        mLock.wait(remain);
+                                                        continue;
+                                                }
+                                                if(flushLocked() < 0) {
+                                                        mFailed = true;
+                                                }
+                                        }
+                                } catch(InterruptedException e) {
+                                }
+                        }
+                }
+        };
+}
@@ -27,6 +27,7 @@
 
 package com.physicaloid.lib.programmer.avr;
 
+import android.os.SystemClock;
 import android.util.Log;
 import com.physicaloid.BuildConfig;
 import com.physicaloid.lib.framework.SerialCommunicator;
@@ -210,6 +211,10 @@ public class Stk500 extends UploadProtocol{
     private static final boolean DEBUG_SHOW_DRAIN       = true && !DEBUG_NOT_SHOW;
     private static final boolean DEBUG_SHOW_DUMP_LOGE   = true && !DEBUG_NOT_SHOW;
 
+    private static final int RECV_TIMEOUT_MS    = 250;
+    private static final int DRAIN_TIME_MS      = 1000;   // longest drain on a noisy line
+    private static final int DRAIN_QUIET_MS     = 100;
+
     SerialCommunicator mComm;
     AvrConf mAVRConf;
     AVRMem mAVRMem;
@@ -248,48 +253,39 @@ public class Stk500 extends UploadProtocol{
     private int recv(byte[] buf, int length) {
         int retval=0;
         int totalRetval=0;
-        long endTime;
-        long startTime = System.currentTimeMillis();
-        byte[] tmpbuf = new byte[length];
 
         while(true) {
-            retval = mComm.read(tmpbuf,length);
-//            retval = mSerial.read(tmpbuf);
+            // waits up to 250ms for each chunk without spinning
+            retval = mComm.read(buf, totalRetval, length - totalRetval, RECV_TIMEOUT_MS);
             if(retval > 0) {
-                System.arraycopy(tmpbuf, 0, buf, totalRetval, retval);
                 totalRetval += retval;
-                startTime = System.currentTimeMillis();
                 if(DEBUG_SHOW_RECV) {
                     Log.d(TAG, "recv("+retval+") : " +toHexStr(buf, totalRetval));
                 }
-            }
-            if(totalRetval >= length){break;}
-
-            endTime = System.currentTimeMillis();
-            if((endTime - startTime) > 250) {
+            } else {
                 Log.e(TAG,"recv timeout.");
                 break;
             }
+            if(totalRetval >= length){break;}
         }
         return retval;
     }
 
     // リードバッファをカラにする
+    // clearBuffer() already purged the chip, so only wait for replies to stop
     private int drain() {
         byte[] buf = new byte[1];
         int retval = 0;
-        long endTime;
-        long startTime = System.currentTimeMillis();
-        while(true) {
-            retval = mComm.read(buf,1);
-            if(retval > 0) {
-//                startTime = System.currentTimeMillis();
-                if(DEBUG_SHOW_DRAIN) {
-                    Log.d(TAG, "drain("+retval+") : " +toHexStr(buf[0]));
-                }
+        long endTime = SystemClock.uptimeMillis() + DRAIN_TIME_MS;
+        while(SystemClock.uptimeMillis() < endTime) {
+            // returns 0 once the line has been quiet for DRAIN_QUIET_MS
+            retval = mComm.read(buf, 0, 1, DRAIN_QUIET_MS);
+            if(retval <= 0) {
+                break;
+            }
+            if(DEBUG_SHOW_DRAIN) {
+                Log.d(TAG, "drain("+retval+") : " +toHexStr(buf[0]));
             }
-            endTime = System.currentTimeMillis();
-            if((endTime - startTime) > 1000) {break;}
         }
         return retval;
     }
@@ -377,6 +373,8 @@ public class Stk500 extends UploadProtocol{
         setDtrRts(true);
         try { Thread.sleep(50); } catch (InterruptedException e) {}
 
+        // nothing has been sent yet, so purging both directions is safe
+        mComm.clearBuffer();
         drain();
         if(getsync()<0) { return -1; }
         return 0;
@@ -43,6 +43,8 @@ public class Stk500V2 extends UploadProtocol {
         private static final boolean DEBUG_SHOW_GETSYNC = true && !DEBUG_NOT_SHOW;
         private static final boolean DEBUG_SHOW_DRAIN = true && !DEBUG_NOT_SHOW;
         private static final int RETRIES = 1; // was 5. Why is it 5?
+        private static final int READ_TIMEOUT_MS = 100; // blocking read slice, the recv() timeout is checked between slices
+        private static final int DRAIN_QUIET_MS = 250;
         // *** XPROG command constants ***
         private static final int CMD_XPROG = 0x50;
         private static final int CMD_XPROG_SETMODE = 0x51;
@@ -181,20 +183,15 @@ public class Stk500V2 extends UploadProtocol {
         private int drain() {
                 byte[] buf = new byte[1];
                 int retval = 0;
-                long endTime;
-                long startTime = System.currentTimeMillis();
                 while(true) {
-                        retval = mComm.read(buf, 1);
-                        if(retval > 0) {
-                                startTime = System.currentTimeMillis();
-                                if(DEBUG_SHOW_DRAIN) {
-                                        Log.d(TAG, "drain(" + retval + ") : " + toHexStr(buf[0]));
-                                }
-                        }
-                        endTime = System.currentTimeMillis();
-                        if((endTime - startTime) > 250) {
+                        // returns 0 once the line has been quiet for DRAIN_QUIET_MS
+                        retval = mComm.read(buf, 0, 1, DRAIN_QUIET_MS);
+                        if(retval <= 0) {
                                 break;
                         }
+                        if(DEBUG_SHOW_DRAIN) {
+                                Log.d(TAG, "drain(" + retval + ") : " + toHexStr(buf[0]));
+                        }
                 }
                 return retval;
         }
@@ -950,7 +947,7 @@ public class Stk500V2 extends UploadProtocol {
 
         private int read(byte[] buf, int length) {
                 int retval;
-                retval = mComm.read(buf, length);
+                retval = mComm.read(buf, 0, length, READ_TIMEOUT_MS);
                 if(DEBUG_SHOW_READ) {
                         if(retval > 0) {
                                 String str = "";
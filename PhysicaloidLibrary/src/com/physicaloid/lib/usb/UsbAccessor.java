@@ -17,8 +17,10 @@
 package com.physicaloid.lib.usb;
 
 import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
@@ -27,10 +29,26 @@ import android.hardware.usb.UsbManager;
 import android.util.Log;
 import android.util.SparseArray;
 import com.physicaloid.BuildConfig;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 /*
  * USB Hierarchy Accessor
  *  Enum singleton pattern
+ *
+ * Each channel claims one interface on its own UsbDeviceConnection, so
+ * requestWait() on it only returns that channel's requests. Channels on the
+ * same device are counted per device, and an interface is claimed by one
+ * channel at a time.
+ *
+ * The device list is read once into a snapshot which is indexed by VID/PID
+ * and dropped on USB attach/detach, so lookups do not query UsbManager.
+ * A hierarchy device number is only stable within one snapshot, so code
+ * that opens a device takes the UsbDevice once and passes it on.
  */
 public enum UsbAccessor {
     INSTANCE;   // enum singleton
@@ -41,11 +59,58 @@ public enum UsbAccessor {
 
     private UsbManager mManager = null;
     private PendingIntent mPermissionIntent = null;
+    private BroadcastReceiver mDeviceReceiver = null;
+    private volatile Snapshot mSnapshot = null;            // null : re-read device list
 
-    private SparseArray<UsbDeviceConnection> mConnection;
+    private SparseArray<Channel> mChannel;                  // guarded by this
+    private HashMap<String, DeviceRecord> mDevice;          // by device name, guarded by this
 
     private UsbAccessor() {
-        mConnection = new SparseArray<UsbDeviceConnection>();
+        mChannel = new SparseArray<Channel>();
+        mDevice = new HashMap<String, DeviceRecord>();
+    }
+
+    private static class DeviceRecord {
+        final SparseArray<Channel> claimed = new SparseArray<Channel>();  // by interface id
+        int refCount;
+    }
+
+    private static class Snapshot {
+        final UsbDevice[] devices;
+        final Set<String> permitted;            // device names, permission holds until detached
+        final SparseArray<UsbDevice[]> byVid;
+        final SparseArray<UsbDevice[]> byVidPid; // vid<<16|pid
+
+        Snapshot(Collection<UsbDevice> list) {
+            devices = list.toArray(new UsbDevice[list.size()]);
+            permitted = Collections.synchronizedSet(new HashSet<String>());
+            byVid = new SparseArray<UsbDevice[]>();
+            byVidPid = new SparseArray<UsbDevice[]>();
+            for(UsbDevice device : devices) {
+                int vid = device.getVendorId();
+                add(byVid, vid, device);
+                add(byVidPid, (vid << 16) | device.getProductId(), device);
+            }
+        }
+
+        private static void add(SparseArray<UsbDevice[]> index, int key, UsbDevice device) {
+            UsbDevice[] old = index.get(key);
+            UsbDevice[] found = (old == null) ? new UsbDevice[1] : Arrays.copyOf(old, old.length + 1);
+            found[found.length - 1] = device;
+            index.put(key, found);
+        }
+    }
+
+    private static class Channel {
+        final String deviceName;
+        final UsbDeviceConnection connection;
+        final UsbInterface intf;
+
+        Channel(String deviceName, UsbDeviceConnection connection, UsbInterface intf) {
+            this.deviceName = deviceName;
+            this.connection = connection;
+            this.intf = intf;
+        }
     }
 
     /**
@@ -68,6 +133,103 @@ public enum UsbAccessor {
                 mPermissionIntent = PendingIntent.getBroadcast(context, 0, new Intent("USB_PERMISSION"), 0);
             }
         }
+
+        if(mDeviceReceiver == null) {
+            mDeviceReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context c, Intent intent) {
+                    invalidate();
+                }
+            };
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+            filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+            Context app = context.getApplicationContext();
+            (app != null ? app : context).registerReceiver(mDeviceReceiver, filter);
+        }
+    }
+
+    /**
+     * Drops the device snapshot, the next lookup re-reads the device list.
+     * Called on USB attach/detach.
+     */
+    public void invalidate() {
+        mSnapshot = null;
+        if(DEBUG_SHOW){ Log.d(TAG, "Device snapshot invalidated"); }
+    }
+
+    private Snapshot snapshot() {
+        Snapshot snap = mSnapshot;
+        if(snap == null) {
+            synchronized(this) {
+                snap = mSnapshot;
+                if(snap == null) {
+                    if(mManager == null) return new Snapshot(Collections.<UsbDevice>emptyList());
+                    snap = new Snapshot(mManager.getDeviceList().values());
+                    mSnapshot = snap;
+                }
+            }
+        }
+        return snap;
+    }
+
+    /**
+     * Gets all attached devices, without checking permission
+     * @return devices of one snapshot in hierarchy order
+     */
+    public UsbDevice[] getDevices() {
+        return snapshot().devices.clone();
+    }
+
+    /**
+     * Finds devices by VID and PID, without checking permission
+     * @param vid vendor ID
+     * @param pid product ID, 0 : any
+     * @return devices of one snapshot in hierarchy order, empty if none
+     */
+    public UsbDevice[] findDevices(int vid, int pid) {
+        Snapshot snap = snapshot();
+        UsbDevice[] found = (pid == 0) ? snap.byVid.get(vid) : snap.byVidPid.get((vid << 16) | pid);
+        return (found == null) ? new UsbDevice[0] : found.clone();
+    }
+
+    /**
+     * Finds a device by VID, PID and serial number, without checking permission
+     * @param vid vendor ID
+     * @param pid product ID, 0 : any
+     * @param serial serial number, null : any
+     * @return UsbDevice or null
+     */
+    public UsbDevice findDevice(int vid, int pid, String serial) {
+        for(UsbDevice device : findDevices(vid, pid)) {
+            if(serial == null || serial.equals(serialNumber(device))) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    private String serialNumber(UsbDevice device) {
+        if(android.os.Build.VERSION.SDK_INT < 21) return null;
+        try {
+            return device.getSerialNumber();
+        } catch(SecurityException e) {  // needs permission since API 29
+            return null;
+        }
+    }
+
+    /**
+     * Finds an interface number by interface class
+     * @param dev USB device
+     * @param intfClass interface class (UsbConstants.USB_CLASS_*)
+     * @return interface number or -1
+     */
+    public int findInterface(UsbDevice dev, int intfClass) {
+        if(dev == null) return -1;
+        for(int i = 0; i < dev.getInterfaceCount(); i++) {
+            if(dev.getInterface(i).getInterfaceClass() == intfClass) return i;
+        }
+        return -1;
     }
 
     public UsbManager manager() {
@@ -81,25 +243,32 @@ public enum UsbAccessor {
      */
     public UsbDevice device(int devNum) {
         if(mManager == null || mPermissionIntent == null) return null;
-        if(mManager.getDeviceList().size() <= devNum) return null;
-
-        int count=0;
-        for (UsbDevice device : mManager.getDeviceList().values()) {
-            if(DEBUG_SHOW){ Log.d(TAG, "Device("+count+") : " + device.toString()); }
-
-            if(count == devNum) {
-                getPermission(device);
-                if (!mManager.hasPermission(device)) {
-                    if(DEBUG_SHOW){ Log.d(TAG, "Doesn't have permission device("+count+") : " + device.toString()); }
-                    return null;
-                } else {
-                    return device;
-                }
-            }
-            count++;
+        Snapshot snap = snapshot();
+        if(devNum < 0 || devNum >= snap.devices.length) {
+            if(DEBUG_SHOW){ Log.d(TAG, "Cannot find device("+devNum+")"); }
+            return null;
         }
-        if(DEBUG_SHOW){ Log.d(TAG, "Cannot find device("+devNum+")"); }
-        return null;
+
+        UsbDevice device = snap.devices[devNum];
+        if(DEBUG_SHOW){ Log.d(TAG, "Device("+devNum+") : " + device.toString()); }
+        return hasPermission(device) ? device : null;
+    }
+
+    /**
+     * Checks permission, requesting it if missing. A granted permission is
+     * remembered until the snapshot is dropped.
+     */
+    private boolean hasPermission(UsbDevice device) {
+        if(mManager == null || mPermissionIntent == null) return false;
+        Snapshot snap = snapshot();
+        if(snap.permitted.contains(device.getDeviceName())) return true;
+        getPermission(device);
+        if (!mManager.hasPermission(device)) {
+            if(DEBUG_SHOW){ Log.d(TAG, "Doesn't have permission device : " + device.toString()); }
+            return false;
+        }
+        snap.permitted.add(device.getDeviceName());
+        return true;
     }
 
     /**
@@ -109,17 +278,23 @@ public enum UsbAccessor {
      * @return UsbInterface or null
      */
     public UsbInterface intface(int devNum, int intfNum) {
-        UsbDevice dev = device(devNum);
+        return intface(device(devNum), intfNum);
+    }
+
+    /**
+     * Gets UsbInterface by a device and interface number
+     * @param dev USB device
+     * @param intfNum hierarchy interface number
+     * @return UsbInterface or null
+     */
+    public UsbInterface intface(UsbDevice dev, int intfNum) {
         if(dev == null) { return null; }
 
-        int devCount = dev.getInterfaceCount();
-        for(int i=0; i<devCount; i++) {
-            if(i==intfNum) {
-                if(DEBUG_SHOW){ Log.d(TAG, "Interface("+devNum+","+intfNum+") : " + dev.getInterface(i).toString()); }
-                return dev.getInterface(i);
-            }
+        if(intfNum >= 0 && intfNum < dev.getInterfaceCount()) {
+            if(DEBUG_SHOW){ Log.d(TAG, "Interface("+dev.getDeviceName()+","+intfNum+") : " + dev.getInterface(intfNum).toString()); }
+            return dev.getInterface(intfNum);
         }
-        if(DEBUG_SHOW){ Log.d(TAG, "Cannot find interface("+devNum+","+intfNum+")"); }
+        if(DEBUG_SHOW){ Log.d(TAG, "Cannot find interface("+dev.getDeviceName()+","+intfNum+")"); }
         return null;
     }
 
@@ -131,33 +306,42 @@ public enum UsbAccessor {
      * @return UsbEndpoint or null
      */
     public UsbEndpoint endpoint(int devNum, int intfNum, int epNum) {
-        UsbInterface intf = intface(devNum, intfNum);
+        return endpoint(device(devNum), intfNum, epNum);
+    }
+
+    /**
+     * Gets UsbEndpoint by a device, interface and endpoint number
+     * @param dev USB device
+     * @param intfNum hierarchy interface number
+     * @param epNum hierarchy endpoint number
+     * @return UsbEndpoint or null
+     */
+    public UsbEndpoint endpoint(UsbDevice dev, int intfNum, int epNum) {
+        UsbInterface intf = intface(dev, intfNum);
         if(intf == null) {return null;}
 
-        int epCount = intf.getEndpointCount();
-        for(int i=0; i<epCount; i++) {
-            if(i==epNum) {
-                if(DEBUG_SHOW){ Log.d(TAG, "Endpoint("+devNum+","+intfNum+","+epNum+") : " + intf.getEndpoint(i).toString()); }
-                return intf.getEndpoint(i);
-            }
+        if(epNum >= 0 && epNum < intf.getEndpointCount()) {
+            if(DEBUG_SHOW){ Log.d(TAG, "Endpoint("+dev.getDeviceName()+","+intfNum+","+epNum+") : " + intf.getEndpoint(epNum).toString()); }
+            return intf.getEndpoint(epNum);
         }
-        if(DEBUG_SHOW){ Log.d(TAG, "Cannot find endpoint("+devNum+","+intfNum+","+epNum+")"); }
+        if(DEBUG_SHOW){ Log.d(TAG, "Cannot find endpoint("+dev.getDeviceName()+","+intfNum+","+epNum+")"); }
         return null;
     }
 
     /**
-     * Gets UsbDeviceConnection by a hierarchy device number
-     * @param ch hierarchy device number
+     * Gets UsbDeviceConnection by a channel number
+     * @param ch channel number given to openDevice()
      * @return UsbDeviceConnection or null
      */
-    public UsbDeviceConnection connection(int ch) {
-        if(ch >= mConnection.size()) { return null; }
-        return mConnection.get(ch);
+    public synchronized UsbDeviceConnection connection(int ch) {
+        Channel channel = mChannel.get(ch);
+        if(channel == null) return null;
+        return channel.connection;
     }
 
     /**
-     * Check whether a device is connected or not
-     * @param devNum hierarchy device number
+     * Check whether a channel is connected or not
+     * @param devNum channel number given to openDevice()
      * @return true:connected, false:not connected
      */
     public boolean deviceIsConnected(int devNum) {
@@ -190,43 +374,96 @@ public enum UsbAccessor {
      * @return UsbDeviceConnection or null
      */
     public boolean openDevice(int devNum, int intfNum, int ch) {
-        UsbDevice dev = device(devNum);
-        if(dev == null) { return false; }
+        return openDevice(device(devNum), intfNum, ch);
+    }
+
+    /**
+     * Connect a USB device by a device and interface number
+     * @param dev USB device, e.g. from findDevices()
+     * @param intfNum hierarchy interface number
+     * @param ch channel number
+     * @return true : opened, false : fail
+     */
+    public synchronized boolean openDevice(UsbDevice dev, int intfNum, int ch) {
+        if(mChannel.get(ch) != null) { return false; }
+        if(dev == null || !hasPermission(dev)) { return false; }
+        UsbInterface intf = intface(dev, intfNum);
+        if(intf == null) { return false; }
+        String name = dev.getDeviceName();
+        DeviceRecord device = mDevice.get(name);
+        if(device != null && device.claimed.get(intf.getId()) != null) {
+            if(DEBUG_SHOW){ Log.d(TAG, "Interface("+name+","+intfNum+") is claimed by another channel"); }
+            return false;
+        }
         UsbDeviceConnection con = mManager.openDevice(dev);
         if(con == null) { return false; }
-        if(con.claimInterface(intface(devNum, intfNum), true)) {
-            mConnection.put(ch,con);
-            return true;
-        } else {
-            if(DEBUG_SHOW){ Log.d(TAG, "Cannot get claim interface("+devNum+","+intfNum+")"); }
-            mConnection.remove(devNum);
+        if(!con.claimInterface(intf, true)) {
+            if(DEBUG_SHOW){ Log.d(TAG, "Cannot get claim interface("+name+","+intfNum+")"); }
+            con.close();
             return false;
         }
+        if(device == null) {
+            device = new DeviceRecord();
+            mDevice.put(name, device);
+        }
+        Channel channel = new Channel(name, con, intf);
+        device.claimed.put(intf.getId(), channel);
+        device.refCount++;
+        mChannel.put(ch, channel);
+        return true;
     }
 
-    public boolean close(int devNum) {
-        UsbDeviceConnection con = connection(devNum);
-        if(con == null) return false;
-        mConnection.remove(devNum);
-        con.close();
-        if(DEBUG_SHOW){ Log.d(TAG, "Close("+devNum+")"); }
+    /**
+     * Closes one channel and its connection, other channels of the same
+     * device stay open.
+     * @param ch channel number given to openDevice()
+     * @return true : closed, false : not opened
+     */
+    public synchronized boolean close(int ch) {
+        Channel channel = mChannel.get(ch);
+        if(channel == null) return false;
+        mChannel.remove(ch);
+        closeChannel(channel);
+        DeviceRecord device = mDevice.get(channel.deviceName);
+        if(device != null) {
+            device.claimed.remove(channel.intf.getId());
+            if(--device.refCount == 0) {
+                mDevice.remove(channel.deviceName);
+            }
+        }
+        if(DEBUG_SHOW){ Log.d(TAG, "Close("+ch+")"); }
         return true;
     }
 
-    public boolean closeAll() {
+    public synchronized boolean closeAll() {
         boolean ret = false;
-        UsbDeviceConnection con;
-        for(int i=0; i < mConnection.size(); i++) {
-            con = mConnection.valueAt(i);
-            if(con == null) continue;
-            if(DEBUG_SHOW){ Log.d(TAG, "Close("+mConnection.keyAt(i)+")"); }
-            con.close();
+        for(int i = 0; i < mChannel.size(); i++) {
+            closeChannel(mChannel.valueAt(i));
             ret = true;
         }
-        mConnection.clear();
+        if(DEBUG_SHOW){ Log.d(TAG, "CloseAll("+mChannel.size()+")"); }
+        mChannel.clear();
+        mDevice.clear();
         return ret;
     }
 
+    /**
+     * Gets the number of open channels on a device
+     * @param device USB device
+     * @return open channels, 0 if none
+     */
+    public synchronized int openChannels(UsbDevice device) {
+        if(device == null) return 0;
+        DeviceRecord record = mDevice.get(device.getDeviceName());
+        return record == null ? 0 : record.refCount;
+    }
+
+    private static void closeChannel(Channel channel) {
+        // closing the connection ends a requestWait() blocked on it
+        channel.connection.releaseInterface(channel.intf);
+        channel.connection.close();
+    }
+
     /**
      * Gets devNum device's VID
      * @param devNum
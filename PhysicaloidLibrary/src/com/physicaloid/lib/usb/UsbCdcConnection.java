@@ -31,6 +31,8 @@ public class UsbCdcConnection {
         private static final String TAG = UsbCdcConnection.class.getSimpleName();
         private UsbAccessor mUsbAccess;
         private int mCdcAcmInterfaceNum;
+        private int mInterfaceNum;
+        private int mChannel;
         private int pid;
         SparseArray<UsbCdcConnectionEp> mUsbConnectionEp;
 
@@ -81,51 +83,47 @@ public class UsbCdcConnection {
                         return false;
                 }
 
-                int devNum = 0;
                 int chNum = 0;
-                for(UsbDevice usbdev : mUsbAccess.manager().getDeviceList().values()) {
-                        if(usbdev.getVendorId() == ids.getVid()) {
-                                if(DEBUG_SHOW) {
-                                        Log.d(TAG, "VID PASS " + usbdev.getVendorId());
-                                }
-                                pid = usbdev.getProductId();
-                                if(ids.getPid() == 0 || ids.getPid() == pid) {
+                // devices of one snapshot, a detach while opening cannot shift them
+                for(UsbDevice usbdev : mUsbAccess.findDevices(ids.getVid(), ids.getPid())) {
+                        if(DEBUG_SHOW) {
+                                Log.d(TAG, "VID/PID PASS " + usbdev.getVendorId() + "/" + usbdev.getProductId());
+                        }
+                        pid = usbdev.getProductId();
+                        for(int intfNum = 0; intfNum < usbdev.getInterfaceCount(); intfNum++) {
+                                Log.d(TAG, "Interface class: " +usbdev.getInterface(intfNum).getInterfaceClass()+ "interface num: "+ intfNum);
+                                if((isCdcAcm && (usbdev.getInterface(intfNum).getInterfaceClass() == UsbConstants.USB_CLASS_CDC_DATA)) || !isCdcAcm) {
                                         if(DEBUG_SHOW) {
-                                                Log.d(TAG, "PID PASS " + usbdev.getProductId());
+                                                Log.d(TAG, "ACM PASS");
                                         }
-                                        for(int intfNum = 0; intfNum < usbdev.getInterfaceCount(); intfNum++) {
-                                                Log.d(TAG, "Interface class: " +usbdev.getInterface(intfNum).getInterfaceClass()+ "interface num: "+ intfNum);
-                                                if((isCdcAcm && (usbdev.getInterface(intfNum).getInterfaceClass() == UsbConstants.USB_CLASS_CDC_DATA)) || !isCdcAcm) {
+                                        if(ch == chNum) {
+                                                if(DEBUG_SHOW) {
+                                                        Log.d(TAG, "ch == chNum");
+                                                }
+                                                // connections are keyed by interface, so other ports of the device stay open
+                                                int key = connectionKey(usbdev, intfNum);
+                                                if(!mUsbAccess.deviceIsConnected(key)) {
                                                         if(DEBUG_SHOW) {
-                                                                Log.d(TAG, "ACM PASS");
+                                                                Log.d(TAG, "deviceIsConnected " + usbdev.getDeviceName());
                                                         }
-                                                        if(ch == chNum) {
+                                                        if(mUsbAccess.openDevice(usbdev, intfNum, key)) {
                                                                 if(DEBUG_SHOW) {
-                                                                        Log.d(TAG, "ch == chNum");
+                                                                        Log.d(TAG, "Find VID:" + Integer.toHexString(usbdev.getVendorId()) + ", PID:" + Integer.toHexString(usbdev.getProductId()) + ", Device:" + usbdev.getDeviceName() + ", IntfNum:" + intfNum);
                                                                 }
-                                                                if(!mUsbAccess.deviceIsConnected(devNum)) {
-                                                                        if(DEBUG_SHOW) {
-                                                                                Log.d(TAG, "deviceIsConnected " + devNum);
-                                                                        }
-                                                                        if(mUsbAccess.openDevice(devNum, intfNum, ch)) {
-                                                                                if(DEBUG_SHOW) {
-                                                                                        Log.d(TAG, "Find VID:" + Integer.toHexString(usbdev.getVendorId()) + ", PID:" + Integer.toHexString(usbdev.getProductId()) + ", DevNum:" + devNum + ", IntfNum:" + intfNum);
-                                                                                }
-                                                                                mUsbConnectionEp.put(ch, new UsbCdcConnectionEp(mUsbAccess.connection(ch), getEndpoint(devNum, intfNum, UsbConstants.USB_DIR_IN), getEndpoint(devNum, intfNum, UsbConstants.USB_DIR_OUT)));
-                                                                                mCdcAcmInterfaceNum = intfNum - 1;
-                                                                                if(mCdcAcmInterfaceNum < 0) {
-                                                                                        mCdcAcmInterfaceNum = 0;
-                                                                                }
-                                                                                return true;
-                                                                        }
+                                                                mUsbConnectionEp.put(ch, new UsbCdcConnectionEp(key, mUsbAccess.connection(key), getEndpoint(usbdev, intfNum, UsbConstants.USB_DIR_IN), getEndpoint(usbdev, intfNum, UsbConstants.USB_DIR_OUT)));
+                                                                mChannel = ch;
+                                                                mInterfaceNum = intfNum;
+                                                                mCdcAcmInterfaceNum = intfNum - 1;
+                                                                if(mCdcAcmInterfaceNum < 0) {
+                                                                        mCdcAcmInterfaceNum = 0;
                                                                 }
-                                                                chNum++;
-                                                        } // end of if
-                                                }// end of if
-                                        } // end of for
-                                } // end of if
-                        } // end of if
-                        devNum++;
+                                                                return true;
+                                                        }
+                                                }
+                                                chNum++;
+                                        } // end of if
+                                }// end of if
+                        } // end of for
                 } //end of for
                 if(DEBUG_SHOW) {
                         Log.d(TAG, "Cannot find VID:" + ids.getVid() + ", PID:" + ids.getPid());
@@ -133,14 +131,27 @@ public class UsbCdcConnection {
                 return false;
         }
 
-        private UsbEndpoint getEndpoint(int devNum, int intfNum, int usbDir) {
-                UsbInterface intf = mUsbAccess.intface(devNum, intfNum);
+        /**
+         * Gets the UsbAccessor key of an interface. The device id stays the
+         * same while the device is attached, unlike its hierarchy number.
+         *
+         * @param device  USB device
+         * @param intfNum hierarchy interface number
+         *
+         * @return connection key
+         */
+        private static int connectionKey(UsbDevice device, int intfNum) {
+                return (device.getDeviceId() << 8) | intfNum;
+        }
+
+        private UsbEndpoint getEndpoint(UsbDevice usbdev, int intfNum, int usbDir) {
+                UsbInterface intf = mUsbAccess.intface(usbdev, intfNum);
                 if(intf == null) {
                         return null;
                 }
 
                 for(int i = 0; i < intf.getEndpointCount(); i++) {
-                        UsbEndpoint ep = mUsbAccess.endpoint(devNum, intfNum, i);
+                        UsbEndpoint ep = mUsbAccess.endpoint(usbdev, intfNum, i);
                         if(ep == null) {
                                 return null;
                         }
@@ -154,11 +165,18 @@ public class UsbCdcConnection {
         }
 
         /**
-         * Closes devices
+         * Closes the interfaces opened by this connection. Interfaces opened
+         * by other connections, e.g. the other ports of the device, stay open.
          */
         public boolean close() {
+                boolean ret = false;
+                for(int i = 0; i < mUsbConnectionEp.size(); i++) {
+                        if(mUsbAccess.close(mUsbConnectionEp.valueAt(i).key)) {
+                                ret = true;
+                        }
+                }
                 mUsbConnectionEp.clear();
-                return mUsbAccess.closeAll();
+                return ret;
         }
 
         /**
@@ -170,13 +188,22 @@ public class UsbCdcConnection {
                 return mCdcAcmInterfaceNum;
         }
 
+        /**
+         * Gets the number of the interface opened last
+         *
+         * @return interface number
+         */
+        public int getInterfaceNum() {
+                return mInterfaceNum;
+        }
+
         /**
          * Gets UsbDeviceConnection for CDC
          *
          * @return UsbDeviceConnection or null
          */
         public UsbDeviceConnection getConnection() {
-                return getConnection(0);
+                return getConnection(mChannel);
         }
 
         /**
@@ -200,7 +227,7 @@ public class UsbCdcConnection {
          * @return UsbEndpoint or null
          */
         public UsbEndpoint getEndpointIn() {
-                return getEndpointIn(0);
+                return getEndpointIn(mChannel);
         }
 
         /**
@@ -224,7 +251,7 @@ public class UsbCdcConnection {
          * @return UsbEndpoint or null
          */
         public UsbEndpoint getEndpointOut() {
-                return getEndpointOut(0);
+                return getEndpointOut(mChannel);
         }
 
         /**
@@ -244,11 +271,13 @@ public class UsbCdcConnection {
 
         class UsbCdcConnectionEp {
 
+                public int key;
                 public UsbDeviceConnection connection;
                 public UsbEndpoint endpointIn;
                 public UsbEndpoint endpointOut;
 
-                public UsbCdcConnectionEp(UsbDeviceConnection connection, UsbEndpoint endpointIn, UsbEndpoint endpointOut) {
+                public UsbCdcConnectionEp(int key, UsbDeviceConnection connection, UsbEndpoint endpointIn, UsbEndpoint endpointOut) {
+                        this.key = key;
                         this.connection = connection;
                         this.endpointIn = endpointIn;
                         this.endpointOut = endpointOut;
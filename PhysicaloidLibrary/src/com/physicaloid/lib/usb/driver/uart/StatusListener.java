@@ -0,0 +1,10 @@
+package com.physicaloid.lib.usb.driver.uart;
+
+public interface StatusListener {
+    /**
+     * Called on the read thread when a modem line changes or a line error
+     * is reported
+     * @param status snapshot of the status and counters
+     */
+    public void onStatusChanged(UartStatus status);
+}
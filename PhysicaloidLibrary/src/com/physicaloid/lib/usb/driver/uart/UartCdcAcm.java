@@ -38,9 +38,8 @@ public class UartCdcAcm extends SerialCommunicator {
         private static final int DEFAULT_BAUDRATE = 9600;
         private UsbCdcConnection mUsbConnetionManager;
         private UartConfig mUartConfig;
-        private static final int RING_BUFFER_SIZE = 1024;
+        private static final int RING_BUFFER_SIZE = UartConfig.READ_BUFFER_SIZE_DEFAULT;
         private static final int USB_READ_BUFFER_SIZE = 256;
-        private static final int USB_WRITE_BUFFER_SIZE = 256;
         private RingBuffer mBuffer;
         private boolean mReadThreadStop = true;
         private UsbDeviceConnection mConnection;
@@ -48,8 +47,8 @@ public class UartCdcAcm extends SerialCommunicator {
         private UsbEndpoint mEndpointOut;
         private int mInterfaceNum;
         private boolean isOpened;
-        private byte[] wbuf = new byte[USB_WRITE_BUFFER_SIZE];
         private final Object DevLock = new Object();
+        private volatile UsbReadRequests mReadRequests;
 
         public UartCdcAcm(Context context) {
                 super(context);
@@ -107,39 +106,22 @@ public class UartCdcAcm extends SerialCommunicator {
 
         @Override
         public int write(byte[] buf, int size) {
-                if(buf == null) {
+                return write(buf, 0, size);
+        }
+
+        @Override
+        public int write(byte[] buf, int off, int size) {
+                if(buf == null || off < 0) {
                         return 0;
                 }
-                int offset = 0;
-                int write_size;
-                int written_size;
-
-
-                while(offset < size) {
-                        write_size = USB_WRITE_BUFFER_SIZE;
-
-                        if(offset + write_size > size) {
-                                write_size = size - offset;
-                        }
-                        // optimization!
-                        if(offset == 0) {
-                                synchronized(DevLock) {
-                                        written_size = mConnection.bulkTransfer(mEndpointOut, buf, write_size, 100);
-
-                                }
-                        } else {
-                                System.arraycopy(buf, offset, wbuf, 0, write_size);
-                                synchronized(DevLock) {
-                                        written_size = mConnection.bulkTransfer(mEndpointOut, wbuf, write_size, 100);
-                                }
-                        }
-                        if(written_size < 0) {
-                                return -1;
-                        }
-                        offset += written_size;
+                if(buf.length - off < size) {
+                        size = buf.length - off;
+                }
+                int chunk = getWriteChunkSize(mEndpointOut.getMaxPacketSize());
+                synchronized(DevLock) {
+                        return UsbBulkOut.write(mConnection, mEndpointOut, buf, off, size,
+                                chunk, getWriteTimeout(chunk), isWriteZeroLengthPacket());
                 }
-
-                return offset;
         }
 
         private void stopRead() {
@@ -160,6 +142,14 @@ public class UartCdcAcm extends SerialCommunicator {
                 }
                 return str;
         }
+
+        private String toHexStr(ByteBuffer b) {
+                String str = "";
+                for(int i = b.position(); i < b.limit(); i++) {
+                        str += String.format("%02x ", b.get(i));
+                }
+                return str;
+        }
         private Runnable mLoop = new Runnable() {
 
                 @Override
@@ -170,38 +160,52 @@ public class UartCdcAcm extends SerialCommunicator {
                         } catch(Exception e) {
                         }
                         int len;
-                        byte[] rbuf = new byte[mEndpointIn.getMaxPacketSize()];
+                        long nanos = 0;
                         UsbRequest response;
-                        UsbRequest request = new UsbRequest();
-                        request.initialize(mConnection, mEndpointIn);
+                        ByteBuffer buf;
+                        // several requests stay queued so the bus is never idle while data is copied
+                        UsbReadRequests requests = new UsbReadRequests(mConnection, mEndpointIn,
+                                getReadRequestCount(), getReadRequestSize(mEndpointIn.getMaxPacketSize()));
+                        mReadRequests = requests;
                         Log.d(TAG, "In read");
-                        ByteBuffer buf = ByteBuffer.wrap(rbuf);
                         for(;;) {// this is the main loop for transferring
                                 len = 0;
-                                if(request.queue(buf, rbuf.length)) {
+                                if(requests.queueAll(getReadRequestLimit(requests.getSize())) > 0) {
                                         Log.d(TAG, "before request");
                                         response = mConnection.requestWait();
+                                        nanos = System.nanoTime();   // completion time of this transfer
                                         Log.d(TAG, "after request");
-                                        if(response != null) {
-                                                len = buf.position();
+                                        synchronized(requests) {
+                                                buf = requests.complete(response);
+                                                if(buf != null) {
+                                                        len = buf.position();
+                                                }
+                                                if(len > 0) {
+                                                        buf.flip();
+                                                        if(DEBUG_SHOW) {
+                                                                Log.e(TAG, "read(" + len + "): " + toHexStr(buf));
+                                                        }
+
+                                                        broadcast(buf);
+                                                        mBuffer.add(buf, nanos);
+                                                }
                                         }
                                         if(len > 0) {
-                                                Log.d(TAG, "read(" + len + "): " + toHexStr(rbuf, len));
-                                                if(DEBUG_SHOW) {
-                                                        Log.e(TAG, "read(" + len + "): " + toHexStr(rbuf, len));
-                                                }
-
-                                                mBuffer.add(rbuf, len);
                                                 onRead(len);
                                         } else if(mBuffer.getBufferdLength() > 0) {
                                                 onRead(mBuffer.getBufferdLength());
                                         }
 
-                                } else if(mBuffer.getBufferdLength() > 0) {
-                                        onRead(mBuffer.getBufferdLength());
+                                } else {
+                                        if(mBuffer.getBufferdLength() > 0) {
+                                                onRead(mBuffer.getBufferdLength());
+                                        }
+                                        waitForReadSpace();
                                 }
 
                                 if(mReadThreadStop) {
+                                        mReadRequests = null;
+                                        requests.close();
                                         return;
                                 }
                         }
@@ -218,6 +222,7 @@ public class UartCdcAcm extends SerialCommunicator {
         public boolean setUartConfig(UartConfig config) {
                 boolean res;
                 boolean ret = true;
+                applyReadBufferConfig(config);
                 res = setBaudrate(config.baudrate);
                 ret = ret && res;
 
@@ -283,6 +288,7 @@ public class UartCdcAcm extends SerialCommunicator {
                         return false;
                 }
                 mUartConfig.baudrate = baudrate;
+                updateReadBufferSize(baudrate);
                 return true;
         }
 
@@ -393,7 +399,13 @@ public class UartCdcAcm extends SerialCommunicator {
 
         @Override
         public void clearBuffer() {
-                mBuffer.clear();
+                // CDC ACM has no purge request, so only drop what is in flight
+                UsbReadRequests.purge(mReadRequests, mBuffer);
+        }
+
+        @Override
+        protected RingBuffer getRingBuffer() {
+                return mBuffer;
         }
         //////////////////////////////////////////////////////////
         // Listener for reading uart
@@ -31,7 +31,14 @@ public class UartConfig {
     public static final int PARITY_SPACE        = 4;
 
     public static final int FLOW_CONTROL_OFF    = 0;
-    public static final int FLOW_CONTROL_ON     = 1;
+    public static final int FLOW_CONTROL_ON     = 1;    // same as FLOW_CONTROL_RTS_CTS
+    public static final int FLOW_CONTROL_RTS_CTS    = 1;
+    public static final int FLOW_CONTROL_DTR_DSR    = 2;
+    public static final int FLOW_CONTROL_XON_XOFF   = 3;
+
+    public static final int READ_BUFFER_SIZE_AUTO       = 0;    // sized from baudrate and readBufferStallMs
+    public static final int READ_BUFFER_SIZE_DEFAULT    = 1024;
+    public static final int READ_BUFFER_STALL_MS_DEFAULT = 100;
 
     public int baudrate;
     public int dataBits;
@@ -39,6 +46,9 @@ public class UartConfig {
     public int parity;
     public boolean rtsOn;
     public boolean dtrOn;
+    public int flowControl;
+    public int readBufferSize;
+    public int readBufferStallMs;
 
     public UartConfig() {
         this.baudrate       = 9600;
@@ -47,6 +57,9 @@ public class UartConfig {
         this.parity         = PARITY_NONE;
         this.dtrOn          = false;
         this.rtsOn          = false;
+        this.flowControl    = FLOW_CONTROL_OFF;
+        this.readBufferSize     = READ_BUFFER_SIZE_DEFAULT;
+        this.readBufferStallMs  = READ_BUFFER_STALL_MS_DEFAULT;
     }
 
     public UartConfig(int baudrate, int dataBits, int stopBits, int parity, boolean dtrOn, boolean rtsOn) {
@@ -56,5 +69,8 @@ public class UartConfig {
         this.parity         = parity;
         this.dtrOn          = dtrOn;
         this.rtsOn          = rtsOn;
+        this.flowControl    = FLOW_CONTROL_OFF;
+        this.readBufferSize     = READ_BUFFER_SIZE_DEFAULT;
+        this.readBufferStallMs  = READ_BUFFER_STALL_MS_DEFAULT;
     }
 }
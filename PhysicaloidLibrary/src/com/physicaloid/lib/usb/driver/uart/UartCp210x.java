@@ -23,15 +23,19 @@ public class UartCp210x extends SerialCommunicator {
         private static final int DEFAULT_BAUDRATE = 9600;
         private UsbCdcConnection mUsbConnetionManager;
         private UartConfig mUartConfig;
-        private static final int RING_BUFFER_SIZE = 1024;
+        private int mPartNumber = CP210X_PARTNUM_UNKNOWN;
+        private int mActualBaudrate;
+        private final int mPort;
+        private int mInterfaceNum;      // wIndex of interface requests
+        private static final int RING_BUFFER_SIZE = UartConfig.READ_BUFFER_SIZE_DEFAULT;
         private static final int USB_READ_BUFFER_SIZE = 256;
-        private static final int USB_WRITE_BUFFER_SIZE = 256;
         private RingBuffer mBuffer;
         private boolean mReadThreadStop = true;
         private UsbDeviceConnection mConnection;
         private UsbEndpoint mEndpointIn;
         private UsbEndpoint mEndpointOut;
         private boolean isOpened;
+        private volatile UsbReadRequests mReadRequests;
 
         /*
          * Config request types
@@ -40,7 +44,6 @@ public class UartCp210x extends SerialCommunicator {
         private static final byte REQTYPE_INTERFACE_TO_HOST = (byte) 0xc1;
         @SuppressWarnings("unused")
         private static final byte REQTYPE_HOST_TO_DEVICE = (byte) 0x40;
-        @SuppressWarnings("unused")
         private static final byte REQTYPE_DEVICE_TO_HOST = (byte) 0xc0;
 
         /*
@@ -59,7 +62,6 @@ public class UartCp210x extends SerialCommunicator {
         @SuppressWarnings("unused")
         private static final byte CP210X_IMM_CHAR = 0x06;
         private static final byte CP210X_SET_MHS = 0x07;
-        @SuppressWarnings("unused")
         private static final byte CP210X_GET_MDMSTS = 0x08;
         @SuppressWarnings("unused")
         private static final byte CP210X_SET_XON = 0x09;
@@ -75,13 +77,10 @@ public class UartCp210x extends SerialCommunicator {
         private static final byte CP210X_GET_CHARS = 0x0E;
         @SuppressWarnings("unused")
         private static final byte CP210X_GET_PROPS = 0x0F;
-        @SuppressWarnings("unused")
         private static final byte CP210X_GET_COMM_STATUS = 0x10;
         @SuppressWarnings("unused")
         private static final byte CP210X_RESET = 0x11;
-        @SuppressWarnings("unused")
         private static final byte CP210X_PURGE = 0x12;
-        @SuppressWarnings("unused")
         private static final byte CP210X_SET_FLOW = 0x13;
         @SuppressWarnings("unused")
         private static final byte CP210X_GET_FLOW = 0x14;
@@ -94,6 +93,24 @@ public class UartCp210x extends SerialCommunicator {
         @SuppressWarnings("unused")
         private static final byte CP210X_GET_BAUDRATE = 0x1D;
         private static final byte CP210X_SET_BAUDRATE = 0x1E;
+        private static final byte CP210X_VENDOR_SPECIFIC = (byte) 0xFF;
+
+        /*
+         * CP210X_VENDOR_SPECIFIC
+         */
+        private static final int CP210X_GET_PARTNUM = 0x370B;
+        private static final int CP210X_PARTNUM_CP2101 = 0x01;
+        private static final int CP210X_PARTNUM_CP2102 = 0x02;
+        private static final int CP210X_PARTNUM_CP2103 = 0x03;
+        private static final int CP210X_PARTNUM_CP2104 = 0x04;
+        private static final int CP210X_PARTNUM_CP2105 = 0x05;
+        @SuppressWarnings("unused")
+        private static final int CP210X_PARTNUM_CP2108 = 0x08;
+        private static final int CP210X_PARTNUM_CP2102N_QFN28 = 0x20;
+        private static final int CP210X_PARTNUM_CP2102N_QFN24 = 0x21;
+        private static final int CP210X_PARTNUM_CP2102N_QFN20 = 0x22;
+        private static final int CP210X_PARTNUM_UNKNOWN = 0xFF;
+        private static final int CP210X_CLOCK = 48000000;
 
         /*
          * CP210X_IFC_ENABLE
@@ -101,6 +118,11 @@ public class UartCp210x extends SerialCommunicator {
         private static final int UART_ENABLE = 0x0001;
         private static final int UART_DISABLE = 0x0000;
 
+        /*
+         * CP210X_PURGE
+         */
+        private static final int PURGE_ALL = 0x000f;
+
         /*
          * CP210X_(SET|GET)_BAUDDIV
          */
@@ -155,8 +177,44 @@ public class UartCp210x extends SerialCommunicator {
         private static final int CONTROL_WRITE_DTR = 0x0100;
         private static final int CONTROL_WRITE_RTS = 0x0200;
 
+        /*
+         * CP210X_SET_FLOW, ulControlHandshake
+         */
+        private static final int SERIAL_DTR_ACTIVE = 0x00000001;
+        private static final int SERIAL_DTR_HANDSHAKE = 0x00000002;
+        private static final int SERIAL_CTS_HANDSHAKE = 0x00000008;
+        private static final int SERIAL_DSR_HANDSHAKE = 0x00000010;
+        /*
+         * CP210X_SET_FLOW, ulFlowReplace
+         */
+        private static final int SERIAL_AUTO_TRANSMIT = 0x00000001;
+        private static final int SERIAL_AUTO_RECEIVE = 0x00000002;
+        private static final int SERIAL_RTS_ACTIVE = 0x00000040;
+        private static final int SERIAL_RTS_HANDSHAKE = 0x00000080;
+
+        /*
+         * CP210X_GET_COMM_STATUS, ulErrors is cleared by reading it
+         */
+        private static final int COMM_STATUS_SIZE = 19;
+        private static final int SERIAL_BREAK = 0x01;
+        private static final int SERIAL_FRAME = 0x02;
+        private static final int SERIAL_HW_OVERRUN = 0x04;
+        private static final int SERIAL_QUEUE_OVERRUN = 0x08;
+        private static final int SERIAL_PARITY = 0x10;
+        private static final int FLOW_XON_LIMIT = 128;       // bytes free in the chip before XON
+        private static final int FLOW_XOFF_LIMIT = 128;      // bytes free in the chip at XOFF
+
         public UartCp210x(Context context) {
+                this(context, 0);
+        }
+
+        /**
+         * @param context context
+         * @param port    n-th CP210x interface to open, e.g. 1 for the SCI port of a CP2105
+         */
+        public UartCp210x(Context context, int port) {
                 super(context);
+                mPort = port;
                 mUsbConnetionManager = new UsbCdcConnection(context);
                 mUartConfig = new UartConfig();
                 mBuffer = new RingBuffer(RING_BUFFER_SIZE);
@@ -176,10 +234,11 @@ public class UartCp210x extends SerialCommunicator {
         }
 
         public boolean open(UsbVidPid ids) {
-                if(mUsbConnetionManager.open(ids)) {
+                if(mUsbConnetionManager.open(ids, false, mPort)) {
                         mConnection = mUsbConnetionManager.getConnection();
                         mEndpointIn = mUsbConnetionManager.getEndpointIn();
                         mEndpointOut = mUsbConnetionManager.getEndpointOut();
+                        mInterfaceNum = mUsbConnetionManager.getInterfaceNum();
                         if(!init()) {
                                 return false;
                         }
@@ -209,31 +268,20 @@ public class UartCp210x extends SerialCommunicator {
 
         @Override
         public int write(byte[] buf, int size) {
-                if(buf == null) {
+                return write(buf, 0, size);
+        }
+
+        @Override
+        public int write(byte[] buf, int off, int size) {
+                if(buf == null || off < 0) {
                         return 0;
                 }
-                int offset = 0;
-                int write_size;
-                int written_size;
-                byte[] wbuf = new byte[USB_WRITE_BUFFER_SIZE];
-
-                while(offset < size) {
-                        write_size = USB_WRITE_BUFFER_SIZE;
-
-                        if(offset + write_size > size) {
-                                write_size = size - offset;
-                        }
-                        System.arraycopy(buf, offset, wbuf, 0, write_size);
-
-                        written_size = mConnection.bulkTransfer(mEndpointOut, wbuf, write_size, 100);
-
-                        if(written_size < 0) {
-                                return -1;
-                        }
-                        offset += written_size;
+                if(buf.length - off < size) {
+                        size = buf.length - off;
                 }
-
-                return offset;
+                int chunk = getWriteChunkSize(mEndpointOut.getMaxPacketSize());
+                return UsbBulkOut.write(mConnection, mEndpointOut, buf, off, size,
+                        chunk, getWriteTimeout(chunk), isWriteZeroLengthPacket());
         }
 
         private void stopRead() {
@@ -251,41 +299,47 @@ public class UartCp210x extends SerialCommunicator {
                 @Override
                 public void run() {
                         int len;
-                        // byte[] rbuf = new byte[USB_READ_BUFFER_SIZE];
-                        byte[] rbuf = new byte[mEndpointIn.getMaxPacketSize()];
+                        long nanos = 0;
                         android.os.Process.setThreadPriority(-20);
                         UsbRequest response;
-                        UsbRequest request = new UsbRequest();
-                        request.initialize(mConnection, mEndpointIn);
-                        ByteBuffer buf = ByteBuffer.wrap(rbuf);
+                        ByteBuffer buf;
+                        UsbReadRequests requests = new UsbReadRequests(mConnection, mEndpointIn,
+                                getReadRequestCount(), getReadRequestSize(mEndpointIn.getMaxPacketSize()));
+                        mReadRequests = requests;
                         for(;;) {// this is the main loop for transferring
                                 len = 0;
-                                if(request.queue(buf, rbuf.length)) {
+                                if(requests.queueAll(getReadRequestLimit(requests.getSize())) > 0) {
                                         response = mConnection.requestWait();
-                                        if(response != null) {
-                                                len = buf.position();
+                                        nanos = System.nanoTime();   // completion time of this transfer
+                                        synchronized(requests) {
+                                                buf = requests.complete(response);
+                                                if(buf != null) {
+                                                        len = buf.position();
+                                                }
+                                                if(len > 0) {
+                                                        buf.flip();
+                                                        broadcast(buf);
+                                                        mBuffer.add(buf, nanos);
+                                                }
                                         }
                                         if(len > 0) {
-                                                mBuffer.add(rbuf, len);
                                                 onRead(len);
                                         } else if(mBuffer.getBufferdLength() > 0) {
                                                 onRead(mBuffer.getBufferdLength());
-                                        } else if(mBuffer.getBufferdLength() > 0) {
-                                                onRead(mBuffer.getBufferdLength());
                                         }
 
-
+                                } else {
+                                        if(mBuffer.getBufferdLength() > 0) {
+                                                onRead(mBuffer.getBufferdLength());
+                                        }
+                                        waitForReadSpace();
                                 }
 
                                 if(mReadThreadStop) {
+                                        mReadRequests = null;
+                                        requests.close();
                                         return;
                                 }
-
-                                try {
-                                        Thread.sleep(1);
-                                } catch(InterruptedException e) {
-                                }
-
                         }
                 } // end of run()
         }; // end of runnable
@@ -294,6 +348,7 @@ public class UartCp210x extends SerialCommunicator {
         public boolean setUartConfig(UartConfig config) {
                 boolean res;
                 boolean ret = true;
+                applyReadBufferConfig(config);
                         res = setBaudrate(config.baudrate);
                         ret = ret && res;
 
@@ -306,6 +361,9 @@ public class UartCp210x extends SerialCommunicator {
                         res = setStopBits(config.stopBits);
                         ret = ret && res;
 
+                        res = setFlowControl(config.flowControl);
+                        ret = ret && res;
+
                         res = setDtrRts(config.dtrOn, config.rtsOn);
                         ret = ret && res;
 
@@ -322,6 +380,7 @@ public class UartCp210x extends SerialCommunicator {
                 if(ret < 0) {
                         return false;
                 }
+                mPartNumber = cp210xGetPartNumber();
                 return true;
         }
 
@@ -343,7 +402,7 @@ public class UartCp210x extends SerialCommunicator {
                         REQTYPE_HOST_TO_INTERFACE,
                         CP210X_IFC_ENABLE,
                         UART_ENABLE,
-                        0,
+                        mInterfaceNum,
                         null,
                         0,
                         100);
@@ -362,7 +421,53 @@ public class UartCp210x extends SerialCommunicator {
                         REQTYPE_HOST_TO_INTERFACE,
                         CP210X_IFC_ENABLE,
                         UART_DISABLE,
+                        mInterfaceNum,
+                        null,
                         0,
+                        100);
+        }
+
+        /**
+         * Reads the part number, all CP210x share one PID
+         *
+         * @return CP210X_PARTNUM_*, CP210X_PARTNUM_UNKNOWN if it cannot be read
+         */
+        private int cp210xGetPartNumber() {
+                if(mConnection == null) {
+                        return CP210X_PARTNUM_UNKNOWN;
+                }
+                byte[] buf = new byte[1];
+                int ret = mConnection.controlTransfer(
+                        REQTYPE_DEVICE_TO_HOST,
+                        CP210X_VENDOR_SPECIFIC,
+                        CP210X_GET_PARTNUM,
+                        mInterfaceNum,
+                        buf,
+                        1,
+                        100);
+                if(ret < 1) {
+                        return CP210X_PARTNUM_UNKNOWN;
+                }
+                if(DEBUG_SHOW) {
+                        Log.d(TAG, "Part number " + String.format("0x%02X", buf[0]));
+                }
+                return buf[0] & 0xff;
+        }
+
+        /**
+         * Purges the transmit and receive queues of CP210x
+         *
+         * @return positive value : successful, negative value : fail
+         */
+        private int cp210xPurge() {
+                if(mConnection == null) {
+                        return -1;
+                }
+                return mConnection.controlTransfer(
+                        REQTYPE_HOST_TO_INTERFACE,
+                        CP210X_PURGE,
+                        PURGE_ALL,
+                        mInterfaceNum,
                         null,
                         0,
                         100);
@@ -384,7 +489,7 @@ public class UartCp210x extends SerialCommunicator {
                         REQTYPE_INTERFACE_TO_HOST,
                         request,
                         0x0000,
-                        0,
+                        mInterfaceNum,
                         buf,
                         size,
                         100);
@@ -407,80 +512,153 @@ public class UartCp210x extends SerialCommunicator {
                         REQTYPE_HOST_TO_INTERFACE,
                         request,
                         0x0000,
-                        0,
+                        mInterfaceNum,
                         buf,
                         size,
                         100);
                 return ret;
         }
 
-        @Override
-        public boolean setBaudrate(int baudrate) {
-                // TO-DO: Allow any baud rate. Why isn't this possible here?
+        /**
+         * Gets the fastest baud rate of the part
+         *
+         * @return baud rate
+         */
+        private int getMaxBaudrate() {
+                switch(mPartNumber) {
+                        case CP210X_PARTNUM_CP2101:
+                                return 921600;
+                        case CP210X_PARTNUM_CP2105:
+                                // the ECI port divides its clock, the SCI port is slower
+                                return mInterfaceNum == 0 ? 2000000 : 921600;
+                        case CP210X_PARTNUM_CP2102:
+                        case CP210X_PARTNUM_CP2103:
+                                return 1000000;
+                        case CP210X_PARTNUM_CP2102N_QFN28:
+                        case CP210X_PARTNUM_CP2102N_QFN24:
+                        case CP210X_PARTNUM_CP2102N_QFN20:
+                                return 3000000;
+                        default:
+                                return 2000000;
+                }
+        }
+
+        /**
+         * Checks the part divides its clock for any rate instead of using
+         * the fixed rates of AN205
+         *
+         * @return true : any rate, false : AN205 table
+         */
+        private boolean hasArbitraryBaudrate() {
+                switch(mPartNumber) {
+                        case CP210X_PARTNUM_CP2105:
+                                return mInterfaceNum == 0;
+                        case CP210X_PARTNUM_CP2104:
+                        case CP210X_PARTNUM_CP2102N_QFN28:
+                        case CP210X_PARTNUM_CP2102N_QFN24:
+                        case CP210X_PARTNUM_CP2102N_QFN20:
+                                return true;
+                        default:
+                                return false;
+                }
+        }
+
+        /**
+         * Gets the rate the clock divisor gives for a baud rate
+         *
+         * @param baudrate requested baud rate
+         * @return actual baud rate
+         */
+        private static int getDividedBaudrate(int baudrate) {
+                int prescale = baudrate <= 365 ? 4 : 1;
+                int div = (CP210X_CLOCK + prescale * baudrate) / (2 * prescale * baudrate);
+                return CP210X_CLOCK / (2 * prescale * div);
+        }
+
+        /**
+         * Gets the rate CP2101/2/3 run at for a baud rate below 1Mbaud,
+         * from table 1 of AN205
+         *
+         * @param baudrate requested baud rate
+         * @return actual baud rate
+         */
+        private static int getAn205Baudrate(int baudrate) {
                 if(baudrate <= 300) {
-                        baudrate = 300;
+                        return 300;
                 } else if(baudrate <= 600) {
-                        baudrate = 600;
+                        return 600;
                 } else if(baudrate <= 1200) {
-                        baudrate = 1200;
+                        return 1200;
                 } else if(baudrate <= 1800) {
-                        baudrate = 1800;
+                        return 1800;
                 } else if(baudrate <= 2400) {
-                        baudrate = 2400;
+                        return 2400;
                 } else if(baudrate <= 4000) {
-                        baudrate = 4000;
+                        return 4000;
                 } else if(baudrate <= 4803) {
-                        baudrate = 4800;
+                        return 4800;
                 } else if(baudrate <= 7207) {
-                        baudrate = 7200;
+                        return 7200;
                 } else if(baudrate <= 9612) {
-                        baudrate = 9600;
+                        return 9600;
                 } else if(baudrate <= 14428) {
-                        baudrate = 14400;
+                        return 14400;
                 } else if(baudrate <= 16062) {
-                        baudrate = 16000;
+                        return 16000;
                 } else if(baudrate <= 19250) {
-                        baudrate = 19200;
+                        return 19200;
                 } else if(baudrate <= 28912) {
-                        baudrate = 28800;
+                        return 28800;
                 } else if(baudrate <= 38601) {
-                        baudrate = 38400;
+                        return 38400;
                 } else if(baudrate <= 51558) {
-                        baudrate = 51200;
+                        return 51200;
                 } else if(baudrate <= 56280) {
-                        baudrate = 56000;
+                        return 56000;
                 } else if(baudrate <= 58053) {
-                        baudrate = 57600;
+                        return 57600;
                 } else if(baudrate <= 64111) {
-                        baudrate = 64000;
+                        return 64000;
                 } else if(baudrate <= 77608) {
-                        baudrate = 76800;
+                        return 76800;
                 } else if(baudrate <= 117028) {
-                        baudrate = 115200;
+                        return 115200;
                 } else if(baudrate <= 129347) {
-                        baudrate = 128000;
+                        return 128000;
                 } else if(baudrate <= 156868) {
-                        baudrate = 153600;
+                        return 153600;
                 } else if(baudrate <= 237832) {
-                        baudrate = 230400;
+                        return 230400;
                 } else if(baudrate <= 254234) {
-                        baudrate = 250000;
+                        return 250000;
                 } else if(baudrate <= 273066) {
-                        baudrate = 256000;
+                        return 256000;
                 } else if(baudrate <= 491520) {
-                        baudrate = 460800;
+                        return 460800;
                 } else if(baudrate <= 567138) {
-                        baudrate = 500000;
+                        return 500000;
                 } else if(baudrate <= 670254) {
-                        baudrate = 576000;
+                        return 576000;
                 } else if(baudrate < 1000000) {
-                        baudrate = 921600;
-                } else if(baudrate > 2000000) {
-                        baudrate = 2000000;
+                        return 921600;
+                }
+                return baudrate;
+        }
+
+        @Override
+        public boolean setBaudrate(int baudrate) {
+                if(baudrate <= 0) {
+                        return false;
+                }
+                int rate = Math.min(baudrate, getMaxBaudrate());
+                if(hasArbitraryBaudrate()) {
+                        rate = getDividedBaudrate(rate);
+                } else if(rate < 1000000) {
+                        rate = getAn205Baudrate(rate);
                 }
 
                 byte[] baudBytes = new byte[4];
-                intToLittleEndianBytes(baudrate, baudBytes);
+                intToLittleEndianBytes(rate, baudBytes);
                 int ret = cp210xSetConfig(CP210X_SET_BAUDRATE, baudBytes, 4);
                 if(ret < 0) {
                         if(DEBUG_SHOW) {
@@ -489,9 +667,16 @@ public class UartCp210x extends SerialCommunicator {
                         return false;
                 }
                 mUartConfig.baudrate = baudrate;
+                mActualBaudrate = rate;
+                updateReadBufferSize(baudrate);
                 return true;
         }
 
+        @Override
+        public int getActualBaudrate() {
+                return mActualBaudrate > 0 ? mActualBaudrate : mUartConfig.baudrate;
+        }
+
         @Override
         public boolean setDataBits(int dataBits) {
                 int bits;
@@ -655,6 +840,48 @@ public class UartCp210x extends SerialCommunicator {
                 return true;
         }
 
+        @Override
+        public boolean setFlowControl(int flowControl) {
+                int handshake = mUartConfig.dtrOn ? SERIAL_DTR_ACTIVE : 0;
+                int replace = mUartConfig.rtsOn ? SERIAL_RTS_ACTIVE : 0;
+                switch(flowControl) {
+                        case UartConfig.FLOW_CONTROL_OFF:
+                                break;
+                        case UartConfig.FLOW_CONTROL_RTS_CTS:
+                                handshake |= SERIAL_CTS_HANDSHAKE;
+                                replace = SERIAL_RTS_HANDSHAKE;
+                                break;
+                        case UartConfig.FLOW_CONTROL_DTR_DSR:
+                                handshake = SERIAL_DTR_HANDSHAKE | SERIAL_DSR_HANDSHAKE;
+                                break;
+                        case UartConfig.FLOW_CONTROL_XON_XOFF:
+                                replace |= SERIAL_AUTO_TRANSMIT | SERIAL_AUTO_RECEIVE;
+                                break;
+                        default:
+                                return false;
+                }
+                byte[] buf = new byte[16];
+                byte[] word = new byte[4];
+                intToLittleEndianBytes(handshake, word);
+                System.arraycopy(word, 0, buf, 0, 4);
+                intToLittleEndianBytes(replace, word);
+                System.arraycopy(word, 0, buf, 4, 4);
+                intToLittleEndianBytes(FLOW_XON_LIMIT, word);
+                System.arraycopy(word, 0, buf, 8, 4);
+                intToLittleEndianBytes(FLOW_XOFF_LIMIT, word);
+                System.arraycopy(word, 0, buf, 12, 4);
+                int ret = cp210xSetConfig(CP210X_SET_FLOW, buf, buf.length);
+
+                if(ret < 0) {
+                        if(DEBUG_SHOW) {
+                                Log.d(TAG, "Fail to setFlowControl");
+                        }
+                        return false;
+                }
+                mUartConfig.flowControl = flowControl;
+                return true;
+        }
+
         @Override
         public UartConfig getUartConfig() {
                 return mUartConfig;
@@ -690,9 +917,50 @@ public class UartCp210x extends SerialCommunicator {
                 return mUartConfig.rtsOn;
         }
 
+        @Override
+        protected boolean isStatusPolled() {
+                return true;
+        }
+
+        @Override
+        protected void pollStatus() {
+                byte[] buf = new byte[COMM_STATUS_SIZE];
+                if(cp210xGetConfig(CP210X_GET_MDMSTS, buf, 1) < 1) {
+                        return;
+                }
+                // CTS 0x10, DSR 0x20, RI 0x40, DCD 0x80 line up with UartStatus once shifted
+                int modemStatus = (buf[0] & 0xf0) >> 4;
+                if(cp210xGetConfig(CP210X_GET_COMM_STATUS, buf, COMM_STATUS_SIZE) < 4) {
+                        return;
+                }
+                int errors = buf[0] & 0xff;
+                int lineErrors = 0;
+                if((errors & (SERIAL_HW_OVERRUN | SERIAL_QUEUE_OVERRUN)) != 0) {
+                        lineErrors |= UartStatus.LINE_OVERRUN;
+                }
+                if((errors & SERIAL_PARITY) != 0) {
+                        lineErrors |= UartStatus.LINE_PARITY;
+                }
+                if((errors & SERIAL_FRAME) != 0) {
+                        lineErrors |= UartStatus.LINE_FRAMING;
+                }
+                if((errors & SERIAL_BREAK) != 0) {
+                        lineErrors |= UartStatus.LINE_BREAK;
+                }
+                updateStatus(modemStatus, lineErrors);
+        }
+
         @Override
         public void clearBuffer() {
-                mBuffer.clear();
+                if(cp210xPurge() < 0) {
+                        Log.e(TAG, "Fail to purge");
+                }
+                UsbReadRequests.purge(mReadRequests, mBuffer);
+        }
+
+        @Override
+        protected RingBuffer getRingBuffer() {
+                return mBuffer;
         }
         //////////////////////////////////////////////////////////
         // Listener for reading uart
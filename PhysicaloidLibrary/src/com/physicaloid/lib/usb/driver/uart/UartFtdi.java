@@ -23,6 +23,7 @@
 package com.physicaloid.lib.usb.driver.uart;
 
 import android.content.Context;
+import android.os.Build;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbRequest;
@@ -37,6 +38,7 @@ import com.physicaloid.misc.RingBuffer;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class UartFtdi extends SerialCommunicator {
 
@@ -45,7 +47,7 @@ public class UartFtdi extends SerialCommunicator {
         private static final int DEFAULT_BAUDRATE = 9600;
         private UsbCdcConnection mUsbConnetionManager;
         private UartConfig mUartConfig;
-        private static final int RING_BUFFER_SIZE = 1024;
+        private static final int RING_BUFFER_SIZE = UartConfig.READ_BUFFER_SIZE_DEFAULT;
         private static final int USB_WRITE_BUFFER_SIZE = 2;
         private RingBuffer mBuffer;
         private boolean mReadThreadStop = true;
@@ -53,7 +55,19 @@ public class UartFtdi extends SerialCommunicator {
         private UsbEndpoint mEndpointIn;
         private UsbEndpoint mEndpointOut;
         private boolean isOpened;
+        private volatile UsbReadRequests mReadRequests;
         private byte[] wbuf = new byte[USB_WRITE_BUFFER_SIZE];
+        private int mWriteMode = WRITE_MODE_CONSERVATIVE;
+        private static final int DEFAULT_LATENCY_TIMER = 20;  // ms, works with other FTDI drivers
+        private int mLatencyTimer = DEFAULT_LATENCY_TIMER;
+        private int mEventChar = 0;     // wValue of FTDI_SIO_SET_EVENT_CHAR, 0 : disabled
+        private int mChipType = FT232R;
+        private final int mPort;
+        private int mPortIndex = 1;     // wIndex of port requests, interface number + 1
+        private int mActualBaudrate;
+        private volatile int mModemStatus;      // written by the read thread only
+        private volatile int mLineStatus;       // written by the read thread only
+        private final AtomicInteger mLineErrors = new AtomicInteger();
         //private final Object DevLock = new Object();
         // USB_TYPE_VENDOR | USB_RECIP_DEVICE | USB_DIR_OUT
         private static final byte REQTYPE_HOST_TO_INTERFACE = (byte) 0x41;
@@ -63,22 +77,22 @@ public class UartFtdi extends SerialCommunicator {
         private static final byte REQTYPE_HOST_TO_DEVICE = (byte) 0x40;
         @SuppressWarnings("unused")
         private static final byte REQTYPE_DEVICE_TO_HOST = (byte) 0xc0;
-        // Official PIDs
+        // Chip types, bcdDevice of each family. PIDs are shared between families.
         private static final int FT232AM = (0x0200);
-        @SuppressWarnings("unused")
         private static final int FT232BM = (0x0400);
-        @SuppressWarnings("unused")
         private static final int FT2232C = (0x0500);
-        @SuppressWarnings("unused")
         private static final int FT232R = (0x0600);
-        @SuppressWarnings("unused")
         private static final int FT2232H = (0x0700);
-        @SuppressWarnings("unused")
         private static final int FT4232H = (0x0800);
-        @SuppressWarnings("unused")
         private static final int FT232H = (0x0900);
-        @SuppressWarnings("unused")
         private static final int FT230X = (0x1000);
+        // Baud rate divisors are in eighths: clock / 16 * 8, and clock / 10 * 8 for the H chips
+        private static final int FTDI_BAUD_BASE = 48000000 / 2;
+        private static final int FTDI_H_BAUD_BASE = 120000000 / 10 * 8;
+        private static final int FTDI_MAX_BAUDRATE = 3000000;
+        private static final int FTDI_H_MAX_BAUDRATE = 12000000;
+        private static final int FTDI_H_MIN_BAUDRATE = 1200;    // slowest rate of the 120MHz clock
+        private static final int FTDI_MAX_DIVISOR = 0x3fff;
         // Commands
         private static final int FTDI_SIO_RESET = (0x00); // Reset the port
         private static final int FTDI_SIO_MODEM_CTRL = (0x01); // Set the modem control register
@@ -86,46 +100,30 @@ public class UartFtdi extends SerialCommunicator {
         private static final int FTDI_SIO_SET_BAUD_RATE = (0x03); // Set baud rate
         private static final int FTDI_SIO_SET_DATA = (0x04); // Set the data characteristics of the port
         private static final int FTDI_SIO_GET_MODEM_STATUS = (0x05); // Get the current value of modem status register
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_SET_EVENT_CHAR = (0x06); // Set the event character
         @SuppressWarnings("unused")
         private static final int FTDI_SIO_SET_ERROR_CHAR = (0x07); // Set the error character
         private static final int FTDI_SIO_SET_LATENCY_TIMER = (0x09); // Set the latency timer
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_GET_LATENCY_TIMER = (0x0A); // Get the latency timer
         @SuppressWarnings("unused")
         private static final int FTDI_SIO_RESET_SIO = (0x00);
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_RESET_PURGE_RX = (0x01);
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_RESET_PURGE_TX = (0x02);
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_DISABLE_FLOW_CTRL = (0x00);
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_RTS_CTS_HS = (0x01);
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_DTR_DSR_HS = (0x02);
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_XON_XOFF_HS = (0x04);
         // status 0
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_CTS_MASK = (0x10);
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_DSR_MASK = (0x20);
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_RI_MASK = (0x40);
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_RLSD_MASK = (0x80);
         // status 1
         @SuppressWarnings("unused")
         private static final int FTDI_SIO_DR = (0x01); // Data Ready
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_OE = (0x02); // Overrun Error
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_PE = (0x04); // Parity Error
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_FE = (0x08); // Framing Error
-        @SuppressWarnings("unused")
         private static final int FTDI_SIO_BI = (0x10); // Break Interrupt
         @SuppressWarnings("unused")
         private static final int FTDI_SIO_THRE = (0x20); // Transmitter Holding Register Empty
@@ -133,6 +131,10 @@ public class UartFtdi extends SerialCommunicator {
         private static final int FTDI_SIO_TEMT = (0x40); // Transmitter Empty
         @SuppressWarnings("unused")
         private static final int FTDI_SIO_FIFO = (0x80); // Error in RX FIFO
+        private static final int XON_CHAR = 0x11;
+        private static final int XOFF_CHAR = 0x13;
+        private static final int FTDI_MODEM_STATUS_MASK = (FTDI_SIO_CTS_MASK | FTDI_SIO_DSR_MASK | FTDI_SIO_RI_MASK | FTDI_SIO_RLSD_MASK);
+        private static final int FTDI_LINE_ERROR_MASK = (FTDI_SIO_OE | FTDI_SIO_PE | FTDI_SIO_FE | FTDI_SIO_BI);
         private static final int FTDI_SIO_SET_RTS_HIGH = 0x0101; //((FTDI_SIO_SET_DTR_MASK << 8) | 1);
         private static final int FTDI_SIO_SET_RTS_LOW = 0x0100; //((FTDI_SIO_SET_DTR_MASK << 8) | 0);
         private static final int FTDI_SIO_SET_DTR_HIGH = 0x0202; //((FTDI_SIO_SET_RTS_MASK << 8) | 2);
@@ -140,7 +142,16 @@ public class UartFtdi extends SerialCommunicator {
         private static final int FTDI_RS_TEMT = (1 << 6);
 
         public UartFtdi(Context context) {
+                this(context, 0);
+        }
+
+        /**
+         * @param context context
+         * @param port    n-th FTDI interface to open, e.g. 1 for port B of an FT2232
+         */
+        public UartFtdi(Context context, int port) {
                 super(context);
+                mPort = port;
                 //Log.d(TAG, "INIT UartFtdi");
                 mUsbConnetionManager = new UsbCdcConnection(context);
                 //Log.d(TAG, "INIT after mUsbConnetionManager");
@@ -154,10 +165,11 @@ public class UartFtdi extends SerialCommunicator {
 
         public boolean open(UsbVidPid ids) {
 
-                if(mUsbConnetionManager.open(ids)) {
+                if(mUsbConnetionManager.open(ids, false, mPort)) {
                         mConnection = mUsbConnetionManager.getConnection();
                         mEndpointIn = mUsbConnetionManager.getEndpointIn();
                         mEndpointOut = mUsbConnetionManager.getEndpointOut();
+                        mPortIndex = mUsbConnetionManager.getInterfaceNum() + 1;
 
                         if(!init()) {
                                 return false;
@@ -191,19 +203,27 @@ public class UartFtdi extends SerialCommunicator {
                         return false;
                 }
                 int rv;
-                rv = control_out(FTDI_SIO_RESET, 0, 0);
+                mChipType = detectChipType();
+                rv = control_out(FTDI_SIO_RESET, 0, mPortIndex);
                 if(rv < 0) {
                         return false;
                 }
-                rv = control_out(FTDI_SIO_SET_FLOW_CTRL, 0, 1);
+                rv = control_out(FTDI_SIO_SET_FLOW_CTRL, 0, mPortIndex);
                 if(rv < 0) {
                         return false;
                 }
+                mUartConfig.flowControl = UartConfig.FLOW_CONTROL_OFF;
                 // set the latency timer to a very low number to improve performance.
-                rv = control_out(FTDI_SIO_SET_LATENCY_TIMER, 20, 1); // change from 0 to 20 so that it works with other FTDI driver
+                rv = control_out(FTDI_SIO_SET_LATENCY_TIMER, mLatencyTimer, mPortIndex);
                 if(rv < 0) {
                         return false;
                 }
+                if(mEventChar != 0) {
+                        rv = control_out(FTDI_SIO_SET_EVENT_CHAR, mEventChar, mPortIndex);
+                        if(rv < 0) {
+                                return false;
+                        }
+                }
                 return true;
         }
 
@@ -242,18 +262,99 @@ public class UartFtdi extends SerialCommunicator {
 
         }
 
+        /**
+         * Selects how write() sends data
+         *
+         * @param mode WRITE_MODE_CONSERVATIVE (default) : one byte per
+         *             transfer after the transmitter is empty, WRITE_MODE_BULK :
+         *             several packets per transfer
+         * @return true : successful, false : unknown mode
+         */
+        @Override
+        public boolean setWriteMode(int mode) {
+                if(mode != WRITE_MODE_CONSERVATIVE && mode != WRITE_MODE_BULK) {
+                        return false;
+                }
+                mWriteMode = mode;
+                return true;
+        }
+
+        @Override
+        public int getWriteMode() {
+                return mWriteMode;
+        }
+
+        /**
+         * Sets the latency timer. The chip sends a partly filled packet when
+         * the timer expires, so short replies arrive after up to ms.
+         *
+         * @param ms latency in milliseconds, 1 to 255 (default 20)
+         *
+         * @return true : successful, false : fail
+         */
+        @Override
+        public boolean setLatencyTimer(int ms) {
+                if(ms < 1 || ms > 255) {
+                        return false;
+                }
+                if(mConnection != null && control_out(FTDI_SIO_SET_LATENCY_TIMER, ms, mPortIndex) < 0) {
+                        return false;
+                }
+                mLatencyTimer = ms;
+                return true;
+        }
+
+        @Override
+        public int getLatencyTimer() {
+                byte[] buf = new byte[1];
+                if(control_in(FTDI_SIO_GET_LATENCY_TIMER, 0, mPortIndex, buf, 1) < 1) {
+                        return -1;
+                }
+                return buf[0] & 0xff;
+        }
+
+        /**
+         * Sets the event character. The chip sends its packet as soon as the
+         * character is received, without waiting for the latency timer.
+         *
+         * @param c      event character
+         * @param enable true : enable, false : disable
+         *
+         * @return true : successful, false : fail
+         */
+        @Override
+        public boolean setEventChar(byte c, boolean enable) {
+                int value = enable ? ((c & 0xff) | 0x100) : 0;
+                if(mConnection != null && control_out(FTDI_SIO_SET_EVENT_CHAR, value, mPortIndex) < 0) {
+                        return false;
+                }
+                mEventChar = value;
+                return true;
+        }
+
         @Override
         public int write(byte[] buf, int size) {
-                if(buf == null) {
+                return write(buf, 0, size);
+        }
+
+        @Override
+        public int write(byte[] buf, int off, int size) {
+                if(buf == null || off < 0) {
                         return 0;
                 }
+                if(buf.length - off < size) {
+                        size = buf.length - off;
+                }
+                if(mWriteMode == WRITE_MODE_BULK) {
+                        return writeBulk(buf, off, size);
+                }
                 int offset = 0;
                 int write_size;
                 int written_size;
                 int len;
 
                 if(DEBUG_SHOW) {
-                        Log.e(TAG, "write(" + size + "): " + toHexStr(buf, size));
+                        Log.e(TAG, "write(" + size + "): " + toHexStr(buf, off, size));
                 }
 
                 // FTDI is crap, makes us work hard.
@@ -263,7 +364,7 @@ public class UartFtdi extends SerialCommunicator {
                         // check empty
                         while(true) {
                                 len = 2;
-                                written_size = control_in(FTDI_SIO_GET_MODEM_STATUS, 0, 0, wbuf, len);
+                                written_size = control_in(FTDI_SIO_GET_MODEM_STATUS, 0, mPortIndex, wbuf, len);
                                 if(written_size < 1) {
                                         return -1;
                                 }
@@ -278,18 +379,9 @@ public class UartFtdi extends SerialCommunicator {
                         if(offset + write_size > size) {
                                 write_size = size - offset;
                         }
-                        // optimization!
-                        if(offset == 0) {
-                                //synchronized(DevLock) {
-                                written_size = mConnection.bulkTransfer(mEndpointOut, buf, write_size, 100);
-
-                                //}
-                        } else {
-                                System.arraycopy(buf, offset, wbuf, 0, write_size);
-                                //synchronized(DevLock) {
-                                written_size = mConnection.bulkTransfer(mEndpointOut, wbuf, write_size, 100);
-                                //}
-                        }
+                        //synchronized(DevLock) {
+                        written_size = UsbBulkOut.transfer(mConnection, mEndpointOut, buf, off + offset, write_size, 100);
+                        //}
                         if(written_size < 0) {
                                 return -1;
                         }
@@ -299,6 +391,20 @@ public class UartFtdi extends SerialCommunicator {
                 return offset;
         }
 
+        /**
+         * Sends whole chunks of max packets per bulkTransfer and lets the
+         * chip's flow control pace the transfer
+         */
+        private int writeBulk(byte[] buf, int off, int size) {
+                int chunk = getWriteChunkSize(mEndpointOut.getMaxPacketSize());
+
+                if(DEBUG_SHOW) {
+                        Log.e(TAG, "writeBulk(" + size + "): " + toHexStr(buf, off, size));
+                }
+                return UsbBulkOut.write(mConnection, mEndpointOut, buf, off, size,
+                        chunk, getWriteTimeout(chunk), isWriteZeroLengthPacket());
+        }
+
         private void stopRead() {
                 mReadThreadStop = true;
         }
@@ -319,56 +425,114 @@ public class UartFtdi extends SerialCommunicator {
                         } catch(Exception e) {
                         }
                         int len;
-                        //byte[] rbuf = new byte[USB_READ_BUFFER_SIZE];
-                        byte[] rbuf = new byte[mEndpointIn.getMaxPacketSize()];
-                        byte[] cbuf = new byte[mEndpointIn.getMaxPacketSize()];
+                        long nanos = 0;
                         //android.os.Process.setThreadPriority(-20);
                         UsbRequest response;
-                        UsbRequest request = new UsbRequest();
-                        request.initialize(mConnection, mEndpointIn);
-                        ByteBuffer buf = ByteBuffer.wrap(rbuf);
+                        ByteBuffer buf = null;
+                        int packetSize = mEndpointIn.getMaxPacketSize();
+                        UsbReadRequests requests = new UsbReadRequests(mConnection, mEndpointIn,
+                                getReadRequestCount(), getReadRequestSize(packetSize));
+                        mReadRequests = requests;
                         for(;;) {// this is the main loop for transferring
                                 len = 0;
                                 //synchronized(DevLock) {
-                                if(request.queue(buf, rbuf.length)) {
+                                if(requests.queueAll(getReadRequestLimit(requests.getSize())) > 0) {
                                         response = mConnection.requestWait();
-                                        if(response != null) {
-                                                len = buf.position();
+                                        nanos = System.nanoTime();   // completion time of this transfer
+                                        synchronized(requests) {
+                                                buf = requests.complete(response);
+                                                if(buf != null) {
+                                                        len = buf.position();
+                                                }
+                                                if(len > 1) {
+                                                        buf.flip();
+                                                        addPackets(buf, packetSize, nanos);
+                                                }
                                         }
+                                } else {
+                                        waitForReadSpace();
                                 }
                                 //}
-                                if(len > 1) {
-                                        if(len > 2) {
-                                                //if(DEBUG_SHOW) {
-                                                //        Log.e(TAG, "read(" + len + "): " + toHexStr(rbuf, len));
-                                                //}
-                                                // FTDI stuffs status in the first 2 bytes.
-                                                len -= 2;
-                                                System.arraycopy(rbuf, 2, cbuf, 0, len);
-                                                if(DEBUG_SHOW) {
-                                                        Log.e(TAG, "read(" + len + "): " + toHexStr(cbuf, len));
-                                                }
-                                                mBuffer.add(cbuf, len);
-                                                onRead(mBuffer.getBufferdLength());
-                                        } else if(mBuffer.getBufferdLength() > 0) {
-                                                onRead(mBuffer.getBufferdLength());
-                                        }
-
-                                } else if(mBuffer.getBufferdLength() > 0) {
+                                dispatchStatus();
+                                if(mBuffer.getBufferdLength() > 0) {
                                         onRead(mBuffer.getBufferdLength());
                                 }
 
                                 if(mReadThreadStop) {
+                                        mReadRequests = null;
+                                        requests.close();
                                         return;
                                 }
                         }
                 } // end of run()
         }; // end of runnable
 
+        /**
+         * Adds the payload of a transfer holding one or more packets.
+         * FTDI stuffs status in the first 2 bytes of every packet.
+         *
+         * @param buf        received transfer, position 0
+         * @param packetSize max packet size of the IN endpoint
+         * @param nanos      completion time of the transfer
+         *
+         * @return added payload length
+         */
+        private int addPackets(ByteBuffer buf, int packetSize, long nanos) {
+                int len = buf.limit();
+                int added = 0;
+                for(int p = 0; p + 2 <= len; p += packetSize) {
+                        int lineStatus = buf.get(p + 1) & 0xff;
+                        int modemStatus = buf.get(p) & FTDI_MODEM_STATUS_MASK;
+                        mModemStatus = modemStatus;
+                        mLineStatus = lineStatus;
+                        // both masks line up with the UartStatus bits once shifted
+                        updateStatus(modemStatus >> 4, (lineStatus & FTDI_LINE_ERROR_MASK) >> 1);
+                        if((lineStatus & FTDI_LINE_ERROR_MASK) != 0) {
+                                int errors;
+                                do {
+                                        errors = mLineErrors.get();
+                                } while(!mLineErrors.compareAndSet(errors, errors | (lineStatus & FTDI_LINE_ERROR_MASK)));
+                        }
+                        int end = Math.min(p + packetSize, len);
+                        if(end - p > 2) {
+                                buf.limit(end);
+                                buf.position(p + 2);
+                                if(DEBUG_SHOW) {
+                                        Log.e(TAG, "read(" + (end - p - 2) + "): " + toHexStr(buf));
+                                }
+                                broadcast(buf);
+                                added += mBuffer.add(buf, nanos);
+                                buf.limit(len);
+                        }
+                }
+                return added;
+        }
+
+        /**
+         * Gets the modem status sent with the latest received packet
+         *
+         * @return CTS 0x10, DSR 0x20, RI 0x40 and RLSD (DCD) 0x80 bits
+         */
+        public int getModemStatus() {
+                return mModemStatus;
+        }
+
+        /**
+         * Gets the line status sent with the latest received packet.
+         * The error bits (overrun 0x02, parity 0x04, framing 0x08, break 0x10)
+         * of every packet since the previous call are included.
+         *
+         * @return line status byte
+         */
+        public int getLineStatus() {
+                return mLineStatus | mLineErrors.getAndSet(0);
+        }
+
         @Override
         public boolean setUartConfig(UartConfig config) {
                 boolean res;
                 boolean ret = true;
+                applyReadBufferConfig(config);
                 res = setBaudrate(config.baudrate);
                 ret = ret && res;
 
@@ -381,6 +545,9 @@ public class UartFtdi extends SerialCommunicator {
                 res = setStopBits(config.stopBits);
                 ret = ret && res;
 
+                res = setFlowControl(config.flowControl);
+                ret = ret && res;
+
                 res = setDtrRts(config.dtrOn, config.rtsOn);
                 ret = ret && res;
 
@@ -392,32 +559,87 @@ public class UartFtdi extends SerialCommunicator {
                 return isOpened;
         }
 
+        /**
+         * Gets the chip family from bcdDevice of the device descriptor
+         *
+         * @return FT232AM to FT230X, FT232R if unknown
+         */
+        private int detectChipType() {
+                if(Build.VERSION.SDK_INT < 13) {
+                        return FT232R;
+                }
+                byte[] desc = mConnection.getRawDescriptors();
+                if(desc == null || desc.length < 14) {
+                        return FT232R;
+                }
+                int bcdDevice = ((desc[13] & 0xff) << 8) | (desc[12] & 0xff);
+                int type;
+                if(bcdDevice < FT232BM) {
+                        type = FT232AM;
+                } else if(bcdDevice < FT2232C) {
+                        type = FT232BM;
+                } else if(bcdDevice < FT232R) {
+                        type = FT2232C;
+                } else if(bcdDevice < FT2232H) {
+                        type = FT232R;
+                } else if(bcdDevice < FT4232H) {
+                        type = FT2232H;
+                } else if(bcdDevice < FT232H) {
+                        type = FT4232H;
+                } else if(bcdDevice < FT230X) {
+                        type = FT232H;
+                } else {
+                        type = FT230X;
+                }
+                if(DEBUG_SHOW) {
+                        Log.d(TAG, "bcdDevice " + String.format("0x%04X", bcdDevice) + " chip " + String.format("0x%04X", type));
+                }
+                return type;
+        }
+
+        private boolean isHighSpeedChip() {
+                return mChipType == FT2232H || mChipType == FT4232H || mChipType == FT232H;
+        }
+
         @Override
         public boolean setBaudrate(int baudrate) {
                 if(mUsbConnetionManager == null) {
                         return false;
                 }
+                boolean highSpeed = isHighSpeedChip();
+                if(baudrate <= 0 || baudrate > (highSpeed ? FTDI_H_MAX_BAUDRATE : FTDI_MAX_BAUDRATE)) {
+                        return false;
+                }
                 int divfrac[] = {0, 3, 2, 4, 1, 5, 6, 7};
                 int baud_value = 0; // uint16_t
                 int baud_index = 0; // uint16_t
+                int base = (highSpeed && baudrate >= FTDI_H_MIN_BAUDRATE) ? FTDI_H_BAUD_BASE : FTDI_BAUD_BASE;
                 int divisor3;
-                divisor3 = 48000000 / 2 / baudrate; // divisor shifted 3 bits to the left
+                divisor3 = (base + baudrate / 2) / baudrate; // divisor shifted 3 bits to the left, rounded
+                if((divisor3 >> 3) > FTDI_MAX_DIVISOR) {
+                        return false;
+                }
+                int actual3 = divisor3;
 
-                if(mUsbConnetionManager.getPID() == FT232AM) {
+                if(mChipType == FT232AM) {
                         if((divisor3 & 0x7) == 7) {
                                 divisor3++; // round x.7/8 up to x+1
                         }
                         baud_value = divisor3 >> 3;
+                        actual3 = divisor3 & ~0x7;
                         divisor3 &= 0x7;
 
                         if(divisor3 == 1) {
                                 baud_value |= 0xc000;
+                                actual3 += 1;
                         } else // 0.125
                         if(divisor3 >= 4) {
                                 baud_value |= 0x4000;
+                                actual3 += 4;
                         } else // 0.5
                         if(divisor3 != 0) {
                                 baud_value |= 0x8000; // 0.25
+                                actual3 += 2;
                         }
                         if(baud_value == 1) {
                                 baud_value = 0; /* special case for maximum baud rate */
@@ -426,7 +648,6 @@ public class UartFtdi extends SerialCommunicator {
 
                         baud_value = divisor3 >> 3;
                         baud_value |= divfrac[divisor3 & 0x7] << 14;
-                        //baud_index = divindex[divisor3 & 0x7];
 
                         /* Deal with special cases for highest baud rates. */
                         if(baud_value == 1) {
@@ -435,9 +656,16 @@ public class UartFtdi extends SerialCommunicator {
                         if(baud_value == 0x4001) {
                                 baud_value = 1; // 1.5
                         }
+                        if(base == FTDI_H_BAUD_BASE) {
+                                baud_value |= 0x20000; // use the 120MHz clock
+                        }
                 }
                 baud_index = (baud_value >> 16) & 0xFFFF;
                 baud_value &= 0xFFFF;
+                if(mChipType == FT2232C || mChipType == FT230X || highSpeed) {
+                        // these chips take the high divisor bits in the upper byte and the port in the lower
+                        baud_index = (baud_index << 8) | ((mChipType == FT232H || mChipType == FT230X) ? 0 : mPortIndex);
+                }
 
                 int rv = control_out(FTDI_SIO_SET_BAUD_RATE, baud_value, baud_index);
                 if(rv < 0) {
@@ -447,16 +675,23 @@ public class UartFtdi extends SerialCommunicator {
                         return false;
                 }
                 mUartConfig.baudrate = baudrate;
+                mActualBaudrate = (base + actual3 / 2) / actual3;
+                updateReadBufferSize(baudrate);
                 return true;
         }
 
+        @Override
+        public int getActualBaudrate() {
+                return mActualBaudrate > 0 ? mActualBaudrate : mUartConfig.baudrate;
+        }
+
         @Override
         public boolean setDataBits(int dataBits) {
                 if(mUsbConnetionManager == null) {
                         return false;
                 }
                 int s = ((mUartConfig.stopBits) << 11) | ((mUartConfig.parity) << 8) | dataBits;
-                int rv = control_out(FTDI_SIO_SET_DATA, s, 1);
+                int rv = control_out(FTDI_SIO_SET_DATA, s, mPortIndex);
                 if(rv < 0) {
                         if(DEBUG_SHOW) {
                                 Log.d(TAG, "setDataBits failed " + rv);
@@ -473,7 +708,7 @@ public class UartFtdi extends SerialCommunicator {
                         return false;
                 }
                 int s = ((mUartConfig.stopBits) << 11) | ((parity) << 8) | mUartConfig.dataBits;
-                int rv = control_out(FTDI_SIO_SET_DATA, s, 1);
+                int rv = control_out(FTDI_SIO_SET_DATA, s, mPortIndex);
                 if(rv < 0) {
                         if(DEBUG_SHOW) {
                                 Log.d(TAG, "setParity failed " + rv);
@@ -490,7 +725,7 @@ public class UartFtdi extends SerialCommunicator {
                         return false;
                 }
                 int s = ((stopBits) << 11) | ((mUartConfig.parity) << 8) | mUartConfig.dataBits;
-                int rv = control_out(FTDI_SIO_SET_DATA, s, 1);
+                int rv = control_out(FTDI_SIO_SET_DATA, s, mPortIndex);
                 if(rv < 0) {
                         if(DEBUG_SHOW) {
                                 Log.d(TAG, "setStopBits failed " + rv);
@@ -513,7 +748,7 @@ public class UartFtdi extends SerialCommunicator {
                 if(!dtrOn) {
                         s = FTDI_SIO_SET_DTR_LOW;
                 }
-                int rv = control_out(FTDI_SIO_MODEM_CTRL, s, 1);
+                int rv = control_out(FTDI_SIO_MODEM_CTRL, s, mPortIndex);
                 if(rv < 0) {
                         if(DEBUG_SHOW) {
                                 Log.d(TAG, "setDtr failed " + rv);
@@ -524,7 +759,7 @@ public class UartFtdi extends SerialCommunicator {
                 if(!rtsOn) {
                         s = FTDI_SIO_SET_RTS_LOW;
                 }
-                rv = control_out(FTDI_SIO_MODEM_CTRL, s, 1);
+                rv = control_out(FTDI_SIO_MODEM_CTRL, s, mPortIndex);
                 if(rv < 0) {
                         if(DEBUG_SHOW) {
                                 Log.d(TAG, "setRts failed " + rv);
@@ -536,6 +771,45 @@ public class UartFtdi extends SerialCommunicator {
                 return true;
         }
 
+        /**
+         * Sets flow control. XON/XOFF uses the characters 0x11 and 0x13.
+         *
+         * @param flowControl UartConfig.FLOW_CONTROL_*
+         *
+         * @return true : successful, false : fail
+         */
+        @Override
+        public boolean setFlowControl(int flowControl) {
+                int handshake;
+                int value = 0;
+                switch(flowControl) {
+                        case UartConfig.FLOW_CONTROL_OFF:
+                                handshake = FTDI_SIO_DISABLE_FLOW_CTRL;
+                                break;
+                        case UartConfig.FLOW_CONTROL_RTS_CTS:
+                                handshake = FTDI_SIO_RTS_CTS_HS;
+                                break;
+                        case UartConfig.FLOW_CONTROL_DTR_DSR:
+                                handshake = FTDI_SIO_DTR_DSR_HS;
+                                break;
+                        case UartConfig.FLOW_CONTROL_XON_XOFF:
+                                handshake = FTDI_SIO_XON_XOFF_HS;
+                                value = (XOFF_CHAR << 8) | XON_CHAR;
+                                break;
+                        default:
+                                return false;
+                }
+                int rv = control_out(FTDI_SIO_SET_FLOW_CTRL, value, (handshake << 8) | mPortIndex);
+                if(rv < 0) {
+                        if(DEBUG_SHOW) {
+                                Log.d(TAG, "Fail to setFlowControl");
+                        }
+                        return false;
+                }
+                mUartConfig.flowControl = flowControl;
+                return true;
+        }
+
         @Override
         public UartConfig getUartConfig() {
                 return mUartConfig;
@@ -574,11 +848,16 @@ public class UartFtdi extends SerialCommunicator {
         @Override
         public void clearBuffer() {
                 // clear ftdi chip buffer
-                //synchronized(ftDevLock) {
-                //        ftDev.purge((byte) (D2xxManager.FT_PURGE_TX | D2xxManager.FT_PURGE_RX));
-                //}
+                if(control_out(FTDI_SIO_RESET, FTDI_SIO_RESET_PURGE_RX, mPortIndex) < 0
+                        || control_out(FTDI_SIO_RESET, FTDI_SIO_RESET_PURGE_TX, mPortIndex) < 0) {
+                        Log.e(TAG, "Fail to purge");
+                }
+                UsbReadRequests.purge(mReadRequests, mBuffer);
+        }
 
-                mBuffer.clear();
+        @Override
+        protected RingBuffer getRingBuffer() {
+                return mBuffer;
         }
         //////////////////////////////////////////////////////////
         // Listener for reading uart
@@ -622,14 +901,22 @@ public class UartFtdi extends SerialCommunicator {
         }
         //////////////////////////////////////////////////////////
 
-        private String toHexStr(byte[] b, int length) {
+        private String toHexStr(byte[] b, int off, int length) {
                 String str = "";
-                for(int i = 0; i < length; i++) {
+                for(int i = off; i < off + length; i++) {
                         str += String.format("%02x ", b[i]);
                 }
                 return str;
         }
 
+        private String toHexStr(ByteBuffer b) {
+                String str = "";
+                for(int i = b.position(); i < b.limit(); i++) {
+                        str += String.format("%02x ", b.get(i));
+                }
+                return str;
+        }
+
         @Override
         public String getPhysicalConnectionName() {
                 return Physicaloid.USB_STRING;
@@ -26,21 +26,28 @@ public class UartPL2303 extends SerialCommunicator {
         private static final int PL2303_VENDOR_WRITE_REQUEST = 0x01;
         private static final int PL2303_SET_LINE_CODING = 0x20;
         private static final int PL2303_SET_CONTROL_REQUEST = 0x22;
+        private static final int PL2303_VENDOR_READ_REQUEST = 0x01;
+        private static final int PL2303_FLOWCTRL_REG = 0x00;
+        private static final int PL2303_FLOWCTRL_MASK = 0xF0;
+        private static final int PL2303_FLOWCTRL_RTS_CTS = 0x60;
+        private static final int PL2303_FLOWCTRL_XON_XOFF = 0xC0;
+        private static final int PL2303_RESET_UPSTREAM = 0x08;     // device to host pipe
+        private static final int PL2303_RESET_DOWNSTREAM = 0x09;   // host to device pipe
 
 		private static final String TAG = UartPL2303.class.getSimpleName();
 		private boolean DEBUG_SHOW = false;
 		private static final int DEFAULT_BAUDRATE = 9600;
 		private UsbCdcConnection mUsbConnetionManager;
 		private UartConfig mUartConfig;
-		private static final int RING_BUFFER_SIZE = 1024;
+		private static final int RING_BUFFER_SIZE = UartConfig.READ_BUFFER_SIZE_DEFAULT;
 		private static final int USB_READ_BUFFER_SIZE = 256;
-		private static final int USB_WRITE_BUFFER_SIZE = 256;
 		private RingBuffer mBuffer;
         private boolean mReadThreadStop = true;
         private UsbDeviceConnection mConnection;
         private UsbEndpoint mEndpointIn;
         private UsbEndpoint mEndpointOut;
         private boolean isOpened;
+        private volatile UsbReadRequests mReadRequests;
 
         private final byte[] defaultSetLine = new byte[]{
                 (byte) 0x80, // [0:3] Baud rate (reverse hex encoding 9600:00 00 25 80 -> 80 25 00 00)
@@ -161,31 +168,20 @@ public class UartPL2303 extends SerialCommunicator {
 		
 		@Override
         public int write(byte[] buf, int size) {
-                if(buf == null) {
+                return write(buf, 0, size);
+        }
+
+        @Override
+        public int write(byte[] buf, int off, int size) {
+                if(buf == null || off < 0) {
                         return 0;
                 }
-                int offset = 0;
-                int write_size;
-                int written_size;
-                byte[] wbuf = new byte[USB_WRITE_BUFFER_SIZE];
-
-                while(offset < size) {
-                        write_size = USB_WRITE_BUFFER_SIZE;
-
-                        if(offset + write_size > size) {
-                                write_size = size - offset;
-                        }
-                        System.arraycopy(buf, offset, wbuf, 0, write_size);
-
-                        written_size = mConnection.bulkTransfer(mEndpointOut, wbuf, write_size, 100);
-
-                        if(written_size < 0) {
-                                return -1;
-                        }
-                        offset += written_size;
+                if(buf.length - off < size) {
+                        size = buf.length - off;
                 }
-
-                return offset;
+                int chunk = getWriteChunkSize(mEndpointOut.getMaxPacketSize());
+                return UsbBulkOut.write(mConnection, mEndpointOut, buf, off, size,
+                        chunk, getWriteTimeout(chunk), isWriteZeroLengthPacket());
         }
         private void stopRead() {
                 mReadThreadStop = true;
@@ -207,36 +203,49 @@ public class UartPL2303 extends SerialCommunicator {
                         } catch(Exception e) {
                         }
                         int len;
-                        byte[] rbuf = new byte[mEndpointIn.getMaxPacketSize()];
+                        long nanos = 0;
                         UsbRequest response;
-                        UsbRequest request = new UsbRequest();
-                        request.initialize(mConnection, mEndpointIn);
-                        ByteBuffer buf = ByteBuffer.wrap(rbuf);
+                        ByteBuffer buf;
+                        UsbReadRequests requests = new UsbReadRequests(mConnection, mEndpointIn,
+                                getReadRequestCount(), getReadRequestSize(mEndpointIn.getMaxPacketSize()));
+                        mReadRequests = requests;
                         for(;;) {// this is the main loop for transferring
                                 len = 0;
-                                if(request.queue(buf, rbuf.length)) {
+                                if(requests.queueAll(getReadRequestLimit(requests.getSize())) > 0) {
                                         Log.e(TAG,"before requestWait: ");
                                         response = mConnection.requestWait();
+                                        nanos = System.nanoTime();   // completion time of this transfer
                                         Log.e(TAG,"after requestWait: ");
-                                        if(response != null) {
-                                                len = buf.position();
+                                        synchronized(requests) {
+                                                buf = requests.complete(response);
+                                                if(buf != null) {
+                                                        len = buf.position();
+                                                }
+                                                if(len > 0) {
+                                                        if(DEBUG_SHOW) {
+                                                                //Log.e(TAG, "read(" + len + "): " + toHexStr(rbuf, len));
+                                                        }
+                                                        buf.flip();
+                                                        broadcast(buf);
+                                                        mBuffer.add(buf, nanos);
+                                                }
                                         }
                                         if(len > 0) {
-                                                if(DEBUG_SHOW) {
-                                                        //Log.e(TAG, "read(" + len + "): " + toHexStr(rbuf, len));
-                                                }
-                                                Log.e(TAG,"read: " + rbuf);
-                                                mBuffer.add(rbuf, len);
                                                 onRead(len);
                                         } else if(mBuffer.getBufferdLength() > 0) {
                                                 onRead(mBuffer.getBufferdLength());
                                         }
 
-                                } else if(mBuffer.getBufferdLength() > 0) {
-                                        onRead(mBuffer.getBufferdLength());
+                                } else {
+                                        if(mBuffer.getBufferdLength() > 0) {
+                                                onRead(mBuffer.getBufferdLength());
+                                        }
+                                        waitForReadSpace();
                                 }
 
                                 if(mReadThreadStop) {
+                                        mReadRequests = null;
+                                        requests.close();
                                         return;
                                 }
                         }
@@ -253,6 +262,7 @@ public class UartPL2303 extends SerialCommunicator {
         public boolean setUartConfig(UartConfig config) {
                 boolean res;
                 boolean ret = true;
+                applyReadBufferConfig(config);
                 res = setBaudrate(config.baudrate);
                 ret = ret && res;
 
@@ -265,6 +275,9 @@ public class UartPL2303 extends SerialCommunicator {
                 res = setStopBits(config.stopBits);
                 ret = ret && res;
 
+                res = setFlowControl(config.flowControl);
+                ret = ret && res;
+
                 res = setDtrRts(config.dtrOn, config.rtsOn);
                 ret = ret && res;
 
@@ -298,6 +311,7 @@ public class UartPL2303 extends SerialCommunicator {
                 return false;
             }
 				mUartConfig.baudrate = baudrate;
+				updateReadBufferSize(baudrate);
                 return true;
 		}
         @Override
@@ -474,6 +488,48 @@ public class UartPL2303 extends SerialCommunicator {
                 return true;
         }
 
+        /**
+         * Sets flow control. PL2303 has no DTR/DSR flow control.
+         *
+         * @param flowControl UartConfig.FLOW_CONTROL_*
+         *
+         * @return true : successful, false : fail
+         */
+        @Override
+        public boolean setFlowControl(int flowControl) {
+                int bits;
+                switch(flowControl) {
+                        case UartConfig.FLOW_CONTROL_OFF:
+                                bits = 0;
+                                break;
+                        case UartConfig.FLOW_CONTROL_RTS_CTS:
+                                bits = PL2303_FLOWCTRL_RTS_CTS;
+                                break;
+                        case UartConfig.FLOW_CONTROL_XON_XOFF:
+                                bits = PL2303_FLOWCTRL_XON_XOFF;
+                                break;
+                        default:
+                                return false;
+                }
+                if(mConnection == null) {
+                        return false;
+                }
+                byte[] buf = new byte[1];
+                // read-modify-write, the low bits of the register hold other settings
+                if(setControlCommand(PL2303_REQTYPE_DEVICE2HOST_VENDOR, PL2303_VENDOR_READ_REQUEST, PL2303_FLOWCTRL_REG | 0x80, 0, buf) < 0) {
+                        return false;
+                }
+                int reg = (buf[0] & ~PL2303_FLOWCTRL_MASK & 0xff) | bits;
+                if(setControlCommand(PL2303_REQTYPE_HOST2DEVICE_VENDOR, PL2303_VENDOR_WRITE_REQUEST, PL2303_FLOWCTRL_REG, reg, null) < 0) {
+                        if(DEBUG_SHOW) {
+                                Log.d(TAG, "Fail to setFlowControl");
+                        }
+                        return false;
+                }
+                mUartConfig.flowControl = flowControl;
+                return true;
+        }
+
 		@Override
         public UartConfig getUartConfig() {
                 return mUartConfig;
@@ -511,7 +567,20 @@ public class UartPL2303 extends SerialCommunicator {
 
         @Override
         public void clearBuffer() {
-                mBuffer.clear();
+                if(mConnection != null) {
+                        if(setControlCommand(PL2303_REQTYPE_HOST2DEVICE_VENDOR, PL2303_VENDOR_WRITE_REQUEST, PL2303_RESET_UPSTREAM, 0, null) < 0
+                                || setControlCommand(PL2303_REQTYPE_HOST2DEVICE_VENDOR, PL2303_VENDOR_WRITE_REQUEST, PL2303_RESET_DOWNSTREAM, 0, null) < 0) {
+                                if(DEBUG_SHOW) {
+                                        Log.d(TAG, "Fail to purge");
+                                }
+                        }
+                }
+                UsbReadRequests.purge(mReadRequests, mBuffer);
+        }
+
+        @Override
+        protected RingBuffer getRingBuffer() {
+                return mBuffer;
         }
 		//////////////////////////////////////////////////////////
         // Listener for reading uart
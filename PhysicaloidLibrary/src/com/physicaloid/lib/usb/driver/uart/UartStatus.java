@@ -0,0 +1,46 @@
+package com.physicaloid.lib.usb.driver.uart;
+
+/**
+ * Modem lines and cumulative line event counters of a UART.
+ * Counters count events reported by the chip; an error reported in
+ * several packets in a row is counted once per packet.
+ */
+public class UartStatus {
+    public static final int MODEM_CTS           = 0x01;
+    public static final int MODEM_DSR           = 0x02;
+    public static final int MODEM_RI            = 0x04;
+    public static final int MODEM_DCD           = 0x08;
+
+    public static final int LINE_OVERRUN        = 0x01;
+    public static final int LINE_PARITY         = 0x02;
+    public static final int LINE_FRAMING        = 0x04;
+    public static final int LINE_BREAK          = 0x08;
+
+    public int modemStatus;         // MODEM_* bits, -1 until the chip reports them
+    public int lineErrors;          // LINE_* bits of the latest recorded event
+    public long ctsChanges;
+    public long dsrChanges;
+    public long riChanges;
+    public long dcdChanges;
+    public long overrunErrors;
+    public long parityErrors;
+    public long framingErrors;
+    public long breaks;
+
+    public UartStatus() {
+        this.modemStatus    = -1;
+    }
+
+    public UartStatus(UartStatus src) {
+        this.modemStatus    = src.modemStatus;
+        this.lineErrors     = src.lineErrors;
+        this.ctsChanges     = src.ctsChanges;
+        this.dsrChanges     = src.dsrChanges;
+        this.riChanges      = src.riChanges;
+        this.dcdChanges     = src.dcdChanges;
+        this.overrunErrors  = src.overrunErrors;
+        this.parityErrors   = src.parityErrors;
+        this.framingErrors  = src.framingErrors;
+        this.breaks         = src.breaks;
+    }
+}
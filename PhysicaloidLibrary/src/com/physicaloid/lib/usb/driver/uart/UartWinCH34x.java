@@ -33,15 +33,15 @@ public class UartWinCH34x extends SerialCommunicator {
         private static final int DEFAULT_BAUDRATE = 9600;
         private UsbCdcConnection mUsbConnetionManager;
         private UartConfig mUartConfig;
-        private static final int RING_BUFFER_SIZE = 1024;
+        private static final int RING_BUFFER_SIZE = UartConfig.READ_BUFFER_SIZE_DEFAULT;
         private static final int USB_READ_BUFFER_SIZE = 256;
-        private static final int USB_WRITE_BUFFER_SIZE = 256;
         private RingBuffer mBuffer;
         private boolean mReadThreadStop = true;
         private UsbDeviceConnection mConnection;
         private UsbEndpoint mEndpointIn;
         private UsbEndpoint mEndpointOut;
         private boolean isOpened;
+        private volatile UsbReadRequests mReadRequests;
         private static final int CH341_BIT_RTS = (1 << 6);
         private static final int CH341_BIT_DTR = (1 << 5);
         private static final int CH341_MULT_STAT = 0x04;
@@ -70,9 +70,13 @@ public class UartWinCH34x extends SerialCommunicator {
         private static final int CH341_LCR_CS7 = 0x02;
         private static final int CH341_LCR_CS6 = 0x01;
         private static final int CH341_LCR_CS5 = 0x00;
-        private static final int CH341_BAUDBASE_FACTOR = 1532620800;
-        private static final int CH341_BAUDBASE_DIVMAX = 3;
+        private static final int CH341_CLKRATE = 48000000;
+        private static final int CH341_MIN_BPS = 46;
+        private static final int CH341_MAX_BPS = 3000000;
+        private static final int CH341_REG_FLOW = 0x2727;      // as in the vendor CH34x driver
+        private static final int CH341_FLOW_RTS_CTS = 0x0101;
         private int lcr;
+        private int mActualBaudrate;
         private int line_status;
 
         /*
@@ -143,31 +147,20 @@ public class UartWinCH34x extends SerialCommunicator {
 
         @Override
         public int write(byte[] buf, int size) {
-                if(buf == null) {
+                return write(buf, 0, size);
+        }
+
+        @Override
+        public int write(byte[] buf, int off, int size) {
+                if(buf == null || off < 0) {
                         return 0;
                 }
-                int offset = 0;
-                int write_size;
-                int written_size;
-                byte[] wbuf = new byte[USB_WRITE_BUFFER_SIZE];
-
-                while(offset < size) {
-                        write_size = USB_WRITE_BUFFER_SIZE;
-
-                        if(offset + write_size > size) {
-                                write_size = size - offset;
-                        }
-                        System.arraycopy(buf, offset, wbuf, 0, write_size);
-
-                        written_size = mConnection.bulkTransfer(mEndpointOut, wbuf, write_size, 100);
-
-                        if(written_size < 0) {
-                                return -1;
-                        }
-                        offset += written_size;
+                if(buf.length - off < size) {
+                        size = buf.length - off;
                 }
-
-                return offset;
+                int chunk = getWriteChunkSize(mEndpointOut.getMaxPacketSize());
+                return UsbBulkOut.write(mConnection, mEndpointOut, buf, off, size,
+                        chunk, getWriteTimeout(chunk), isWriteZeroLengthPacket());
         }
 
         private void stopRead() {
@@ -185,21 +178,30 @@ public class UartWinCH34x extends SerialCommunicator {
                 @Override
                 public void run() {
                         int len;
-                        byte[] rbuf = new byte[mEndpointIn.getMaxPacketSize()];
+                        long nanos = 0;
                         android.os.Process.setThreadPriority(-20);
                         UsbRequest response;
-                        UsbRequest request = new UsbRequest();
-                        request.initialize(mConnection, mEndpointIn);
-                        ByteBuffer buf = ByteBuffer.wrap(rbuf);
+                        ByteBuffer buf;
+                        UsbReadRequests requests = new UsbReadRequests(mConnection, mEndpointIn,
+                                getReadRequestCount(), getReadRequestSize(mEndpointIn.getMaxPacketSize()));
+                        mReadRequests = requests;
                         for(;;) {// this is the main loop for transferring
                                 len = 0;
-                                if(request.queue(buf, rbuf.length)) {
+                                if(requests.queueAll(getReadRequestLimit(requests.getSize())) > 0) {
                                         response = mConnection.requestWait();
-                                        if(response != null) {
-                                                len = buf.position();
+                                        nanos = System.nanoTime();   // completion time of this transfer
+                                        synchronized(requests) {
+                                                buf = requests.complete(response);
+                                                if(buf != null) {
+                                                        len = buf.position();
+                                                }
+                                                if(len > 0) {
+                                                        buf.flip();
+                                                        broadcast(buf);
+                                                        mBuffer.add(buf, nanos);
+                                                }
                                         }
                                         if(len > 0) {
-                                                mBuffer.add(rbuf, len);
                                                 onRead(len);
                                         } else if(mBuffer.getBufferdLength() > 0) {
                                                 onRead(mBuffer.getBufferdLength());
@@ -208,9 +210,13 @@ public class UartWinCH34x extends SerialCommunicator {
                                         }
 
 
+                                } else {
+                                        waitForReadSpace();
                                 }
 
                                 if(mReadThreadStop) {
+                                        mReadRequests = null;
+                                        requests.close();
                                         return;
                                 }
 
@@ -222,6 +228,7 @@ public class UartWinCH34x extends SerialCommunicator {
         public boolean setUartConfig(UartConfig config) {
                 boolean res;
                 boolean ret = true;
+                applyReadBufferConfig(config);
                 res = setBaudrate(config.baudrate);
                 ret = ret && res;
 
@@ -234,6 +241,9 @@ public class UartWinCH34x extends SerialCommunicator {
                 res = setStopBits(config.stopBits);
                 ret = ret && res;
 
+                res = setFlowControl(config.flowControl);
+                ret = ret && res;
+
                 res = setDtrRts(config.dtrOn, config.rtsOn);
                 ret = ret && res;
 
@@ -364,19 +374,10 @@ public class UartWinCH34x extends SerialCommunicator {
                 if(mConnection == null) {
                         return false;
                 }
-                long factor = CH341_BAUDBASE_FACTOR / baudrate;
-                short divisor = CH341_BAUDBASE_DIVMAX;
-
-                while((factor > 0xfff0) && divisor != 0) {
-                        factor >>= 3;
-                        divisor--;
-                }
-
-                if(factor > 0xfff0) {
+                if(baudrate < CH341_MIN_BPS || baudrate > CH341_MAX_BPS) {
                         return false;
                 }
-                factor = 0x10000 - factor;
-                int a = (int) (factor & 0xff00) | divisor | 0x80; // bit 7 needed for 341
+                int a = ch341_get_divisor(baudrate) | 0x80; // bit 7 needed for 341
 
                 int r = ch341_control_out(CH341_REQ_WRITE_REG, 0x1312, a);
                 if(r < 0) {
@@ -394,9 +395,65 @@ public class UartWinCH34x extends SerialCommunicator {
                         return false;
                 }
                 mUartConfig.baudrate = baudrate;
+                mActualBaudrate = ch341_get_rate(a);
+                updateReadBufferSize(baudrate);
                 return true;
         }
 
+        @Override
+        public int getActualBaudrate() {
+                return mActualBaudrate > 0 ? mActualBaudrate : mUartConfig.baudrate;
+        }
+
+        private static int ch341_clk_div(int ps, int fact) {
+                return 1 << (12 - 3 * ps - fact);
+        }
+
+        /*
+         * Picks prescaler and divisor as the Linux ch341 driver does: the
+         * highest base clock that keeps the divisor below 512, then the
+         * divisor whose rate is closest.
+         * Returns (0x100 - div) << 8 | fact << 2 | ps.
+         */
+        private static int ch341_get_divisor(int speed) {
+                int fact = 1;
+                int ps;
+                for(ps = 3; ps > 0; ps--) {
+                        if(speed > CH341_CLKRATE / (ch341_clk_div(ps, 1) * 512)) {
+                                break;
+                        }
+                }
+                int clk_div = ch341_clk_div(ps, fact);
+                int div = CH341_CLKRATE / (clk_div * speed);
+
+                // halve the base clock if the divisor is out of range
+                if(div < 9 || div > 255) {
+                        div /= 2;
+                        clk_div *= 2;
+                        fact = 0;
+                }
+
+                // next divisor if its rate is closer, scaled to avoid rounding errors at low rates
+                if(16L * CH341_CLKRATE / (clk_div * div) - 16L * speed
+                        >= 16L * speed - 16L * CH341_CLKRATE / (clk_div * (div + 1))) {
+                        div++;
+                }
+
+                // prefer the lower base clock with an even divisor, the receiver tolerates more error
+                if(fact == 1 && div % 2 == 0) {
+                        div /= 2;
+                        fact = 0;
+                }
+                return (0x100 - div) << 8 | fact << 2 | ps;
+        }
+
+        private static int ch341_get_rate(int divisor) {
+                int ps = divisor & 0x03;
+                int fact = (divisor >> 2) & 0x01;
+                int div = 0x100 - ((divisor >> 8) & 0xff);
+                return CH341_CLKRATE / (ch341_clk_div(ps, fact) * div);
+        }
+
         @Override
         public boolean setDataBits(int dataBits) {
                 int p;
@@ -512,6 +569,35 @@ public class UartWinCH34x extends SerialCommunicator {
                 return true;
         }
 
+        /**
+         * Sets flow control. CH34x only has RTS/CTS flow control.
+         *
+         * @param flowControl UartConfig.FLOW_CONTROL_OFF or FLOW_CONTROL_RTS_CTS
+         *
+         * @return true : successful, false : fail
+         */
+        @Override
+        public boolean setFlowControl(int flowControl) {
+                int value;
+                if(flowControl == UartConfig.FLOW_CONTROL_OFF) {
+                        value = 0;
+                } else if(flowControl == UartConfig.FLOW_CONTROL_RTS_CTS) {
+                        value = CH341_FLOW_RTS_CTS;
+                } else {
+                        return false;
+                }
+                int r = ch341_control_out(CH341_REQ_WRITE_REG, CH341_REG_FLOW, value);
+
+                if(r < 0) {
+                        if(DEBUG_SHOW) {
+                                Log.d(TAG, "Fail to setFlowControl");
+                        }
+                        return false;
+                }
+                mUartConfig.flowControl = flowControl;
+                return true;
+        }
+
         @Override
         public UartConfig getUartConfig() {
                 return mUartConfig;
@@ -547,9 +633,28 @@ public class UartWinCH34x extends SerialCommunicator {
                 return mUartConfig.rtsOn;
         }
 
+        @Override
+        protected boolean isStatusPolled() {
+                return true;
+        }
+
+        @Override
+        protected void pollStatus() {
+                // CH341 has no line error register, only the modem lines
+                if(ch341_get_status() == 0) {
+                        updateStatus(line_status, 0);
+                }
+        }
+
         @Override
         public void clearBuffer() {
-                mBuffer.clear();
+                // CH34x has no purge request, so only drop what is in flight
+                UsbReadRequests.purge(mReadRequests, mBuffer);
+        }
+
+        @Override
+        protected RingBuffer getRingBuffer() {
+                return mBuffer;
         }
         //////////////////////////////////////////////////////////
         // Listener for reading uart
@@ -0,0 +1,89 @@
+package com.physicaloid.lib.usb.driver.uart;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.os.Build;
+import com.physicaloid.misc.BufferPool;
+
+/**
+ * Bulk OUT transfers from any offset of the caller's array.
+ * bulkTransfer with an offset needs API 18; older systems send from a
+ * pooled copy instead.
+ * write() splits data into chunks of whole max packets and can end it
+ * with a zero-length packet.
+ */
+final class UsbBulkOut {
+
+        private static final boolean HAS_OFFSET_TRANSFER = Build.VERSION.SDK_INT >= 18;
+
+        private UsbBulkOut() {
+        }
+
+        /**
+         * Sends one bulk transfer
+         *
+         * @param connection opened connection
+         * @param endpoint   bulk OUT endpoint
+         * @param buf        byte array
+         * @param off        offset to send from
+         * @param len        transfer length
+         * @param timeout    timeout in milliseconds
+         *
+         * @return sent length, negative on failure
+         */
+        static int transfer(UsbDeviceConnection connection, UsbEndpoint endpoint, byte[] buf, int off, int len, int timeout) {
+                if(off == 0) {
+                        return connection.bulkTransfer(endpoint, buf, len, timeout);
+                }
+                if(HAS_OFFSET_TRANSFER) {
+                        return connection.bulkTransfer(endpoint, buf, off, len, timeout);
+                }
+                byte[] tmp = BufferPool.getShared().acquire(len);
+                System.arraycopy(buf, off, tmp, 0, len);
+                int ret = connection.bulkTransfer(endpoint, tmp, len, timeout);
+                BufferPool.getShared().release(tmp);
+                return ret;
+        }
+
+        /**
+         * Sends data in chunks
+         *
+         * @param connection opened connection
+         * @param endpoint   bulk OUT endpoint
+         * @param buf        byte array
+         * @param off        offset to send from
+         * @param size       data length
+         * @param chunk      transfer size, a multiple of the max packet size
+         * @param timeout    timeout per transfer in milliseconds
+         * @param zlp        true then a zero-length packet follows data that
+         *                   ends on a packet boundary
+         *
+         * @return sent length, -1 on failure
+         */
+        static int write(UsbDeviceConnection connection, UsbEndpoint endpoint, byte[] buf, int off, int size,
+                int chunk, int timeout, boolean zlp) {
+                int offset = 0;
+                int write_size;
+                int written_size;
+
+                while(offset < size) {
+                        write_size = chunk;
+
+                        if(offset + write_size > size) {
+                                write_size = size - offset;
+                        }
+                        written_size = transfer(connection, endpoint, buf, off + offset, write_size, timeout);
+
+                        if(written_size < 0) {
+                                return -1;
+                        }
+                        offset += written_size;
+                }
+                if(zlp && size > 0 && size % endpoint.getMaxPacketSize() == 0) {
+                        // the last packet was full, the device waits for a short one
+                        connection.bulkTransfer(endpoint, buf, 0, timeout);
+                }
+
+                return offset;
+        }
+}
@@ -0,0 +1,166 @@
+package com.physicaloid.lib.usb.driver.uart;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+import com.physicaloid.misc.RingBuffer;
+import java.nio.ByteBuffer;
+
+/**
+ * A set of IN UsbRequests kept in flight together, so the host controller
+ * always has a pending transfer while the read thread copies data.
+ * Each request owns a direct ByteBuffer, stored as its client data.
+ * Requests complete in queue order and are re-queued as they are consumed.
+ * Used from a driver's read thread; cancelAll() may be called from any
+ * thread. The read thread holds this object's lock from complete() until
+ * the data is in its ring buffer, so a purge never races a late add.
+ */
+class UsbReadRequests {
+
+        private final UsbRequest[] mRequests;
+        private final boolean[] mQueued;
+        private final boolean[] mCancelled;
+        private final int mSize;
+        private int mPending;
+
+        /**
+         * @param connection opened connection
+         * @param endpoint   bulk IN endpoint
+         * @param count      number of requests in flight
+         * @param size       buffer size of each request
+         */
+        UsbReadRequests(UsbDeviceConnection connection, UsbEndpoint endpoint, int count, int size) {
+                if(count < 1) {
+                        count = 1;
+                }
+                mRequests = new UsbRequest[count];
+                mQueued = new boolean[count];
+                mCancelled = new boolean[count];
+                mSize = size;
+                for(int i = 0; i < count; i++) {
+                        UsbRequest request = new UsbRequest();
+                        request.initialize(connection, endpoint);
+                        request.setClientData(ByteBuffer.allocateDirect(size));
+                        mRequests[i] = request;
+                }
+        }
+
+        /**
+         * Gets the buffer size of each request
+         *
+         * @return request size in bytes
+         */
+        int getSize() {
+                return mSize;
+        }
+
+        /**
+         * Queues every request that is not in flight
+         *
+         * @return number of requests in flight
+         */
+        int queueAll() {
+                return queueAll(Integer.MAX_VALUE);
+        }
+
+        /**
+         * Queues requests that are not in flight while the total size in
+         * flight stays within limit
+         *
+         * @param limit largest number of bytes requested at once
+         *
+         * @return number of requests in flight
+         */
+        synchronized int queueAll(int limit) {
+                for(int i = 0; i < mRequests.length; i++) {
+                        if((long) (mPending + 1) * mSize > limit) {
+                                break;
+                        }
+                        if(!mQueued[i]) {
+                                ByteBuffer buf = (ByteBuffer) mRequests[i].getClientData();
+                                buf.clear();
+                                if(mRequests[i].queue(buf, buf.capacity())) {
+                                        mQueued[i] = true;
+                                        mCancelled[i] = false;
+                                        mPending++;
+                                }
+                        }
+                }
+                return mPending;
+        }
+
+        /**
+         * Takes back a request returned by UsbDeviceConnection.requestWait()
+         *
+         * @param response completed request, may be null
+         *
+         * @return its buffer with position at the received length, null if
+         *         the request is not one of this set or was cancelled
+         */
+        synchronized ByteBuffer complete(UsbRequest response) {
+                if(response == null) {
+                        return null;
+                }
+                for(int i = 0; i < mRequests.length; i++) {
+                        if(mRequests[i] == response) {
+                                if(mQueued[i]) {
+                                        mQueued[i] = false;
+                                        mPending--;
+                                }
+                                if(mCancelled[i]) {
+                                        // queued before a purge, whatever it holds is stale
+                                        mCancelled[i] = false;
+                                        return null;
+                                }
+                                return (ByteBuffer) response.getClientData();
+                        }
+                }
+                return null;
+        }
+
+        /**
+         * Cancels every request in flight. Data they received, or receive
+         * before the cancel takes effect, is dropped by complete(), and
+         * requestWait() returns them so the read thread re-queues fresh ones.
+         */
+        synchronized void cancelAll() {
+                for(int i = 0; i < mRequests.length; i++) {
+                        if(mQueued[i]) {
+                                mCancelled[i] = true;
+                                mRequests[i].cancel();
+                        }
+                }
+        }
+
+        /**
+         * Drops the received data of a driver: cancels its requests in flight
+         * and clears its ring buffer under the requests' lock
+         *
+         * @param requests requests of the read thread, null if not reading
+         * @param buffer   ring buffer of the driver
+         */
+        static void purge(UsbReadRequests requests, RingBuffer buffer) {
+                if(requests == null) {
+                        buffer.clear();
+                        return;
+                }
+                synchronized(requests) {
+                        requests.cancelAll();
+                        buffer.clear();
+                }
+        }
+
+        /**
+         * Cancels and releases all requests
+         */
+        synchronized void close() {
+                for(int i = 0; i < mRequests.length; i++) {
+                        if(mQueued[i]) {
+                                mRequests[i].cancel();
+                                mQueued[i] = false;
+                        }
+                        mRequests[i].close();
+                }
+                mPending = 0;
+        }
+}
@@ -33,7 +33,7 @@ public class UartWifi extends SerialCommunicator {
         private boolean DEBUG_SHOW = false;
         private static final int DEFAULT_BAUDRATE = 9600;
         private UartConfig mUartConfig;
-        private static final int RING_BUFFER_SIZE = 1024;
+        private static final int RING_BUFFER_SIZE = UartConfig.READ_BUFFER_SIZE_DEFAULT;
         private static final int READ_BUFFER_SIZE = 256;
         private static final int WRITE_BUFFER_SIZE = 256;
         private RingBuffer mBuffer;
@@ -267,11 +267,17 @@ public class UartWifi extends SerialCommunicator {
         @Override
         @SuppressWarnings("CallToThreadDumpStack")
         public int write(byte[] buf, int size) {
+                return write(buf, 0, size);
+        }
+
+        @Override
+        @SuppressWarnings("CallToThreadDumpStack")
+        public int write(byte[] buf, int off, int size) {
                 if(buf == null) {
                         return 0;
                 }
                 try {
-                        DATA_OUT.write(buf, 0, size);
+                        DATA_OUT.write(buf, off, size);
                         DATA_OUT.flush();
                 } catch(Exception ex) {
                         close();
@@ -296,6 +302,7 @@ public class UartWifi extends SerialCommunicator {
                         return false;
                 }
                 mUartConfig.baudrate = baudrate;
+                updateReadBufferSize(baudrate);
                 return true;
         }
 
@@ -359,6 +366,7 @@ public class UartWifi extends SerialCommunicator {
         public boolean setUartConfig(UartConfig config) {
                 boolean res;
                 boolean ret = true;
+                applyReadBufferConfig(config);
                 if(mUartConfig.baudrate != config.baudrate) {
                         res = setBaudrate(config.baudrate);
                         ret = ret && res;
@@ -432,6 +440,11 @@ public class UartWifi extends SerialCommunicator {
         public void clearBuffer() {
                 mBuffer.clear();
         }
+
+        @Override
+        protected RingBuffer getRingBuffer() {
+                return mBuffer;
+        }
         //////////////////////////////////////////////////////////
         // Listener for reading uart
         //////////////////////////////////////////////////////////
@@ -513,6 +526,7 @@ public class UartWifi extends SerialCommunicator {
                                                         len++;
                                                 }
                                                 if(len > 0) {
+                                                        broadcast(rbuf, 0, len);
                                                         mBuffer.add(rbuf, len);
                                                         onRead(len);
                                                 }
@@ -0,0 +1,307 @@
+package com.physicaloid.misc;
+
+import android.os.SystemClock;
+import java.nio.ByteBuffer;
+
+/**
+ * Byte ring buffer with one producer and any number of readers, each with
+ * its own cursor, so a console, a logger and a decoder all see every byte.
+ *
+ * The slowest non-lossy reader defines the free space; when it is full,
+ * new bytes are dropped and counted by getDroppedBytes(). A lossy reader
+ * never holds the producer back. If it falls more than the buffer size
+ * behind, it skips ahead and counts the skipped bytes itself.
+ *
+ * The producer claims space in mWriteCount before copying and publishes
+ * mAddCount afterwards. A lossy reader checks mWriteCount after its copy
+ * to detect bytes overwritten meanwhile and retries.
+ * Each Reader must be used from one thread at a time.
+ */
+public class BroadcastRingBuffer {
+
+        private static final Reader[] NO_READERS = new Reader[0];
+        private final int mSize;
+        private final byte[] mBuf;
+        private volatile long mAddCount;      // published bytes, written by producer only
+        private volatile long mWriteCount;    // claimed bytes, written by producer only
+        private volatile long mDroppedBytes;  // written by producer only
+        private volatile Reader[] mReaders = NO_READERS;  // replaced under this monitor
+        private final Object mDataLock = new Object();
+        private volatile int mDataWaiters;    // changed with mDataLock held
+
+        /**
+         * Broadcast ring buffer
+         *
+         * @param bufferSize buffer size
+         */
+        public BroadcastRingBuffer(int bufferSize) {
+                mSize = bufferSize;
+                mBuf = new byte[bufferSize];
+        }
+
+        /**
+         * Registers a reader. It sees bytes added from now on.
+         *
+         * @param lossy true then the reader may lose data instead of
+         *              holding back the producer
+         *
+         * @return new reader
+         */
+        public synchronized Reader createReader(boolean lossy) {
+                Reader reader = new Reader(lossy, mAddCount);
+                Reader[] readers = new Reader[mReaders.length + 1];
+                System.arraycopy(mReaders, 0, readers, 0, mReaders.length);
+                readers[mReaders.length] = reader;
+                mReaders = readers;
+                return reader;
+        }
+
+        private synchronized void removeReader(Reader reader) {
+                Reader[] old = mReaders;
+                for(int i = 0; i < old.length; i++) {
+                        if(old[i] == reader) {
+                                Reader[] readers = new Reader[old.length - 1];
+                                System.arraycopy(old, 0, readers, 0, i);
+                                System.arraycopy(old, i + 1, readers, i, old.length - i - 1);
+                                mReaders = readers;
+                                return;
+                        }
+                }
+        }
+
+        /**
+         * Checks any reader is registered
+         *
+         * @return true : has readers, false : no reader
+         */
+        public boolean hasReaders() {
+                return mReaders.length > 0;
+        }
+
+        /**
+         * Gets buffer size
+         *
+         * @return buffer size
+         */
+        public int getBufferSize() {
+                return mSize;
+        }
+
+        /**
+         * Gets the number of bytes dropped because a non-lossy reader was full
+         *
+         * @return dropped bytes
+         */
+        public long getDroppedBytes() {
+                return mDroppedBytes;
+        }
+
+        /**
+         * Adds byte array for all readers. Producer side only.
+         *
+         * @param buf byte array
+         * @param off offset to start from
+         * @param len added length
+         *
+         * @return actually added length
+         */
+        public int add(byte[] buf, int off, int len) {
+                if(buf == null || off < 0 || len <= 0) {
+                        return 0;
+                }
+                if(buf.length - off < len) {
+                        len = buf.length - off;
+                }
+                return addFrom(buf, null, off, len);
+        }
+
+        /**
+         * Adds the remaining bytes of a ByteBuffer for all readers.
+         * The position of src is left unchanged. Producer side only.
+         *
+         * @param src source buffer
+         *
+         * @return actually added length
+         */
+        public int add(ByteBuffer src) {
+                if(src == null || !src.hasRemaining()) {
+                        return 0;
+                }
+                int pos = src.position();
+                int added = addFrom(null, src, 0, src.remaining());
+                src.position(pos);
+                return added;
+        }
+
+        private int addFrom(byte[] buf, ByteBuffer src, int off, int len) {
+                Reader[] readers = mReaders;
+                if(readers.length == 0) {
+                        return 0;
+                }
+                long add = mAddCount;
+                long tail = add;
+                for(Reader reader : readers) {
+                        if(!reader.mLossy && reader.mCursor < tail) {
+                                tail = reader.mCursor;
+                        }
+                }
+                int free = mSize - (int) (add - tail);
+                int skip = 0;
+                if(len > mSize) {       // only the newest bytes can be kept
+                        skip = len - mSize;
+                }
+                int addLen = len - skip;
+                if(addLen > free) {
+                        addLen = free;
+                }
+                if(len - addLen > 0) {
+                        mDroppedBytes += len - addLen;
+                }
+                if(addLen <= 0) {
+                        return 0;
+                }
+                mWriteCount = add + addLen;     // claim before overwriting
+                int index = (int) (add % mSize);
+                int copyLen = Math.min(mSize - index, addLen);
+                if(buf == null) {
+                        src.position(src.position() + skip);
+                        src.get(mBuf, index, copyLen);
+                        src.get(mBuf, 0, addLen - copyLen);
+                } else {
+                        System.arraycopy(buf, off + skip, mBuf, index, copyLen);
+                        System.arraycopy(buf, off + skip + copyLen, mBuf, 0, addLen - copyLen);
+                }
+                mAddCount = add + addLen;       // publish after the copy
+                if(mDataWaiters > 0) {
+                        synchronized(mDataLock) {
+                                mDataLock.notifyAll();
+                        }
+                }
+                return addLen;
+        }
+
+        /**
+         * A registered reader with its own cursor
+         */
+        public class Reader {
+                private final boolean mLossy;
+                private volatile long mCursor;        // written by this reader only
+                private volatile long mLostBytes;
+                private volatile boolean mClosed;
+
+                private Reader(boolean lossy, long cursor) {
+                        mLossy = lossy;
+                        mCursor = cursor;
+                }
+
+                /**
+                 * Checks the reader is lossy
+                 *
+                 * @return true : lossy, false : holds back the producer
+                 */
+                public boolean isLossy() {
+                        return mLossy;
+                }
+
+                /**
+                 * Gets readable length
+                 *
+                 * @return buffered length for this reader
+                 */
+                public int available() {
+                        long len = mAddCount - mCursor;
+                        return (int) (len > mSize ? mSize : len);
+                }
+
+                /**
+                 * Gets the number of bytes this lossy reader skipped
+                 *
+                 * @return lost bytes
+                 */
+                public long getLostBytes() {
+                        return mLostBytes;
+                }
+
+                /**
+                 * Reads to byte array
+                 *
+                 * @param buf byte array
+                 * @param off offset in buf to store from
+                 * @param len read length
+                 *
+                 * @return actually read length
+                 */
+                public int read(byte[] buf, int off, int len) {
+                        if(mClosed || buf == null || off < 0 || len <= 0) {
+                                return 0;
+                        }
+                        if(buf.length - off < len) {
+                                len = buf.length - off;
+                        }
+                        for(;;) {
+                                long cursor = mCursor;
+                                long add = mAddCount;
+                                if(add - cursor > mSize) {      // lossy reader fell behind
+                                        mLostBytes += add - mSize - cursor;
+                                        cursor = add - mSize;
+                                }
+                                int n = (int) Math.min(len, add - cursor);
+                                if(n <= 0) {
+                                        mCursor = cursor;
+                                        return 0;
+                                }
+                                int index = (int) (cursor % mSize);
+                                int copyLen = Math.min(mSize - index, n);
+                                System.arraycopy(mBuf, index, buf, off, copyLen);
+                                System.arraycopy(mBuf, 0, buf, off + copyLen, n - copyLen);
+                                if(mLossy && mWriteCount - mSize > cursor) {
+                                        mCursor = cursor;       // overwritten while copying
+                                        continue;
+                                }
+                                mCursor = cursor + n;
+                                return n;
+                        }
+                }
+
+                /**
+                 * Waits until data is readable or the timeout expires
+                 *
+                 * @param timeoutMs timeout in milliseconds
+                 *
+                 * @return readable length
+                 */
+                public int waitForData(long timeoutMs) {
+                        int len = available();
+                        if(len > 0 || timeoutMs <= 0) {
+                                return len;
+                        }
+                        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+                        synchronized(mDataLock) {
+                                mDataWaiters++;
+                                try {
+                                        while(!mClosed && (len = available()) == 0) {
+                                                long remain = deadline - SystemClock.uptimeMillis();
+                                                if(remain <= 0) {
+                                                        break;
+                                                }
+                                                mDataLock.wait(remain);
+                                        }
+                                } catch(InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                } finally {
+                                        mDataWaiters--;
+                                }
+                        }
+                        return len;
+                }
+
+                /**
+                 * Unregisters this reader. A non-lossy reader must be closed
+                 * when no longer read, or it stalls the other readers.
+                 */
+                public void close() {
+                        mClosed = true;
+                        removeReader(this);
+                }
+        }
+}
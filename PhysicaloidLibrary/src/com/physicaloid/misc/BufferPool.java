@@ -0,0 +1,89 @@
+package com.physicaloid.misc;
+
+/**
+ * Small pool of reusable byte arrays for driver write loops and packet
+ * filters, so long uploads and streams do not allocate per call.
+ *
+ * Arrays come in power-of-two size classes from MIN_BUFFER_SIZE to
+ * MAX_BUFFER_SIZE. acquire() may return a larger array than requested.
+ * Requests above MAX_BUFFER_SIZE are allocated and never pooled.
+ * A released array must not be used by the caller any more.
+ */
+public class BufferPool {
+
+        public static final int MIN_BUFFER_SIZE = 64;
+        public static final int MAX_BUFFER_SIZE = 64 * 1024;
+        private static final int MIN_SHIFT = 6;        // log2(MIN_BUFFER_SIZE)
+        private static final int MAX_SHIFT = 16;       // log2(MAX_BUFFER_SIZE)
+        private static final int MAX_FREE_PER_CLASS = 4;
+        private static final BufferPool sShared = new BufferPool();
+        private final byte[][][] mFree;
+        private final int[] mFreeCount;
+
+        public BufferPool() {
+                mFree = new byte[MAX_SHIFT - MIN_SHIFT + 1][MAX_FREE_PER_CLASS][];
+                mFreeCount = new int[MAX_SHIFT - MIN_SHIFT + 1];
+        }
+
+        /**
+         * Gets the pool shared by the library
+         *
+         * @return shared pool
+         */
+        public static BufferPool getShared() {
+                return sShared;
+        }
+
+        /**
+         * Borrows a byte array
+         *
+         * @param minSize needed size
+         *
+         * @return array of at least minSize bytes, contents undefined
+         */
+        public byte[] acquire(int minSize) {
+                if(minSize > MAX_BUFFER_SIZE) {
+                        return new byte[minSize];
+                }
+                int cls = sizeClass(minSize);
+                synchronized(this) {
+                        int count = mFreeCount[cls];
+                        if(count > 0) {
+                                count--;
+                                byte[] buf = mFree[cls][count];
+                                mFree[cls][count] = null;
+                                mFreeCount[cls] = count;
+                                return buf;
+                        }
+                }
+                return new byte[MIN_BUFFER_SIZE << cls];
+        }
+
+        /**
+         * Returns a byte array gotten by acquire()
+         *
+         * @param buf array to return, may be null
+         */
+        public void release(byte[] buf) {
+                if(buf == null || buf.length < MIN_BUFFER_SIZE || buf.length > MAX_BUFFER_SIZE
+                        || (buf.length & (buf.length - 1)) != 0) {
+                        return;     // not from a size class
+                }
+                int cls = sizeClass(buf.length);
+                synchronized(this) {
+                        int count = mFreeCount[cls];
+                        if(count < MAX_FREE_PER_CLASS) {
+                                mFree[cls][count] = buf;
+                                mFreeCount[cls] = count + 1;
+                        }
+                }
+        }
+
+        private static int sizeClass(int size) {
+                int cls = 0;
+                while((MIN_BUFFER_SIZE << cls) < size) {
+                        cls++;
+                }
+                return cls;
+        }
+}
@@ -15,18 +15,109 @@
  */
 package com.physicaloid.misc;
 
+import android.os.SystemClock;
 import android.util.Log;
 import com.physicaloid.BuildConfig;
+import java.nio.ByteBuffer;
 
+/**
+ * Byte ring buffer between a driver's read thread (producer) and the
+ * application (consumer).
+ *
+ * The producer only ever writes mAddCount and the consumer only ever writes
+ * mGetCount. Both are volatile and published after the data copy, so with one
+ * producer thread and one consumer thread the buffer is safe without a lock.
+ * By default every call still takes the monitor, which also makes it safe for
+ * several consumer threads. Call setLockFree(true) to skip the monitor when
+ * reads are already serialized (e.g. through Physicaloid.read()).
+ *
+ * When the buffer is full, add() follows the overflow policy and counts the
+ * bytes it had to drop. OVERFLOW_DROP_OLDEST moves the get index from the
+ * producer side, so in that mode both sides always take the monitor.
+ *
+ * waitForData() parks a reader until the producer has added enough bytes.
+ * The producer only takes the notification lock while a reader is waiting.
+ *
+ * peek(), skip() and a single mark()/reset() let parsers work in place.
+ * While a mark is set, the producer treats the marked bytes as unread.
+ *
+ * resize() keeps the buffered bytes. It raises mResizePending, waits for
+ * lock-free calls in progress to leave, and swaps the storage with the
+ * monitor held; calls arriving meanwhile take the monitor.
+ *
+ * With setChunkTimestamps(true), each add() also records the start, length
+ * and System.nanoTime() timestamp of the chunk in parallel primitive arrays
+ * (the last CHUNK_HISTORY chunks). getTimestamped() returns the timestamp
+ * of the first byte and stops at the end of its chunk.
+ */
 public class RingBuffer {
 
         private static final String TAG = RingBuffer.class.getSimpleName();
         private static final boolean DEBUG_SHOW_ADD = false && BuildConfig.DEBUG;
         private static final boolean DEBUG_SHOW_GET = false && BuildConfig.DEBUG;
-        private int mRingBufSize;
+        /**
+         * Overflow policy: keeps buffered data and drops new bytes (default)
+         */
+        public static final int OVERFLOW_DROP_NEWEST = 0;
+        /**
+         * Overflow policy: overwrites the oldest buffered bytes
+         */
+        public static final int OVERFLOW_DROP_OLDEST = 1;
+        /**
+         * Overflow policy: blocks the producer until space is available or
+         * the block timeout expires
+         */
+        public static final int OVERFLOW_BLOCK = 2;
+        private static final int DEFAULT_BLOCK_TIMEOUT_MS = 1000;
+        private static final long NO_MARK = -1;
+        // consumer side operations, see consume()
+        private static final int OP_GET = 0;
+        private static final int OP_PEEK = 1;
+        private static final int OP_SKIP = 2;
+        private static final int OP_INDEX_OF = 3;
+        private static final int OP_GET_UNTIL = 4;
+        private static final int OP_MARK = 5;
+        private static final int OP_RESET = 6;
+        private static final int OP_CLEAR = 7;
+        private static final int MAX_RING_BUFFER_SIZE = 1 << 20;
+        /**
+         * Number of chunks whose timestamps are kept
+         */
+        public static final int CHUNK_HISTORY = 256;
+        /**
+         * Timestamp returned for bytes without a recorded chunk
+         */
+        public static final long NO_TIMESTAMP = -1;
+        private volatile int mRingBufSize;
         private byte[] mRingBuf;
-        private int mAddIndex;     // top of data index
-        private int mGetIndex;     // tail of data index
+        private volatile long mAddCount;   // total added bytes, written by producer only
+        private volatile long mGetCount;   // total gotten bytes, written by consumer only
+        private volatile long mMarkCount = NO_MARK; // marked get count, written by consumer only
+        private volatile boolean mLockFree;
+        // resize handshake: a side sets its busy flag, then checks mResizePending
+        private final Object mResizeLock = new Object();
+        private volatile boolean mResizePending;
+        private volatile boolean mProducerBusy;
+        private volatile boolean mConsumerBusy;
+        private volatile int mOverflowPolicy;
+        private volatile int mBlockTimeoutMs;
+        private final Object mSpaceLock = new Object();
+        private volatile boolean mProducerWaiting;
+        private final Object mDataLock = new Object();
+        private volatile int mDataWaiters;  // changed with mDataLock held
+        // statistics, written by producer only
+        private volatile long mDroppedBytes;
+        private volatile int mHighWaterCount;
+        private volatile int mHighWaterMark;
+        private volatile int mPeakLength;
+        private boolean mAboveHighWater;
+        // chunk timestamps, slot = sequence % CHUNK_HISTORY
+        private volatile boolean mChunkTimestamps;
+        private long[] mChunkStart;
+        private int[] mChunkLength;
+        private long[] mChunkNanos;
+        private volatile long mChunkSeq;    // recorded chunks, written by producer only
+        private long mChunkReadSeq;         // first chunk still of interest, consumer only
 
         /**
          * Ring buffer
@@ -34,10 +125,223 @@ public class RingBuffer {
          * @param bufferSize buffer size. It needs enough size e.g.1024
          */
         public RingBuffer(int bufferSize) {
-                mRingBufSize = bufferSize + 1;
+                this(bufferSize, false);
+        }
+
+        /**
+         * Ring buffer
+         *
+         * @param bufferSize buffer size. It needs enough size e.g.1024
+         * @param lockFree   true then single-producer/single-consumer access
+         *                   without a lock
+         */
+        public RingBuffer(int bufferSize, boolean lockFree) {
+                mRingBufSize = bufferSize;
                 mRingBuf = new byte[mRingBufSize];
-                mAddIndex = 0;
-                mGetIndex = 0;
+                mAddCount = 0;
+                mGetCount = 0;
+                mLockFree = lockFree;
+                mOverflowPolicy = OVERFLOW_DROP_NEWEST;
+                mBlockTimeoutMs = DEFAULT_BLOCK_TIMEOUT_MS;
+                mHighWaterMark = bufferSize;
+        }
+
+        /**
+         * Switches between synchronized and lock-free access.
+         * Lock-free access is only safe with one producer and one consumer thread.
+         *
+         * @param lockFree true : lock-free, false : synchronized
+         */
+        public void setLockFree(boolean lockFree) {
+                mLockFree = lockFree;
+        }
+
+        /**
+         * Gets access mode
+         *
+         * @return true : lock-free, false : synchronized
+         */
+        public boolean isLockFree() {
+                return mLockFree;
+        }
+
+        /**
+         * Enables recording a timestamp per added chunk
+         *
+         * @param enable true : record, false : do not record (default)
+         */
+        public synchronized void setChunkTimestamps(boolean enable) {
+                if(enable && mChunkStart == null) {
+                        mChunkStart = new long[CHUNK_HISTORY];
+                        mChunkLength = new int[CHUNK_HISTORY];
+                        mChunkNanos = new long[CHUNK_HISTORY];
+                }
+                mChunkTimestamps = enable;   // publishes the arrays
+        }
+
+        /**
+         * Checks chunk timestamps are recorded
+         *
+         * @return true : recorded, false : not recorded
+         */
+        public boolean isChunkTimestamps() {
+                return mChunkTimestamps;
+        }
+
+        /**
+         * Sets what add() does when the buffer is full
+         *
+         * @param policy OVERFLOW_DROP_NEWEST, OVERFLOW_DROP_OLDEST or OVERFLOW_BLOCK
+         */
+        public void setOverflowPolicy(int policy) {
+                if(policy != OVERFLOW_DROP_OLDEST && policy != OVERFLOW_BLOCK) {
+                        policy = OVERFLOW_DROP_NEWEST;
+                }
+                mOverflowPolicy = policy;
+                signalSpace();
+        }
+
+        /**
+         * Gets overflow policy
+         *
+         * @return OVERFLOW_DROP_NEWEST, OVERFLOW_DROP_OLDEST or OVERFLOW_BLOCK
+         */
+        public int getOverflowPolicy() {
+                return mOverflowPolicy;
+        }
+
+        /**
+         * Sets how long add() may block with OVERFLOW_BLOCK before the rest
+         * of the data is dropped
+         *
+         * @param timeoutMs block timeout in milliseconds
+         */
+        public void setBlockTimeout(int timeoutMs) {
+                mBlockTimeoutMs = timeoutMs < 0 ? 0 : timeoutMs;
+        }
+
+        /**
+         * Sets the fill level counted as a high-water hit
+         *
+         * @param bytes buffered length, e.g. getRingBufferSize() for "full"
+         */
+        public void setHighWaterMark(int bytes) {
+                if(bytes <= 0 || bytes > mRingBufSize) {
+                        bytes = mRingBufSize;
+                }
+                mHighWaterMark = bytes;
+        }
+
+        /**
+         * Gets the fill level counted as a high-water hit
+         *
+         * @return high-water mark in bytes
+         */
+        public int getHighWaterMark() {
+                return mHighWaterMark;
+        }
+
+        /**
+         * Gets the number of bytes dropped by the overflow policy
+         *
+         * @return dropped bytes since creation or resetStats()
+         */
+        public long getDroppedBytes() {
+                return mDroppedBytes;
+        }
+
+        /**
+         * Gets how often the buffered length rose to the high-water mark
+         *
+         * @return high-water hits since creation or resetStats()
+         */
+        public int getHighWaterCount() {
+                return mHighWaterCount;
+        }
+
+        /**
+         * Gets the largest buffered length seen
+         *
+         * @return peak buffered length since creation or resetStats()
+         */
+        public int getPeakBufferedLength() {
+                return mPeakLength;
+        }
+
+        /**
+         * Resets dropped bytes, high-water count and peak length
+         */
+        public void resetStats() {
+                mDroppedBytes = 0;
+                mHighWaterCount = 0;
+                mPeakLength = 0;
+        }
+
+        /**
+         * Changes the ring buffer size, keeping the buffered (and marked) bytes.
+         * If they do not fit, the oldest are dropped and counted.
+         * Safe to call while the producer and consumer are running.
+         *
+         * @param bufferSize new buffer size
+         *
+         * @return true : successful, false : invalid size
+         */
+        public boolean resize(int bufferSize) {
+                if(bufferSize <= 0 || bufferSize > MAX_RING_BUFFER_SIZE) {
+                        return false;
+                }
+                synchronized(mResizeLock) {
+                        if(bufferSize == mRingBufSize) {
+                                return true;
+                        }
+                        mResizePending = true;
+                        try {
+                                while(mProducerBusy || mConsumerBusy) {
+                                        Thread.yield();     // lock-free calls are short copies
+                                }
+                                synchronized(this) {
+                                        resizeInternal(bufferSize);
+                                }
+                        } finally {
+                                mResizePending = false;
+                        }
+                }
+                signalSpace();
+                return true;
+        }
+
+        private void resizeInternal(int bufferSize) {
+                long add = mAddCount;
+                long tail = mMarkCount;
+                if(tail == NO_MARK) {
+                        tail = mGetCount;
+                }
+                if(add - tail > bufferSize) {
+                        long newTail = add - bufferSize;
+                        if(mGetCount < newTail) {
+                                mDroppedBytes += newTail - mGetCount;
+                                mGetCount = newTail;
+                        }
+                        mMarkCount = NO_MARK;
+                        tail = mGetCount;
+                }
+                byte[] newBuf = new byte[bufferSize];
+                // counters stay, each byte moves to count % new size
+                for(long c = tail; c < add; ) {
+                        int from = (int) (c % mRingBufSize);
+                        int to = (int) (c % bufferSize);
+                        int n = (int) Math.min(add - c, Math.min(mRingBufSize - from, bufferSize - to));
+                        System.arraycopy(mRingBuf, from, newBuf, to, n);
+                        c += n;
+                }
+                if(mHighWaterMark >= mRingBufSize || mHighWaterMark > bufferSize) {
+                        mHighWaterMark = bufferSize;
+                }
+                mRingBuf = newBuf;
+                mRingBufSize = bufferSize;
+                if(DEBUG_SHOW_ADD) {
+                        Log.d(TAG, "resize(" + bufferSize + ") : addCount = " + mAddCount + ", getCount = " + mGetCount);
+                }
         }
 
         /**
@@ -46,7 +350,7 @@ public class RingBuffer {
          * @return ring buffer size
          */
         public int getRingBufferSize() {
-                return mRingBufSize - 1;
+                return mRingBufSize;
         }
 
         /**
@@ -55,11 +359,12 @@ public class RingBuffer {
          * @return buffered length
          */
         public int getBufferdLength() {
-                if(mAddIndex >= mGetIndex) {
-                        return mAddIndex - mGetIndex;
-                } else {
-                        return mAddIndex + (mRingBufSize - mGetIndex);
+                long get = mGetCount;
+                long len = mAddCount - get;
+                if(len > mRingBufSize) {
+                        return mRingBufSize;
                 }
+                return (int) len;
         }
 
         /**
@@ -70,138 +375,309 @@ public class RingBuffer {
          *
          * @return actually added length
          */
-        public synchronized int add(byte[] buf, int length) {
-                int addLen = length;
-                if(buf == null) {
+        public int add(byte[] buf, int length) {
+                return add(buf, length, 0);
+        }
+
+        /**
+         * Adds byte array to ring buffer with starting offset
+         *
+         * @param buf    byte array
+         * @param length added length
+         * @param off    offset to start from
+         *
+         * @return actually added length
+         */
+        public int add(byte[] buf, int length, int off) {
+                if(buf == null || off < 0 || length <= 0) {
                         return 0;
                 }
-                if(mAddIndex > mGetIndex) {
-                        if((mAddIndex + length) >= mRingBufSize) {                          // addした結果1周をまたぐ場合
-                                if((mRingBufSize - mAddIndex) + (mGetIndex - 1) < length) {    // 1周をまたいでなおlength以上になる場合
-                                        addLen = (mRingBufSize - mAddIndex) + (mGetIndex - 1);        // 追い抜かないサイズに修正
-                                }
-                        }
-                } else if(mAddIndex < mGetIndex) { // 1周をまたいでいる場合
-                        if((mGetIndex - 1) - mAddIndex < length) {
-                                addLen = (mGetIndex - 1) - mAddIndex;
-                        }
+                if(buf.length - off < length) {
+                        length = buf.length - off;
                 }
+                return addFrom(buf, null, off, length, NO_TIMESTAMP);
+        }
 
-                if(buf.length < addLen) {
-                        addLen = buf.length;
+        /**
+         * Adds byte array to ring buffer with its receive time
+         *
+         * @param buf    byte array
+         * @param length added length
+         * @param off    offset to start from
+         * @param nanos  System.nanoTime() when the chunk was received
+         *
+         * @return actually added length
+         */
+        public int add(byte[] buf, int length, int off, long nanos) {
+                if(buf == null || off < 0 || length <= 0) {
+                        return 0;
+                }
+                if(buf.length - off < length) {
+                        length = buf.length - off;
                 }
+                return addFrom(buf, null, off, length, nanos);
+        }
 
-                if((mAddIndex + addLen) >= mRingBufSize) { // storeがバッファ終端をまたぐ場合
-                        int remain = mAddIndex + addLen - mRingBufSize;
-                        int copyLen = addLen - remain;
-                        if(copyLen != 0) {
-                                System.arraycopy(buf, 0, mRingBuf, mAddIndex, copyLen);
-                                if(DEBUG_SHOW_ADD) {
-                                        Log.d(TAG, "add(" + length + ") : copy buf[0:" + (copyLen - 1) + "] to mRingBuf[" + mAddIndex + ":" + (mAddIndex + copyLen - 1) + "]");
-                                }
-                        }
+        /**
+         * Adds the remaining bytes of a ByteBuffer to ring buffer.
+         * Direct buffers filled by UsbRequest are copied without an
+         * intermediate array. The position of src is advanced by the
+         * consumed length; bytes dropped by the overflow policy are consumed too.
+         *
+         * @param src source buffer
+         *
+         * @return actually added length
+         */
+        public int add(ByteBuffer src) {
+                return add(src, NO_TIMESTAMP);
+        }
 
-                        mAddIndex = 0;
+        /**
+         * Adds the remaining bytes of a ByteBuffer to ring buffer with
+         * their receive time
+         *
+         * @param src   source buffer
+         * @param nanos System.nanoTime() when the chunk was received
+         *
+         * @return actually added length
+         */
+        public int add(ByteBuffer src, long nanos) {
+                if(src == null || !src.hasRemaining()) {
+                        return 0;
+                }
+                int length = src.remaining();
+                int added = addFrom(null, src, 0, length, nanos);
+                if(src.hasRemaining()) {
+                        src.position(src.limit());
+                }
+                return added;
+        }
 
-                        if(remain != 0) {
-                                System.arraycopy(buf, copyLen, mRingBuf, mAddIndex, remain);
-                                if(DEBUG_SHOW_ADD) {
-                                        Log.d(TAG, "add(" + length + ") : copy buf[" + (copyLen) + ":" + (addLen - 1) + "] to mRingBuf[0:" + (remain - 1) + "]");
+        private int addFrom(byte[] buf, ByteBuffer src, int off, int length, long nanos) {
+                int added = storeChunk(buf, src, off, length, nanos);
+                signalData();
+                if(added < length && mOverflowPolicy == OVERFLOW_BLOCK) {
+                        long deadline = SystemClock.uptimeMillis() + mBlockTimeoutMs;
+                        long remain = mBlockTimeoutMs;
+                        while(added < length && remain > 0 && mOverflowPolicy == OVERFLOW_BLOCK) {
+                                if(!waitForSpace(remain)) {
+                                        break;
                                 }
-                                mAddIndex = remain;
+                                added += storeChunk(buf, src, off + added, length - added, nanos);
+                                signalData();
+                                remain = deadline - SystemClock.uptimeMillis();
                         }
+                }
+                if(added < length) {
+                        mDroppedBytes += length - added;
+                }
+                updateStats();
+                return added;
+        }
 
-                        if(DEBUG_SHOW_ADD) {
-                                Log.d(TAG, "add(" + length + ") : addOffset = " + mAddIndex + ", getOffset = " + mGetIndex);
+        /**
+         * Stores the chunk, addInternal() records it if enabled
+         */
+        private int storeChunk(byte[] buf, ByteBuffer src, int off, int length, long nanos) {
+                if(!mChunkTimestamps) {
+                        nanos = NO_TIMESTAMP;
+                } else if(nanos == NO_TIMESTAMP) {
+                        nanos = System.nanoTime();
+                }
+                if(!useLock()) {
+                        mProducerBusy = true;
+                        try {
+                                if(!mResizePending) {
+                                        return addInternal(buf, src, off, length, nanos);
+                                }
+                        } finally {
+                                mProducerBusy = false;
                         }
+                }
+                synchronized(this) {
+                        return addInternal(buf, src, off, length, nanos);
+                }
+        }
 
-                        return addLen;
-                } else {
-                        System.arraycopy(buf, 0, mRingBuf, mAddIndex, addLen);
+        /**
+         * Records the bytes actually stored for a chunk, before they become
+         * visible to the consumer
+         */
+        private void recordChunk(long start, int length, long nanos) {
+                long seq = mChunkSeq;
+                int slot = (int) (seq % CHUNK_HISTORY);
+                mChunkStart[slot] = start;
+                mChunkLength[slot] = length;
+                mChunkNanos[slot] = nanos;
+                mChunkSeq = seq + 1;
+        }
 
-                        if(DEBUG_SHOW_ADD) {
-                                Log.d(TAG, "add(" + length + ") : copy buf[0:" + (addLen - 1) + "] to mRingBuf[" + mAddIndex + ":" + (mAddIndex + addLen - 1) + "]");
-                        }
+        private boolean useLock() {
+                return !mLockFree || mOverflowPolicy == OVERFLOW_DROP_OLDEST || mResizePending;
+        }
 
-                        mAddIndex += addLen;
+        private void updateStats() {
+                int len = getBufferdLength();
+                if(len > mPeakLength) {
+                        mPeakLength = len;
+                }
+                if(len >= mHighWaterMark) {
+                        if(!mAboveHighWater) {
+                                mAboveHighWater = true;
+                                mHighWaterCount++;
+                        }
+                } else {
+                        mAboveHighWater = false;
+                }
+        }
 
-                        if(DEBUG_SHOW_ADD) {
-                                Log.d(TAG, "add(" + length + ") : addOffset = " + mAddIndex + ", getOffset = " + mGetIndex);
+        /**
+         * Waits until the consumer frees some space
+         *
+         * @return false if interrupted
+         */
+        private boolean waitForSpace(long timeoutMs) {
+                synchronized(mSpaceLock) {
+                        mProducerWaiting = true;
+                        try {
+                                if(getFreeLength() <= 0) {
+                                        mSpaceLock.wait(timeoutMs);
+                                }
+                        } catch(InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return false;
+                        } finally {
+                                mProducerWaiting = false;
                         }
+                }
+                return true;
+        }
 
-                        return addLen;
+        private void signalData() {
+                if(mDataWaiters > 0) {
+                        synchronized(mDataLock) {
+                                mDataLock.notifyAll();
+                        }
                 }
         }
+
         /**
-         * Adds byte array to ring buffer with starting offset
+         * Waits until at least minLength bytes are buffered or the timeout
+         * expires. Returns at once if enough data is already buffered.
          *
-         * @param buf    byte array
-         * @param length added length
-         * @param off    offset to start from
+         * @param minLength wanted length, limited to the ring buffer size
+         * @param timeoutMs timeout in milliseconds, 0 then no wait
          *
-         * @return actually added length
+         * @return buffered length, may be less than minLength on timeout
          */
-        public synchronized int add(byte[] buf, int length, int off) {
-                int addLen = length;
-                if(buf == null) {
-                        return 0;
+        public int waitForData(int minLength, long timeoutMs) {
+                if(minLength < 1) {
+                        minLength = 1;
+                } else if(minLength > mRingBufSize) {
+                        minLength = mRingBufSize;
                 }
-                if(mAddIndex > mGetIndex) {
-                        if((mAddIndex + length) >= mRingBufSize) {                          // addした結果1周をまたぐ場合
-                                if((mRingBufSize - mAddIndex) + (mGetIndex - 1) < length) {    // 1周をまたいでなおlength以上になる場合
-                                        addLen = (mRingBufSize - mAddIndex) + (mGetIndex - 1);        // 追い抜かないサイズに修正
+                int len = getBufferdLength();
+                if(len >= minLength || timeoutMs <= 0) {
+                        return len;
+                }
+                long deadline = SystemClock.uptimeMillis() + timeoutMs;
+                synchronized(mDataLock) {
+                        mDataWaiters++;
+                        try {
+                                while((len = getBufferdLength()) < minLength) {
+                                        long remain = deadline - SystemClock.uptimeMillis();
+                                        if(remain <= 0) {
+                                                break;
+                                        }
+                                        mDataLock.wait(remain);
                                 }
-                        }
-                } else if(mAddIndex < mGetIndex) { // 1周をまたいでいる場合
-                        if((mGetIndex - 1) - mAddIndex < length) {
-                                addLen = (mGetIndex - 1) - mAddIndex;
+                        } catch(InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                len = getBufferdLength();
+                        } finally {
+                                mDataWaiters--;
                         }
                 }
+                return len;
+        }
 
-                if(buf.length < addLen) {
-                        addLen = buf.length;
-                }
-
-                if((mAddIndex + addLen) >= mRingBufSize) { // storeがバッファ終端をまたぐ場合
-                        int remain = mAddIndex + addLen - mRingBufSize;
-                        int copyLen = addLen - remain;
-                        if(copyLen != 0) {
-                                System.arraycopy(buf, off, mRingBuf, mAddIndex, copyLen);
-                                if(DEBUG_SHOW_ADD) {
-                                        Log.d(TAG, "add(" + length + ") : copy buf[0:" + (copyLen - 1) + "] to mRingBuf[" + mAddIndex + ":" + (mAddIndex + copyLen - 1) + "]");
-                                }
+        private void signalSpace() {
+                if(mProducerWaiting) {
+                        synchronized(mSpaceLock) {
+                                mSpaceLock.notifyAll();
                         }
+                }
+        }
 
-                        mAddIndex = 0;
+        /**
+         * Free space for the producer. A marked position keeps its bytes.
+         */
+        private int getFreeLength() {
+                long tail = mMarkCount;
+                if(tail == NO_MARK) {
+                        tail = mGetCount;
+                }
+                return mRingBufSize - (int) (mAddCount - tail);
+        }
 
-                        if(remain != 0) {
-                                System.arraycopy(buf, copyLen+off, mRingBuf, mAddIndex, remain);
-                                if(DEBUG_SHOW_ADD) {
-                                        Log.d(TAG, "add(" + length + ") : copy buf[" + (copyLen) + ":" + (addLen - 1) + "] to mRingBuf[0:" + (remain - 1) + "]");
+        /**
+         * Copies from buf (at off) or, if buf is null, from the position of src
+         * @param nanos chunk timestamp to record, NO_TIMESTAMP : none
+         */
+        private int addInternal(byte[] buf, ByteBuffer src, int off, int length, long nanos) {
+                long add = mAddCount;
+                int free = getFreeLength();
+                if(free < length && mOverflowPolicy == OVERFLOW_DROP_OLDEST) {
+                        mMarkCount = NO_MARK;     // marked bytes are overwritten
+                        free = mRingBufSize - (int) (add - mGetCount);
+                        if(length > mRingBufSize) { // only the newest bytes fit
+                                int skip = length - mRingBufSize;  // counted by addFrom() as not added
+                                if(buf == null) {
+                                        src.position(src.position() + skip);
+                                } else {
+                                        off += skip;
                                 }
-                                mAddIndex = remain;
-                        }
-
-                        if(DEBUG_SHOW_ADD) {
-                                Log.d(TAG, "add(" + length + ") : addOffset = " + mAddIndex + ", getOffset = " + mGetIndex);
+                                length = mRingBufSize;
                         }
-
-                        return addLen;
-                } else {
-                        System.arraycopy(buf, 0, mRingBuf, mAddIndex, addLen);
-
-                        if(DEBUG_SHOW_ADD) {
-                                Log.d(TAG, "add(" + length + ") : copy buf[0:" + (addLen - 1) + "] to mRingBuf[" + mAddIndex + ":" + (mAddIndex + addLen - 1) + "]");
+                        if(free < length) {
+                                int discard = length - free;
+                                mGetCount += discard;     // called with the monitor held
+                                mDroppedBytes += discard;
+                                free += discard;
                         }
+                }
+                int addLen = length;
+                if(free < addLen) {
+                        addLen = free;        // never overtake the get index
+                }
+                if(addLen <= 0) {
+                        return 0;
+                }
 
-                        mAddIndex += addLen;
-
-                        if(DEBUG_SHOW_ADD) {
-                                Log.d(TAG, "add(" + length + ") : addOffset = " + mAddIndex + ", getOffset = " + mGetIndex);
+                int index = (int) (add % mRingBufSize);
+                int copyLen = mRingBufSize - index;
+                if(buf == null) {
+                        if(copyLen >= addLen) {
+                                src.get(mRingBuf, index, addLen);
+                        } else { // store wraps around the end of the buffer
+                                src.get(mRingBuf, index, copyLen);
+                                src.get(mRingBuf, 0, addLen - copyLen);
                         }
+                } else if(copyLen >= addLen) {
+                        System.arraycopy(buf, off, mRingBuf, index, addLen);
+                } else { // store wraps around the end of the buffer
+                        System.arraycopy(buf, off, mRingBuf, index, copyLen);
+                        System.arraycopy(buf, off + copyLen, mRingBuf, 0, addLen - copyLen);
+                }
+                if(nanos != NO_TIMESTAMP) {
+                        recordChunk(add, addLen, nanos);  // after the drop policy trimmed it
+                }
+                mAddCount = add + addLen; // publish after the data is in place
 
-                        return addLen;
+                if(DEBUG_SHOW_ADD) {
+                        Log.d(TAG, "add(" + length + ") : added " + addLen + ", addCount = " + mAddCount + ", getCount = " + mGetCount);
                 }
+                return addLen;
         }
 
         /**
@@ -212,73 +688,376 @@ public class RingBuffer {
          *
          * @return actually gotten length
          */
-        public synchronized int get(byte[] buf, int length) {
-                if(buf == null) {
+        public int get(byte[] buf, int length) {
+                return get(buf, 0, length);
+        }
+
+        /**
+         * Gets ring buffer to byte array with starting offset
+         *
+         * @param buf    byte array
+         * @param off    offset in buf to store from
+         * @param length gotten length
+         *
+         * @return actually gotten length
+         */
+        public int get(byte[] buf, int off, int length) {
+                if(buf == null || off < 0 || length <= 0) {
                         return 0;
                 }
-                int getLen = length;
-                if(mAddIndex == mGetIndex) {
+                if(buf.length - off < length) {
+                        length = buf.length - off;
+                }
+                return getTo(buf, null, off, length);
+        }
+
+        /**
+         * Gets ring buffer into the remaining space of a ByteBuffer.
+         * Wrap-around segments are copied straight into dst and its position
+         * is advanced by the gotten length.
+         *
+         * @param dst destination buffer
+         *
+         * @return actually gotten length
+         */
+        public int get(ByteBuffer dst) {
+                if(dst == null || !dst.hasRemaining()) {
                         return 0;
-                } else if(mGetIndex < mAddIndex) { // 通常
-                        if(mAddIndex - mGetIndex < length) {  // get要求サイズがバッファされているサイズより大きい場合
-                                getLen = mAddIndex - mGetIndex;     // 今バッファされているサイズを返す
-                        }
-                } else {// インデックスが1周をまたいでいる場合
-                        if(mAddIndex + (mRingBufSize - mGetIndex) < length) {     // get要求サイズがバッファされているサイズより大きい場合
-                                getLen = mAddIndex + (mRingBufSize - mGetIndex);    // 今バッファされているサイズを返す
-                        }
                 }
+                return getTo(null, dst, 0, dst.remaining());
+        }
 
-                if(buf.length < getLen) {
-                        getLen = buf.length;
+        /**
+         * Gets ring buffer to byte array together with the receive time of
+         * the first byte. Stops at the end of that byte's chunk, so each
+         * call returns bytes of one USB transfer and gaps between chunks
+         * stay visible.
+         * In lock-free mode this must be called from the single consumer.
+         *
+         * @param buf       byte array
+         * @param off       offset in buf to store from
+         * @param length    gotten length
+         * @param timestamp timestamp[0] receives System.nanoTime() of the
+         *                  first byte, or NO_TIMESTAMP if not recorded
+         *
+         * @return actually gotten length
+         */
+        public int getTimestamped(byte[] buf, int off, int length, long[] timestamp) {
+                if(useLock()) {
+                        synchronized(this) { // keeps lookup and get together for several consumers
+                                return getTimestampedInternal(buf, off, length, timestamp);
+                        }
                 }
+                return getTimestampedInternal(buf, off, length, timestamp);
+        }
 
-                if((mGetIndex + getLen) >= mRingBufSize) {
-                        int remain = mGetIndex + getLen - mRingBufSize;
-                        int copyLen = getLen - remain;
-                        if(copyLen != 0) {
-                                System.arraycopy(mRingBuf, mGetIndex, buf, 0, copyLen);
-                                if(DEBUG_SHOW_GET) {
-                                        Log.d(TAG, "get(" + length + ") : copy mRingBuf[" + mGetIndex + ":" + (mGetIndex + copyLen - 1) + "] to buf[0:" + (copyLen - 1) + "]");
+        private int getTimestampedInternal(byte[] buf, int off, int length, long[] timestamp) {
+                long nanos = NO_TIMESTAMP;
+                long[] starts = mChunkStart;
+                if(starts != null && length > 0) {
+                        long get = mGetCount;
+                        long seq = mChunkSeq;
+                        long r = mChunkReadSeq;
+                        if(seq - r >= CHUNK_HISTORY) {
+                                r = seq - CHUNK_HISTORY + 1;
+                        }
+                        while(r < seq) {
+                                int slot = (int) (r % CHUNK_HISTORY);
+                                long start = starts[slot];
+                                int len = mChunkLength[slot];
+                                long t = mChunkNanos[slot];
+                                if(mChunkSeq - r >= CHUNK_HISTORY) { // slot reused while reading
+                                        r = mChunkSeq - CHUNK_HISTORY + 1;
+                                        continue;
+                                }
+                                if(get < start) {        // bytes before this chunk have no record
+                                        length = (int) Math.min(length, start - get);
+                                        break;
+                                }
+                                if(get < start + len) {
+                                        nanos = t;
+                                        length = (int) Math.min(length, start + len - get);
+                                        break;
                                 }
+                                r++;
                         }
+                        mChunkReadSeq = r;
+                }
+                if(timestamp != null && timestamp.length > 0) {
+                        timestamp[0] = nanos;
+                }
+                return get(buf, off, length);
+        }
 
-                        mGetIndex = 0;
+        /**
+         * Copies buffered bytes to byte array without consuming them
+         *
+         * @param buf    byte array
+         * @param off    offset in buf to store from
+         * @param length peeked length
+         *
+         * @return actually peeked length
+         */
+        public int peek(byte[] buf, int off, int length) {
+                if(buf == null || off < 0 || length <= 0) {
+                        return 0;
+                }
+                if(buf.length - off < length) {
+                        length = buf.length - off;
+                }
+                return consume(OP_PEEK, (byte) 0, buf, null, off, length);
+        }
+
+        /**
+         * Discards buffered bytes without copying them
+         *
+         * @param length skipped length
+         *
+         * @return actually skipped length
+         */
+        public int skip(int length) {
+                if(length <= 0) {
+                        return 0;
+                }
+                int skipLen = consume(OP_SKIP, (byte) 0, null, null, 0, length);
+                if(skipLen > 0) {
+                        signalSpace();
+                }
+                return skipLen;
+        }
+
+        private int skipInternal(int length) {
+                long get = mGetCount;
+                int buffered = (int) (mAddCount - get);
+                if(buffered < length) {
+                        length = buffered;
+                }
+                mGetCount = get + length;
+                return length;
+        }
 
-                        if(remain != 0) {
-                                System.arraycopy(mRingBuf, mGetIndex, buf, copyLen, remain);
-                                if(DEBUG_SHOW_GET) {
-                                        Log.d(TAG, "get(" + length + ") : copy mRingBuf[0:" + (remain - 1) + "] to buf[" + copyLen + ":" + (remain - 1) + "]");
+        /**
+         * Marks the current get position. Gotten bytes stay in the buffer
+         * until reset() or unmark(), so a long-held mark reduces the space
+         * left for the producer.
+         */
+        public void mark() {
+                consume(OP_MARK, (byte) 0, null, null, 0, 0);
+        }
+
+        /**
+         * Returns to the marked position and removes the mark
+         *
+         * @return true : returned, false : no mark or the mark was overwritten
+         */
+        public boolean reset() {
+                return consume(OP_RESET, (byte) 0, null, null, 0, 0) > 0;
+        }
+
+        private boolean resetInternal() {
+                long mark = mMarkCount;
+                if(mark == NO_MARK) {
+                        return false;
+                }
+                mGetCount = mark;       // rewind before the producer may reuse the space
+                mMarkCount = NO_MARK;
+                return true;
+        }
+
+        /**
+         * Removes the mark and releases the marked bytes to the producer
+         */
+        public void unmark() {
+                mMarkCount = NO_MARK;
+                signalSpace();
+        }
+
+        /**
+         * Checks a mark is set
+         *
+         * @return true : marked, false : not marked
+         */
+        public boolean isMarked() {
+                return mMarkCount != NO_MARK;
+        }
+
+        /**
+         * Runs a consumer side operation, without the monitor when lock-free
+         * access is allowed and no resize is in progress
+         */
+        private int consume(int op, byte b, byte[] buf, ByteBuffer dst, int off, int length) {
+                if(!useLock()) {
+                        mConsumerBusy = true;
+                        try {
+                                if(!mResizePending) {
+                                        return consumeInternal(op, b, buf, dst, off, length);
                                 }
-                                mGetIndex = remain;
+                        } finally {
+                                mConsumerBusy = false;
                         }
+                }
+                synchronized(this) {
+                        return consumeInternal(op, b, buf, dst, off, length);
+                }
+        }
 
-                        if(DEBUG_SHOW_GET) {
-                                Log.d(TAG, "get(" + length + ") : addOffset = " + mAddIndex + ", getOffset = " + mGetIndex);
-                        }
-                        return getLen;
-                } else {
-                        System.arraycopy(mRingBuf, mGetIndex, buf, 0, getLen);
+        private int consumeInternal(int op, byte b, byte[] buf, ByteBuffer dst, int off, int length) {
+                switch(op) {
+                        case OP_GET:
+                                return getInternal(buf, dst, off, length, true);
+                        case OP_PEEK:
+                                return getInternal(buf, null, off, length, false);
+                        case OP_SKIP:
+                                return skipInternal(length);
+                        case OP_INDEX_OF:
+                                return indexOfInternal(b, mRingBufSize);
+                        case OP_GET_UNTIL:
+                                return getUntilInternal(b, buf, off, length);
+                        case OP_MARK:
+                                mMarkCount = mGetCount;
+                                return 0;
+                        case OP_RESET:
+                                return resetInternal() ? 1 : 0;
+                        case OP_CLEAR:
+                                mGetCount = mAddCount;
+                                mMarkCount = NO_MARK;
+                                return 0;
+                        default:
+                                return 0;
+                }
+        }
+
+        private int getTo(byte[] buf, ByteBuffer dst, int off, int length) {
+                int getLen = consume(OP_GET, (byte) 0, buf, dst, off, length);
+                if(getLen > 0) {
+                        signalSpace();
+                }
+                return getLen;
+        }
+
+        /**
+         * Finds a byte in the buffered data without consuming it.
+         * The scan runs directly over the ring storage, across the wrap point.
+         *
+         * @param b byte to find
+         *
+         * @return offset from the next byte to be gotten, -1 if not found
+         */
+        public int indexOf(byte b) {
+                return consume(OP_INDEX_OF, b, null, null, 0, 0);
+        }
 
-                        if(DEBUG_SHOW_GET) {
-                                Log.d(TAG, "get(" + length + ") : copy mRingBuf[" + mGetIndex + ":" + (mGetIndex + getLen - 1) + "] to buf[0:" + (getLen - 1) + "]");
+        private int indexOfInternal(byte b, int limit) {
+                long get = mGetCount;
+                int buffered = (int) (mAddCount - get);
+                if(buffered > limit) {
+                        buffered = limit;
+                }
+                int index = (int) (get % mRingBufSize);
+                int firstLen = mRingBufSize - index;
+                if(firstLen > buffered) {
+                        firstLen = buffered;
+                }
+                for(int i = 0; i < firstLen; i++) {
+                        if(mRingBuf[index + i] == b) {
+                                return i;
+                        }
+                }
+                for(int i = firstLen; i < buffered; i++) { // wrapped part
+                        if(mRingBuf[i - firstLen] == b) {
+                                return i;
                         }
+                }
+                return -1;
+        }
 
-                        mGetIndex += getLen;
+        /**
+         * Gets bytes up to and including a delimiter.
+         * If no delimiter is found within length bytes but length bytes (or a
+         * full ring) are buffered, those bytes are returned so an overlong
+         * frame cannot stall the buffer.
+         *
+         * @param delimiter delimiter byte e.g. '\n'
+         * @param buf       byte array
+         * @param off       offset in buf to store from
+         * @param length    maximum gotten length
+         *
+         * @return gotten length, 0 if no complete frame is buffered yet
+         */
+        public int getUntil(byte delimiter, byte[] buf, int off, int length) {
+                if(buf == null || off < 0 || length <= 0) {
+                        return 0;
+                }
+                if(buf.length - off < length) {
+                        length = buf.length - off;
+                }
+                int getLen = consume(OP_GET_UNTIL, delimiter, buf, null, off, length);
+                if(getLen > 0) {
+                        signalSpace();
+                }
+                return getLen;
+        }
+
+        private int getUntilInternal(byte delimiter, byte[] buf, int off, int length) {
+                int buffered = getBufferdLength();
+                int found = indexOfInternal(delimiter, length);
+                int getLen;
+                if(found >= 0) {
+                        getLen = found + 1;
+                } else if(buffered >= length || buffered >= mRingBufSize) {
+                        getLen = Math.min(buffered, length);
+                } else {
+                        return 0;
+                }
+                return getInternal(buf, null, off, getLen, true);
+        }
 
-                        if(DEBUG_SHOW_GET) {
-                                Log.d(TAG, "get(" + length + ") : addOffset = " + mAddIndex + ", getOffset = " + mGetIndex);
+        /**
+         * Copies to buf (at off) or, if buf is null, to the position of dst.
+         * The get index only moves if consume is true.
+         */
+        private int getInternal(byte[] buf, ByteBuffer dst, int off, int length, boolean consume) {
+                long get = mGetCount;
+                int buffered = (int) (mAddCount - get);
+                int getLen = length;
+                if(buffered < getLen) {
+                        getLen = buffered;    // return only what is buffered now
+                }
+                if(getLen <= 0) {
+                        return 0;
+                }
+
+                int index = (int) (get % mRingBufSize);
+                int copyLen = mRingBufSize - index;
+                if(buf == null) {
+                        if(copyLen >= getLen) {
+                                dst.put(mRingBuf, index, getLen);
+                        } else { // data wraps around the end of the buffer
+                                dst.put(mRingBuf, index, copyLen);
+                                dst.put(mRingBuf, 0, getLen - copyLen);
                         }
+                } else if(copyLen >= getLen) {
+                        System.arraycopy(mRingBuf, index, buf, off, getLen);
+                } else { // data wraps around the end of the buffer
+                        System.arraycopy(mRingBuf, index, buf, off, copyLen);
+                        System.arraycopy(mRingBuf, 0, buf, off + copyLen, getLen - copyLen);
+                }
+                if(consume) {
+                        mGetCount = get + getLen; // release the space after the copy
+                }
 
-                        return getLen;
+                if(DEBUG_SHOW_GET) {
+                        Log.d(TAG, "get(" + length + ") : got " + getLen + ", addCount = " + mAddCount + ", getCount = " + mGetCount);
                 }
+                return getLen;
         }
 
         /**
-         * Clear ring buffer
+         * Clear ring buffer.
+         * In lock-free mode this must be called from the consumer side.
          */
-        public synchronized void clear() {
-                mAddIndex = 0;
-                mGetIndex = 0;
+        public void clear() {
+                consume(OP_CLEAR, (byte) 0, null, null, 0, 0);
+                signalSpace();
         }
 }
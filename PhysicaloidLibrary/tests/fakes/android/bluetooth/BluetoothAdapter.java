@@ -0,0 +1,36 @@
+package android.bluetooth;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Test fake, no Bluetooth
+ */
+public class BluetoothAdapter {
+
+        public static BluetoothAdapter getDefaultAdapter() {
+                return null;
+        }
+
+        public BluetoothDevice getRemoteDevice(String address) {
+                return null;
+        }
+
+        public boolean isEnabled() {
+                return false;
+        }
+
+        public boolean cancelDiscovery() {
+                return true;
+        }
+
+        public BluetoothServerSocket listenUsingRfcommWithServiceRecord(String name, UUID uuid) throws IOException {
+                throw new IOException("no Bluetooth");
+        }
+
+        public Set<BluetoothDevice> getBondedDevices() {
+                return Collections.emptySet();
+        }
+}
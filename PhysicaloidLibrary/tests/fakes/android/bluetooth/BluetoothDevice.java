@@ -0,0 +1,26 @@
+package android.bluetooth;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Test fake
+ */
+public class BluetoothDevice {
+
+        public BluetoothSocket createRfcommSocketToServiceRecord(UUID uuid) throws IOException {
+                throw new IOException("no Bluetooth");
+        }
+
+        public BluetoothSocket createInsecureRfcommSocketToServiceRecord(UUID uuid) throws IOException {
+                throw new IOException("no Bluetooth");
+        }
+
+        public String getName() {
+                return null;
+        }
+
+        public String getAddress() {
+                return null;
+        }
+}
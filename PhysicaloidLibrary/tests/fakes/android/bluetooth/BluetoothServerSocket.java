@@ -0,0 +1,21 @@
+package android.bluetooth;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Test fake
+ */
+public class BluetoothServerSocket implements Closeable {
+
+        public BluetoothSocket accept() throws IOException {
+                throw new IOException("no Bluetooth");
+        }
+
+        public BluetoothSocket accept(int timeout) throws IOException {
+                throw new IOException("no Bluetooth");
+        }
+
+        public void close() throws IOException {
+        }
+}
@@ -0,0 +1,31 @@
+package android.bluetooth;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Test fake
+ */
+public class BluetoothSocket implements Closeable {
+
+        public void connect() throws IOException {
+                throw new IOException("no Bluetooth");
+        }
+
+        public void close() throws IOException {
+        }
+
+        public InputStream getInputStream() throws IOException {
+                throw new IOException("no Bluetooth");
+        }
+
+        public OutputStream getOutputStream() throws IOException {
+                throw new IOException("no Bluetooth");
+        }
+
+        public boolean isConnected() {
+                return false;
+        }
+}
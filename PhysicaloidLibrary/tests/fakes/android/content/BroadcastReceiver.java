@@ -0,0 +1,9 @@
+package android.content;
+
+/**
+ * Test fake
+ */
+public abstract class BroadcastReceiver {
+
+        public abstract void onReceive(Context context, Intent intent);
+}
@@ -0,0 +1,44 @@
+package android.content;
+
+import java.util.HashMap;
+
+/**
+ * Test fake, returns the given object as the USB service.
+ * sendBroadcast() delivers at once to the matching registered receivers.
+ */
+public class Context {
+
+        public static final String USB_SERVICE = "usb";
+        public static final String CONNECTIVITY_SERVICE = "connectivity";
+        private final Object mUsbService;
+        private final HashMap<BroadcastReceiver, IntentFilter> mReceivers = new HashMap<BroadcastReceiver, IntentFilter>();
+
+        public Context(Object usbService) {
+                mUsbService = usbService;
+        }
+
+        public Object getSystemService(String name) {
+                return USB_SERVICE.equals(name) ? mUsbService : null;
+        }
+
+        public Context getApplicationContext() {
+                return this;
+        }
+
+        public synchronized Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+                mReceivers.put(receiver, filter);
+                return null;
+        }
+
+        public synchronized void unregisterReceiver(BroadcastReceiver receiver) {
+                mReceivers.remove(receiver);
+        }
+
+        public synchronized void sendBroadcast(Intent intent) {
+                for(BroadcastReceiver receiver : mReceivers.keySet()) {
+                        if(mReceivers.get(receiver).hasAction(intent.getAction())) {
+                                receiver.onReceive(this, intent);
+                        }
+                }
+        }
+}
@@ -0,0 +1,17 @@
+package android.content;
+
+/**
+ * Test fake
+ */
+public class Intent {
+
+        private final String mAction;
+
+        public Intent(String action) {
+                mAction = action;
+        }
+
+        public String getAction() {
+                return mAction;
+        }
+}
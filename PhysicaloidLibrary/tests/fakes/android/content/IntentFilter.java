@@ -0,0 +1,19 @@
+package android.content;
+
+import java.util.ArrayList;
+
+/**
+ * Test fake
+ */
+public class IntentFilter {
+
+        private final ArrayList<String> mActions = new ArrayList<String>();
+
+        public void addAction(String action) {
+                mActions.add(action);
+        }
+
+        public boolean hasAction(String action) {
+                return mActions.contains(action);
+        }
+}
@@ -0,0 +1,14 @@
+package android.content.res;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Test fake, no assets
+ */
+public class AssetManager {
+
+        public InputStream open(String fileName) throws IOException {
+                throw new IOException(fileName);
+        }
+}
@@ -0,0 +1,66 @@
+package android.hardware.usb;
+
+/**
+ * Test fake
+ */
+public class UsbDevice {
+
+        private final String mName;
+        private final int mId;
+        private final int mVid;
+        private final int mPid;
+        private final UsbInterface[] mInterfaces;
+        private byte[] mRawDescriptors;
+
+        public UsbDevice(String name, int id, int vid, int pid, UsbInterface... interfaces) {
+                mName = name;
+                mId = id;
+                mVid = vid;
+                mPid = pid;
+                mInterfaces = interfaces;
+        }
+
+        public String getDeviceName() {
+                return mName;
+        }
+
+        public int getDeviceId() {
+                return mId;
+        }
+
+        public int getVendorId() {
+                return mVid;
+        }
+
+        public int getProductId() {
+                return mPid;
+        }
+
+        public String getSerialNumber() {
+                return "SN" + mId;
+        }
+
+        public int getInterfaceCount() {
+                return mInterfaces.length;
+        }
+
+        public UsbInterface getInterface(int index) {
+                return mInterfaces[index];
+        }
+
+        /**
+         * Sets what UsbDeviceConnection.getRawDescriptors() returns
+         */
+        public void setRawDescriptors(byte[] descriptors) {
+                mRawDescriptors = descriptors;
+        }
+
+        byte[] getRawDescriptors() {
+                return mRawDescriptors;
+        }
+
+        @Override
+        public String toString() {
+                return "UsbDevice[name=" + mName + "]";
+        }
+}
@@ -0,0 +1,184 @@
+package android.hardware.usb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Test fake. requestWait() returns the first request queued on this
+ * connection that completes, from any endpoint, as the real one does.
+ * Bulk and control transfers are counted; bulk OUT transfers are accepted
+ * whole and control IN transfers return setControlResponse() bytes.
+ */
+public class UsbDeviceConnection {
+
+        private final UsbDevice mDevice;
+        private final List<UsbRequest> mQueued = new ArrayList<UsbRequest>();
+        private final HashSet<Integer> mClaimed = new HashSet<Integer>();
+        private boolean mClosed;
+        private final List<Integer> mBulkOutSizes = new ArrayList<Integer>();
+        private int mControlTransfers;
+        private final List<int[]> mControlLog = new ArrayList<int[]>();
+        private byte[] mControlResponse = new byte[0];
+        private long mBulkOutNanos;
+        private long mBulkOutByteNanos;
+
+        UsbDeviceConnection(UsbDevice device) {
+                mDevice = device;
+        }
+
+        public UsbDevice getDevice() {
+                return mDevice;
+        }
+
+        public synchronized boolean claimInterface(UsbInterface intf, boolean force) {
+                if(mClosed) {
+                        return false;
+                }
+                mClaimed.add(intf.getId());
+                return true;
+        }
+
+        public synchronized boolean releaseInterface(UsbInterface intf) {
+                return mClaimed.remove(intf.getId());
+        }
+
+        public synchronized void close() {
+                mClosed = true;
+                mQueued.clear();
+                notifyAll();
+        }
+
+        public synchronized boolean isClosed() {
+                return mClosed;
+        }
+
+        public synchronized int getClaimedCount() {
+                return mClaimed.size();
+        }
+
+        public synchronized int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int length, int timeout) {
+                return bulkTransfer(endpoint, buffer, 0, length, timeout);
+        }
+
+        public synchronized int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int offset, int length, int timeout) {
+                if(mClosed) {
+                        return -1;
+                }
+                if(endpoint.getDirection() == UsbConstants.USB_DIR_IN) {
+                        return endpoint.transfer(java.nio.ByteBuffer.wrap(buffer, offset, length), length);
+                }
+                mBulkOutSizes.add(length);
+                long end = System.nanoTime() + mBulkOutNanos + length * mBulkOutByteNanos;
+                while(System.nanoTime() < end) {
+                        // busy, like a transfer on the bus
+                }
+                return length;
+        }
+
+        public synchronized int controlTransfer(int requestType, int request, int value, int index,
+                byte[] buffer, int length, int timeout) {
+                if(mClosed) {
+                        return -1;
+                }
+                mControlTransfers++;
+                mControlLog.add(new int[] {requestType, request, value, index});
+                if((requestType & UsbConstants.USB_DIR_IN) != 0 && buffer != null) {
+                        int len = Math.min(length, mControlResponse.length);
+                        System.arraycopy(mControlResponse, 0, buffer, 0, len);
+                        return len;
+                }
+                return length;
+        }
+
+        public byte[] getRawDescriptors() {
+                return mDevice.getRawDescriptors();
+        }
+
+        /**
+         * Sets the data control IN transfers return
+         */
+        public synchronized void setControlResponse(byte[] response) {
+                mControlResponse = response;
+        }
+
+        /**
+         * Sets the time each bulk OUT transfer takes, 0 by default
+         *
+         * @param nanos     fixed time per transfer
+         * @param byteNanos further time per byte
+         */
+        public synchronized void setBulkOutNanos(long nanos, long byteNanos) {
+                mBulkOutNanos = nanos;
+                mBulkOutByteNanos = byteNanos;
+        }
+
+        /**
+         * Gets the sizes of the bulk OUT transfers so far, zero-length ones included
+         */
+        public synchronized List<Integer> getBulkOutSizes() {
+                return new ArrayList<Integer>(mBulkOutSizes);
+        }
+
+        public synchronized int getControlTransfers() {
+                return mControlTransfers;
+        }
+
+        /**
+         * Gets requestType, request, value and index of each control transfer
+         */
+        public synchronized List<int[]> getControlLog() {
+                return new ArrayList<int[]>(mControlLog);
+        }
+
+        /**
+         * Clears the transfer counters
+         */
+        public synchronized void resetCounts() {
+                mBulkOutSizes.clear();
+                mControlTransfers = 0;
+                mControlLog.clear();
+        }
+
+        public String getSerial() {
+                return mDevice.getSerialNumber();
+        }
+
+        public synchronized UsbRequest requestWait() {
+                for(;;) {
+                        if(mClosed) {
+                                return null;
+                        }
+                        for(Iterator<UsbRequest> it = mQueued.iterator(); it.hasNext();) {
+                                UsbRequest request = it.next();
+                                if(request.complete()) {
+                                        it.remove();
+                                        return request;
+                                }
+                        }
+                        try {
+                                wait(5);
+                        } catch(InterruptedException e) {
+                                return null;
+                        }
+                }
+        }
+
+        synchronized boolean enqueue(UsbRequest request) {
+                if(mClosed) {
+                        return false;
+                }
+                mQueued.add(request);
+                notifyAll();
+                return true;
+        }
+
+        synchronized void dequeue(UsbRequest request) {
+                mQueued.remove(request);
+        }
+
+        synchronized void wake() {
+                notifyAll();
+        }
+}
@@ -0,0 +1,62 @@
+package android.hardware.usb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Test fake bulk endpoint. An IN endpoint sends the bytes given to
+ * setData() in order.
+ */
+public class UsbEndpoint {
+
+        private final int mAddress;
+        private final int mMaxPacketSize;
+        private byte[] mData = new byte[0];
+        private int mPos;
+
+        public UsbEndpoint(int address, int maxPacketSize) {
+                mAddress = address;
+                mMaxPacketSize = maxPacketSize;
+        }
+
+        public int getAddress() {
+                return mAddress;
+        }
+
+        public int getDirection() {
+                return mAddress & UsbConstants.USB_DIR_IN;
+        }
+
+        public int getType() {
+                return UsbConstants.USB_ENDPOINT_XFER_BULK;
+        }
+
+        public int getMaxPacketSize() {
+                return mMaxPacketSize;
+        }
+
+        public synchronized void setData(byte[] data) {
+                mData = data;
+                mPos = 0;
+        }
+
+        public synchronized byte[] getData() {
+                return mData;
+        }
+
+        /**
+         * Moves up to one packet into dst
+         *
+         * @return moved length, 0 if nothing is left
+         */
+        synchronized int transfer(ByteBuffer dst, int length) {
+                int len = Math.min(Math.min(length, dst.remaining()), Math.min(mMaxPacketSize, mData.length - mPos));
+                dst.put(mData, mPos, len);
+                mPos += len;
+                return len;
+        }
+
+        @Override
+        public String toString() {
+                return "UsbEndpoint[address=0x" + Integer.toHexString(mAddress) + "]";
+        }
+}
@@ -0,0 +1,36 @@
+package android.hardware.usb;
+
+/**
+ * Test fake
+ */
+public class UsbInterface {
+
+        private final int mId;
+        private final UsbEndpoint[] mEndpoints;
+
+        public UsbInterface(int id, UsbEndpoint... endpoints) {
+                mId = id;
+                mEndpoints = endpoints;
+        }
+
+        public int getId() {
+                return mId;
+        }
+
+        public int getInterfaceClass() {
+                return UsbConstants.USB_CLASS_VENDOR_SPEC;
+        }
+
+        public int getEndpointCount() {
+                return mEndpoints.length;
+        }
+
+        public UsbEndpoint getEndpoint(int index) {
+                return mEndpoints[index];
+        }
+
+        @Override
+        public String toString() {
+                return "UsbInterface[id=" + mId + "]";
+        }
+}
@@ -0,0 +1,55 @@
+package android.hardware.usb;
+
+import android.app.PendingIntent;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Test fake. Every device has permission; every openDevice() makes a new
+ * connection, as on Android.
+ */
+public class UsbManager {
+
+        public static final String ACTION_USB_DEVICE_ATTACHED = "android.hardware.usb.action.USB_DEVICE_ATTACHED";
+        public static final String ACTION_USB_DEVICE_DETACHED = "android.hardware.usb.action.USB_DEVICE_DETACHED";
+        private final HashMap<String, UsbDevice> mDevices = new HashMap<String, UsbDevice>();
+        private final List<UsbDeviceConnection> mConnections = new ArrayList<UsbDeviceConnection>();
+        private int mDeviceListCalls;
+
+        public synchronized void addDevice(UsbDevice device) {
+                mDevices.put(device.getDeviceName(), device);
+        }
+
+        public synchronized HashMap<String, UsbDevice> getDeviceList() {
+                mDeviceListCalls++;
+                return new HashMap<String, UsbDevice>(mDevices);
+        }
+
+        /**
+         * Gets how many times getDeviceList() was called
+         */
+        public synchronized int getDeviceListCalls() {
+                return mDeviceListCalls;
+        }
+
+        public boolean hasPermission(UsbDevice device) {
+                return true;
+        }
+
+        public void requestPermission(UsbDevice device, PendingIntent pi) {
+        }
+
+        public synchronized UsbDeviceConnection openDevice(UsbDevice device) {
+                UsbDeviceConnection connection = new UsbDeviceConnection(device);
+                mConnections.add(connection);
+                return connection;
+        }
+
+        /**
+         * Gets every connection opened so far
+         */
+        public synchronized List<UsbDeviceConnection> getConnections() {
+                return new ArrayList<UsbDeviceConnection>(mConnections);
+        }
+}
@@ -0,0 +1,63 @@
+package android.hardware.usb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Test fake
+ */
+public class UsbRequest {
+
+        private UsbDeviceConnection mConnection;
+        private UsbEndpoint mEndpoint;
+        private Object mClientData;
+        private ByteBuffer mBuffer;
+        private int mLength;
+        private volatile boolean mCancelled;
+
+        public boolean initialize(UsbDeviceConnection connection, UsbEndpoint endpoint) {
+                mConnection = connection;
+                mEndpoint = endpoint;
+                return true;
+        }
+
+        public UsbEndpoint getEndpoint() {
+                return mEndpoint;
+        }
+
+        public void setClientData(Object data) {
+                mClientData = data;
+        }
+
+        public Object getClientData() {
+                return mClientData;
+        }
+
+        public boolean queue(ByteBuffer buffer, int length) {
+                mBuffer = buffer;
+                mLength = length;
+                mCancelled = false;
+                return mConnection.enqueue(this);
+        }
+
+        public boolean cancel() {
+                mCancelled = true;
+                mConnection.wake();
+                return true;
+        }
+
+        public void close() {
+                mConnection.dequeue(this);
+        }
+
+        /**
+         * Completes the request if its endpoint has data or it was cancelled
+         *
+         * @return true : completed
+         */
+        boolean complete() {
+                if(mCancelled) {
+                        return true;
+                }
+                return mEndpoint.transfer(mBuffer, mLength) > 0;
+        }
+}
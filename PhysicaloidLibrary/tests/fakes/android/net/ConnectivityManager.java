@@ -0,0 +1,17 @@
+package android.net;
+
+/**
+ * Test fake, no network
+ */
+public class ConnectivityManager {
+
+        public static final int TYPE_WIFI = 1;
+
+        public NetworkInfo getNetworkInfo(int networkType) {
+                return null;
+        }
+
+        public NetworkInfo getActiveNetworkInfo() {
+                return null;
+        }
+}
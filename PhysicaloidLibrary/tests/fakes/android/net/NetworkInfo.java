@@ -0,0 +1,15 @@
+package android.net;
+
+/**
+ * Test fake
+ */
+public class NetworkInfo {
+
+        public boolean isConnected() {
+                return false;
+        }
+
+        public int getType() {
+                return 0;
+        }
+}
@@ -0,0 +1,12 @@
+package android.os;
+
+/**
+ * Test fake
+ */
+public class Build {
+
+        public static class VERSION {
+
+                public static final int SDK_INT = 33;
+        }
+}
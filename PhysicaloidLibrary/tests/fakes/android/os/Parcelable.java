@@ -0,0 +1,7 @@
+package android.os;
+
+/**
+ * Test fake
+ */
+public interface Parcelable {
+}
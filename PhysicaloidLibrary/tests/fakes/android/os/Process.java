@@ -0,0 +1,12 @@
+package android.os;
+
+/**
+ * Test fake
+ */
+public class Process {
+
+        public static final int THREAD_PRIORITY_FOREGROUND = -2;
+
+        public static void setThreadPriority(int priority) {
+        }
+}
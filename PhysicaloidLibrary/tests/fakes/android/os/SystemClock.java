@@ -0,0 +1,11 @@
+package android.os;
+
+/**
+ * Test fake
+ */
+public final class SystemClock {
+
+        public static long uptimeMillis() {
+                return System.nanoTime() / 1000000L;
+        }
+}
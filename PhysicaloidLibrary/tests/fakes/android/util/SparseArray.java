@@ -0,0 +1,61 @@
+package android.util;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Test fake backed by a TreeMap
+ */
+public class SparseArray<E> {
+
+        private final TreeMap<Integer, E> mMap = new TreeMap<Integer, E>();
+
+        public E get(int key) {
+                return mMap.get(key);
+        }
+
+        public E get(int key, E valueIfKeyNotFound) {
+                E value = mMap.get(key);
+                return value == null ? valueIfKeyNotFound : value;
+        }
+
+        public void put(int key, E value) {
+                mMap.put(key, value);
+        }
+
+        public void remove(int key) {
+                mMap.remove(key);
+        }
+
+        public void delete(int key) {
+                mMap.remove(key);
+        }
+
+        public int size() {
+                return mMap.size();
+        }
+
+        public int keyAt(int index) {
+                return new ArrayList<Integer>(mMap.keySet()).get(index);
+        }
+
+        public E valueAt(int index) {
+                return new ArrayList<E>(mMap.values()).get(index);
+        }
+
+        public int indexOfKey(int key) {
+                int i = 0;
+                for(Map.Entry<Integer, E> entry : mMap.entrySet()) {
+                        if(entry.getKey() == key) {
+                                return i;
+                        }
+                        i++;
+                }
+                return -1;
+        }
+
+        public void clear() {
+                mMap.clear();
+        }
+}
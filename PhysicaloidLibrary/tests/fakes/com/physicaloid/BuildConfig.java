@@ -0,0 +1,9 @@
+package com.physicaloid;
+
+/**
+ * Test fake of the generated BuildConfig
+ */
+public final class BuildConfig {
+
+        public static final boolean DEBUG = false;
+}
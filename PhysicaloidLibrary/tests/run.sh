@@ -0,0 +1,19 @@
+#!/bin/sh
+# Builds the plain-Java harnesses against the fake android classes in
+# tests/fakes and runs them. Needs only a JDK.
+#   run.sh        runs every *Test program, fails on the first failure
+#   run.sh bench  runs every *Benchmark program
+set -e
+cd "$(dirname "$0")"
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+javac -encoding UTF-8 -nowarn -d "$out" -sourcepath fakes:../src:src $(find src -name '*.java')
+suffix=Test
+if [ "$1" = bench ]; then
+    suffix=Benchmark
+fi
+for f in $(find src -name "*$suffix.java" | sort); do
+    class=$(echo "$f" | sed -e 's|^src/||' -e 's|\.java$||' -e 's|/|.|g')
+    echo "== $class"
+    java -cp "$out" "$class"
+done
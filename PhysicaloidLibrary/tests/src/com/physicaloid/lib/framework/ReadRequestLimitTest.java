@@ -0,0 +1,69 @@
+package com.physicaloid.lib.framework;
+
+import com.physicaloid.lib.usb.driver.uart.UartConfig;
+import com.physicaloid.misc.RingBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that with flow control the bytes requested from the device never
+ * exceed the free receive buffer space, and that one request can always
+ * be queued.
+ *
+ * Plain Java against fake android classes, run with tests/run.sh.
+ */
+public class ReadRequestLimitTest {
+
+        private static final int RING_SIZE = 1024;
+        private static final int REQUEST_SIZE = 256;
+
+        private static final List<String> sErrors = new ArrayList<String>();
+
+        public static void main(String[] args) {
+                BufferedSerial serial = new BufferedSerial(RING_SIZE);
+                byte[] data = new byte[RING_SIZE];
+
+                check("flow control off", Integer.MAX_VALUE, serial.getReadRequestLimit(REQUEST_SIZE));
+
+                serial.mConfig.flowControl = UartConfig.FLOW_CONTROL_RTS_CTS;
+                check("empty", RING_SIZE, serial.getReadRequestLimit(REQUEST_SIZE));
+                serial.mRing.add(data, RING_SIZE / 2);
+                check("half full", RING_SIZE / 2, serial.getReadRequestLimit(REQUEST_SIZE));
+                serial.mRing.add(data, RING_SIZE / 2 - 10);
+                check("less than a request free", REQUEST_SIZE, serial.getReadRequestLimit(REQUEST_SIZE));
+                serial.mRing.add(data, 10);
+                check("full", REQUEST_SIZE, serial.getReadRequestLimit(REQUEST_SIZE));
+
+                BufferedSerial small = new BufferedSerial(REQUEST_SIZE / 2);
+                small.mConfig.flowControl = UartConfig.FLOW_CONTROL_RTS_CTS;
+                check("ring smaller than a request", REQUEST_SIZE, small.getReadRequestLimit(REQUEST_SIZE));
+
+                if(!sErrors.isEmpty()) {
+                        for(String error : sErrors) {
+                                System.out.println("FAIL: " + error);
+                        }
+                        System.exit(1);
+                }
+                System.out.println("OK");
+        }
+
+        private static void check(String name, long expected, long actual) {
+                if(expected != actual) {
+                        sErrors.add(name + " : expected " + expected + ", got " + actual);
+                }
+        }
+
+        private static class BufferedSerial extends StubSerial {
+
+                private final RingBuffer mRing;
+
+                BufferedSerial(int size) {
+                        mRing = new RingBuffer(size);
+                }
+
+                @Override
+                protected RingBuffer getRingBuffer() {
+                        return mRing;
+                }
+        }
+}
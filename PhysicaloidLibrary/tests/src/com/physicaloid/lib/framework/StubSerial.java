@@ -0,0 +1,47 @@
+package com.physicaloid.lib.framework;
+
+import com.physicaloid.lib.usb.driver.uart.ReadLisener;
+import com.physicaloid.lib.usb.driver.uart.ReadListener;
+import com.physicaloid.lib.usb.driver.uart.UartConfig;
+
+/**
+ * A SerialCommunicator without a device: every call succeeds and does
+ * nothing, write() takes every byte. Tests override what they look at.
+ */
+@SuppressWarnings("deprecation")
+class StubSerial extends SerialCommunicator {
+
+        protected final UartConfig mConfig = new UartConfig();
+
+        StubSerial() {
+                super(null);
+        }
+
+        @Override public int write(byte[] buf, int size) { return size; }
+        @Override public boolean open() { return true; }
+        @Override public boolean close() { return true; }
+        @Override public int read(byte[] buf, int size) { return 0; }
+        @Override public boolean isOpened() { return true; }
+        @Override public boolean setUartConfig(UartConfig config) { return true; }
+        @Override public boolean setBaudrate(int baudrate) { return true; }
+        @Override public boolean setDataBits(int dataBits) { return true; }
+        @Override public boolean setParity(int parity) { return true; }
+        @Override public boolean setStopBits(int stopBits) { return true; }
+        @Override public boolean setDtrRts(boolean dtrOn, boolean rtsOn) { return true; }
+        @Override public UartConfig getUartConfig() { return mConfig; }
+        @Override public int getBaudrate() { return 0; }
+        @Override public int getDataBits() { return 0; }
+        @Override public int getParity() { return 0; }
+        @Override public int getStopBits() { return 0; }
+        @Override public boolean getDtr() { return false; }
+        @Override public boolean getRts() { return false; }
+        @Override public void addReadListener(ReadListener listener) { }
+        @Override public void addReadListener(ReadLisener listener) { }
+        @Override public void clearReadListener() { }
+        @Override public void startReadListener() { }
+        @Override public void stopReadListener() { }
+        @Override public void clearBuffer() { }
+        @Override public String getPhysicalConnectionName() { return "stub"; }
+        @Override public int getPhysicalConnectionType() { return 0; }
+        @Override public void setDebug(boolean flag) { }
+}
@@ -0,0 +1,145 @@
+package com.physicaloid.lib.framework;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts the transfers of many 1-byte writes through the coalescer, once
+ * flushed by the threshold and once by the deadline, and checks that a
+ * short write sends the rest of the pending bytes instead of losing them.
+ *
+ * Plain Java against fake android classes, run with tests/run.sh.
+ */
+public class WriteCoalescerTest {
+
+        private static final int WRITES = 1000;
+        private static final int THRESHOLD = 64;
+        private static final int DEADLINE_MS = 20;
+
+        private static final List<String> sErrors = new ArrayList<String>();
+
+        public static void main(String[] args) throws InterruptedException {
+                threshold();
+                deadline();
+                shortWrite();
+                failedWrite();
+
+                if(!sErrors.isEmpty()) {
+                        for(String error : sErrors) {
+                                System.out.println("FAIL: " + error);
+                        }
+                        System.exit(1);
+                }
+                System.out.println("OK: " + WRITES + " 1-byte writes, threshold " + THRESHOLD);
+        }
+
+        /**
+         * Without a deadline every transfer is one full threshold
+         */
+        private static void threshold() {
+                RecordingSerial serial = new RecordingSerial(Integer.MAX_VALUE);
+                WriteCoalescer coalescer = new WriteCoalescer(serial, new Object(), THRESHOLD, 0);
+                writeBytes(coalescer);
+                check("threshold transfers before flush", WRITES / THRESHOLD, serial.mTransfers);
+                coalescer.close();
+                check("threshold transfers", (WRITES + THRESHOLD - 1) / THRESHOLD, serial.mTransfers);
+                checkData("threshold", serial);
+        }
+
+        /**
+         * Bytes written slower than the threshold fills are sent by the
+         * deadline, in far fewer transfers than writes
+         */
+        private static void deadline() throws InterruptedException {
+                RecordingSerial serial = new RecordingSerial(Integer.MAX_VALUE);
+                WriteCoalescer coalescer = new WriteCoalescer(serial, new Object(), WRITES, DEADLINE_MS);
+                byte[] one = new byte[1];
+                for(int i = 0; i < WRITES; i++) {
+                        one[0] = (byte) i;
+                        coalescer.write(one, 1);
+                        if(i % 100 == 99) {
+                                Thread.sleep(2 * DEADLINE_MS);
+                        }
+                }
+                Thread.sleep(2 * DEADLINE_MS);
+                check("deadline pending", 0, coalescer.getPending());
+                if(serial.mTransfers < WRITES / 100 || serial.mTransfers > 2 * WRITES / 100) {
+                        sErrors.add("deadline transfers : expected about " + WRITES / 100 + ", got " + serial.mTransfers);
+                }
+                coalescer.close();
+                checkData("deadline", serial);
+        }
+
+        /**
+         * A communicator taking fewer bytes than asked gets the rest in
+         * further transfers
+         */
+        private static void shortWrite() {
+                RecordingSerial serial = new RecordingSerial(THRESHOLD / 4);
+                WriteCoalescer coalescer = new WriteCoalescer(serial, new Object(), THRESHOLD, 0);
+                writeBytes(coalescer);
+                check("short write flush", WRITES % THRESHOLD, coalescer.close());
+                checkData("short write", serial);
+        }
+
+        /**
+         * A transfer that takes nothing is reported
+         */
+        private static void failedWrite() {
+                RecordingSerial serial = new RecordingSerial(0);
+                WriteCoalescer coalescer = new WriteCoalescer(serial, new Object(), THRESHOLD, 0);
+                coalescer.write(new byte[1], 1);
+                check("failed flush", -1, coalescer.flush());
+        }
+
+        private static void writeBytes(WriteCoalescer coalescer) {
+                byte[] one = new byte[1];
+                for(int i = 0; i < WRITES; i++) {
+                        one[0] = (byte) i;
+                        if(coalescer.write(one, 1) != 1) {
+                                sErrors.add("write " + i + " not accepted");
+                                return;
+                        }
+                }
+        }
+
+        private static void checkData(String name, RecordingSerial serial) {
+                byte[] data = serial.mData.toByteArray();
+                check(name + " bytes", WRITES, data.length);
+                for(int i = 0; i < data.length; i++) {
+                        if(data[i] != (byte) i) {
+                                sErrors.add(name + " wrong byte at " + i);
+                                return;
+                        }
+                }
+        }
+
+        private static void check(String name, long expected, long actual) {
+                if(expected != actual) {
+                        sErrors.add(name + " : expected " + expected + ", got " + actual);
+                }
+        }
+
+        /**
+         * Records the written bytes, taking at most limit bytes per transfer
+         */
+        private static class RecordingSerial extends StubSerial {
+
+                private final int mLimit;
+                private final ByteArrayOutputStream mData = new ByteArrayOutputStream();
+                private int mTransfers;
+
+                RecordingSerial(int limit) {
+                        mLimit = limit;
+                }
+
+                @Override
+                public int write(byte[] buf, int size) {
+                        int len = size < mLimit ? size : mLimit;
+                        mData.write(buf, 0, len);
+                        mTransfers++;
+                        return len;
+                }
+        }
+}
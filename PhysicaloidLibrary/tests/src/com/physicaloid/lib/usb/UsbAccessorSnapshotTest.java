@@ -0,0 +1,76 @@
+package com.physicaloid.lib.usb;
+
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that device lookups read UsbManager.getDeviceList() once and
+ * then use the snapshot until invalidate() or an attach/detach broadcast.
+ *
+ * Plain Java against fake android classes, run with tests/run.sh.
+ */
+public class UsbAccessorSnapshotTest {
+
+        private static final int LOOKUPS = 1000;
+
+        private static final List<String> sErrors = new ArrayList<String>();
+
+        public static void main(String[] args) {
+                UsbManager manager = new UsbManager();
+                manager.addDevice(device(2, 0x6001));
+                manager.addDevice(device(3, 0x6015));
+                Context context = new Context(manager);
+                UsbAccessor usb = UsbAccessor.INSTANCE;
+                usb.init(context);
+                check("calls after init", 0, manager.getDeviceListCalls());
+
+                lookups(usb, "first lookups", 1);
+                check("calls after lookups", 1, manager.getDeviceListCalls());
+
+                manager.addDevice(device(4, 0x6001));
+                check("devices before invalidate", 1, usb.findDevices(0x0403, 0x6001).length);
+                usb.invalidate();
+                check("devices after invalidate", 2, usb.findDevices(0x0403, 0x6001).length);
+                lookups(usb, "lookups after invalidate", 2);
+                check("calls after invalidate", 2, manager.getDeviceListCalls());
+
+                context.sendBroadcast(new Intent(UsbManager.ACTION_USB_DEVICE_DETACHED));
+                lookups(usb, "lookups after detach", 2);
+                check("calls after detach", 3, manager.getDeviceListCalls());
+
+                if(!sErrors.isEmpty()) {
+                        for(String error : sErrors) {
+                                System.out.println("FAIL: " + error);
+                        }
+                        System.exit(1);
+                }
+                System.out.println("OK: " + 3 * LOOKUPS + " lookups, " + manager.getDeviceListCalls() + " device list reads");
+        }
+
+        private static void lookups(UsbAccessor usb, String name, int expected) {
+                for(int i = 0; i < LOOKUPS; i++) {
+                        int found = usb.findDevices(0x0403, 0x6001).length;
+                        if(found != expected) {
+                                sErrors.add(name + " : expected " + expected + " devices, got " + found);
+                                return;
+                        }
+                }
+        }
+
+        private static UsbDevice device(int address, int pid) {
+                return new UsbDevice("/dev/bus/usb/001/00" + address, address, 0x0403, pid,
+                        new UsbInterface(0, new UsbEndpoint(0x81, 64), new UsbEndpoint(0x02, 64)));
+        }
+
+        private static void check(String name, long expected, long actual) {
+                if(expected != actual) {
+                        sErrors.add(name + " : expected " + expected + ", got " + actual);
+                }
+        }
+}
@@ -0,0 +1,223 @@
+package com.physicaloid.lib.usb.driver.uart;
+
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+import android.hardware.usb.UsbRequest;
+import com.physicaloid.lib.usb.UsbAccessor;
+import com.physicaloid.misc.RingBuffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens, streams and closes every port of many virtual multi-port devices
+ * at once through UsbAccessor and UsbReadRequests, the way the UART
+ * drivers do, and checks that no port loses, reorders or receives another
+ * port's data and that closing one port leaves the others streaming.
+ *
+ * Plain Java against fake android classes, run with tests/run.sh.
+ */
+public class MultiPortStreamTest {
+
+        private static final int DEVICES = 8;
+        private static final int PORTS = 4;
+        private static final int BASE_LENGTH = 20000;
+        private static final int PACKET_SIZE = 64;
+        private static final int REQUEST_COUNT = 4;
+        private static final long TIMEOUT_MS = 20000;
+
+        private static final ConcurrentLinkedQueue<String> sErrors = new ConcurrentLinkedQueue<String>();
+
+        public static void main(String[] args) throws Exception {
+                UsbManager manager = new UsbManager();
+                for(int d = 0; d < DEVICES; d++) {
+                        UsbInterface[] intfs = new UsbInterface[PORTS];
+                        for(int p = 0; p < PORTS; p++) {
+                                UsbEndpoint in = new UsbEndpoint(0x81 + 2 * p, PACKET_SIZE);
+                                in.setData(pattern(d, p, BASE_LENGTH + (d * PORTS + p) * 1531));
+                                intfs[p] = new UsbInterface(p, in, new UsbEndpoint(0x02 + 2 * p, PACKET_SIZE));
+                        }
+                        manager.addDevice(new UsbDevice("/dev/bus/usb/001/" + (d + 2), 1000 + d, 0x0403, 0x6011, intfs));
+                }
+                UsbAccessor usb = UsbAccessor.INSTANCE;
+                usb.init(new Context(manager));
+
+                streamAllPorts(usb);
+                closeUnblocksReader(usb, manager);
+                openAfterInvalidate(usb, manager);
+
+                for(UsbDevice device : usb.getDevices()) {
+                        int open = usb.openChannels(device);
+                        if(open != 0) {
+                                sErrors.add(device + " still has " + open + " channels");
+                        }
+                }
+                for(UsbDeviceConnection connection : manager.getConnections()) {
+                        if(!connection.isClosed() || connection.getClaimedCount() != 0) {
+                                sErrors.add("connection of " + connection.getDevice() + " left open");
+                        }
+                }
+
+                if(!sErrors.isEmpty()) {
+                        for(String error : sErrors) {
+                                System.out.println("FAIL: " + error);
+                        }
+                        System.exit(1);
+                }
+                System.out.println("OK: " + DEVICES * PORTS + " ports, " + manager.getConnections().size() + " connections");
+        }
+
+        /**
+         * One thread per port opens, streams all its data and closes.
+         * Ports have different lengths, so ports close while others stream.
+         */
+        private static void streamAllPorts(final UsbAccessor usb) throws InterruptedException {
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Thread> threads = new ArrayList<Thread>();
+                for(final UsbDevice device : usb.getDevices()) {
+                        for(int intfNum = 0; intfNum < device.getInterfaceCount(); intfNum++) {
+                                final int i = intfNum;
+                                final int key = (device.getDeviceId() << 8) | intfNum;
+                                Thread t = new Thread(new Runnable() {
+
+                                        @Override
+                                        public void run() {
+                                                try {
+                                                        start.await();
+                                                        streamPort(usb, device, i, key);
+                                                } catch(InterruptedException e) {
+                                                        sErrors.add("port " + key + " interrupted");
+                                                }
+                                        }
+                                });
+                                t.start();
+                                threads.add(t);
+                        }
+                }
+                start.countDown();
+                for(Thread t : threads) {
+                        t.join(TIMEOUT_MS);
+                        if(t.isAlive()) {
+                                sErrors.add("port thread did not finish");
+                        }
+                }
+        }
+
+        private static void streamPort(UsbAccessor usb, UsbDevice device, int intfNum, int key) {
+                if(!usb.openDevice(device, intfNum, key)) {
+                        sErrors.add("port " + key + " cannot open");
+                        return;
+                }
+                UsbDeviceConnection connection = usb.connection(key);
+                UsbEndpoint in = usb.endpoint(device, intfNum, 0);
+                byte[] expected = in.getData();
+                RingBuffer ring = new RingBuffer(1024);
+                UsbReadRequests requests = new UsbReadRequests(connection, in, REQUEST_COUNT, PACKET_SIZE);
+                byte[] got = new byte[256];
+                int received = 0;
+                long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+                // same steps as a driver's read loop
+                while(received < expected.length && System.currentTimeMillis() < deadline) {
+                        if(requests.queueAll() > 0) {
+                                UsbRequest response = connection.requestWait();
+                                synchronized(requests) {
+                                        ByteBuffer buf = requests.complete(response);
+                                        if(buf != null && buf.position() > 0) {
+                                                buf.flip();
+                                                ring.add(buf, System.nanoTime());
+                                        }
+                                }
+                        }
+                        int len;
+                        while((len = ring.get(got, 0, got.length)) > 0) {
+                                for(int k = 0; k < len; k++) {
+                                        if(received + k >= expected.length || got[k] != expected[received + k]) {
+                                                sErrors.add("port " + key + " wrong byte at " + (received + k));
+                                                received = expected.length;
+                                                break;
+                                        }
+                                }
+                                received += len;
+                        }
+                }
+                if(received < expected.length) {
+                        sErrors.add("port " + key + " got " + received + " of " + expected.length + " bytes");
+                }
+                requests.close();
+                if(!usb.close(key)) {
+                        sErrors.add("port " + key + " cannot close");
+                }
+        }
+
+        /**
+         * A reader waiting on a port with no data returns when the port is
+         * closed, while another port of the same device stays open
+         */
+        private static void closeUnblocksReader(UsbAccessor usb, UsbManager manager) throws InterruptedException {
+                final UsbDevice device = usb.getDevices()[0];
+                final int idle = (device.getDeviceId() << 8) | 0;
+                final int other = (device.getDeviceId() << 8) | 1;
+                if(!usb.openDevice(device, 0, idle) || !usb.openDevice(device, 1, other)) {
+                        sErrors.add("cannot reopen " + device);
+                        return;
+                }
+                if(usb.openDevice(device, 0, idle + 0x10000)) {
+                        sErrors.add("interface claimed by two channels");
+                }
+                final UsbDeviceConnection connection = usb.connection(idle);
+                final UsbReadRequests requests = new UsbReadRequests(connection, usb.endpoint(device, 0, 0), REQUEST_COUNT, PACKET_SIZE);
+                final CountDownLatch done = new CountDownLatch(1);
+                new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                                requests.queueAll();
+                                if(connection.requestWait() != null) {
+                                        sErrors.add("idle port completed a request");
+                                }
+                                requests.close();
+                                done.countDown();
+                        }
+                }).start();
+                Thread.sleep(50);
+                usb.close(idle);
+                if(!done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        sErrors.add("reader still blocked after close");
+                }
+                if(usb.connection(other) == null || usb.openChannels(device) != 1) {
+                        sErrors.add("closing one port closed the other");
+                }
+                usb.close(other);
+        }
+
+        /**
+         * A device taken before the snapshot is dropped still opens that
+         * device, whatever its index is in the new snapshot
+         */
+        private static void openAfterInvalidate(UsbAccessor usb, UsbManager manager) {
+                UsbDevice device = usb.getDevices()[DEVICES - 1];
+                manager.addDevice(new UsbDevice("/dev/bus/usb/001/99", 999, 0x0403, 0x6011,
+                        new UsbInterface(0, new UsbEndpoint(0x81, PACKET_SIZE))));
+                usb.invalidate();
+                int key = (device.getDeviceId() << 8) | 0;
+                if(!usb.openDevice(device, 0, key) || usb.connection(key).getDevice() != device) {
+                        sErrors.add("opened another device than " + device);
+                }
+                usb.close(key);
+        }
+
+        private static byte[] pattern(int device, int port, int length) {
+                byte[] data = new byte[length];
+                for(int i = 0; i < length; i++) {
+                        data[i] = (byte) (i * 31 + (i >> 8) + device * 7 + port * 61);
+                }
+                return data;
+        }
+}
@@ -0,0 +1,85 @@
+package com.physicaloid.lib.usb.driver.uart;
+
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+import com.physicaloid.lib.usb.UsbAccessor;
+import com.physicaloid.lib.usb.UsbVidPid;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks where UartFtdi.setBaudrate() puts the high divisor bit in wIndex
+ * for each chip family, read from bcdDevice of the device descriptor.
+ *
+ * Plain Java against fake android classes, run with tests/run.sh.
+ */
+public class UartFtdiBaudrateTest {
+
+        private static final int PACKET_SIZE = 64;
+        private static final int FTDI_SIO_SET_BAUD_RATE = 0x03;
+        // 24 MHz / 83: divisor 10 + 3/8, whose fraction code sets the high divisor bit
+        private static final int BAUDRATE = 289157;
+
+        private static final List<String> sErrors = new ArrayList<String>();
+
+        public static void main(String[] args) {
+                UsbManager manager = new UsbManager();
+                manager.addDevice(device(2, 0x6001, 0x0600));   // FT232R
+                manager.addDevice(device(3, 0x6015, 0x1000));   // FT230X
+                UsbAccessor.INSTANCE.init(new Context(manager));
+
+                // older single port chips take the bit in bit 0 of wIndex
+                check("FT232R", manager, 0x6001, 0x0001);
+                // single port chip: the bit moves to the upper byte, no port
+                check("FT230X", manager, 0x6015, 0x0100);
+
+                if(!sErrors.isEmpty()) {
+                        for(String error : sErrors) {
+                                System.out.println("FAIL: " + error);
+                        }
+                        System.exit(1);
+                }
+                System.out.println("OK");
+        }
+
+        private static UsbDevice device(int address, int pid, int bcdDevice) {
+                UsbDevice device = new UsbDevice("/dev/bus/usb/001/00" + address, address, 0x0403, pid,
+                        new UsbInterface(0, new UsbEndpoint(0x81, PACKET_SIZE), new UsbEndpoint(0x02, PACKET_SIZE)));
+                byte[] desc = new byte[18];
+                desc[0] = 18;
+                desc[1] = 1;
+                desc[12] = (byte) bcdDevice;
+                desc[13] = (byte) (bcdDevice >> 8);
+                device.setRawDescriptors(desc);
+                return device;
+        }
+
+        private static void check(String chip, UsbManager manager, int pid, int expectedIndex) {
+                UartFtdi ftdi = new UartFtdi(new Context(manager), 0);
+                if(!ftdi.open(new UsbVidPid(0x0403, pid))) {
+                        sErrors.add(chip + " cannot open");
+                        return;
+                }
+                List<UsbDeviceConnection> connections = manager.getConnections();
+                UsbDeviceConnection connection = connections.get(connections.size() - 1);
+                connection.resetCounts();
+                if(!ftdi.setBaudrate(BAUDRATE)) {
+                        sErrors.add(chip + " setBaudrate failed");
+                }
+                ftdi.close();
+                for(int[] control : connection.getControlLog()) {
+                        if(control[1] == FTDI_SIO_SET_BAUD_RATE) {
+                                if(control[3] != expectedIndex) {
+                                        sErrors.add(chip + " wIndex : expected " + String.format("0x%04X", expectedIndex)
+                                                + ", got " + String.format("0x%04X", control[3]));
+                                }
+                                return;
+                        }
+                }
+                sErrors.add(chip + " sent no SET_BAUD_RATE");
+        }
+}
@@ -0,0 +1,73 @@
+package com.physicaloid.lib.usb.driver.uart;
+
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+import com.physicaloid.lib.framework.SerialCommunicator;
+import com.physicaloid.lib.usb.UsbAccessor;
+import com.physicaloid.lib.usb.UsbVidPid;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts the USB round trips of UartFtdi.write() in the conservative
+ * 8250-style mode, one modem status poll and one 1-byte transfer per byte,
+ * and in the bulk mode, one transfer per chunk.
+ *
+ * Plain Java against fake android classes, run with tests/run.sh.
+ */
+public class UartFtdiWriteTest {
+
+        private static final int PACKET_SIZE = 64;
+        private static final int SIZE = 1000;
+        private static final byte FTDI_RS_THRE_TEMT = 0x60;
+
+        private static final List<String> sErrors = new ArrayList<String>();
+
+        public static void main(String[] args) {
+                UsbManager manager = new UsbManager();
+                manager.addDevice(new UsbDevice("/dev/bus/usb/001/002", 1, 0x0403, 0x6001,
+                        new UsbInterface(0, new UsbEndpoint(0x81, PACKET_SIZE), new UsbEndpoint(0x02, PACKET_SIZE))));
+                Context context = new Context(manager);
+                UsbAccessor.INSTANCE.init(context);
+
+                UartFtdi ftdi = new UartFtdi(context, 0);
+                if(!ftdi.open(new UsbVidPid(0x0403, 0))) {
+                        System.out.println("FAIL: cannot open");
+                        System.exit(1);
+                }
+                UsbDeviceConnection connection = manager.getConnections().get(0);
+                connection.setControlResponse(new byte[] {0x01, FTDI_RS_THRE_TEMT});
+                byte[] data = new byte[SIZE];
+
+                connection.resetCounts();
+                check("conservative written", SIZE, ftdi.write(data, SIZE));
+                int conservative = connection.getBulkOutSizes().size() + connection.getControlTransfers();
+                check("conservative round trips", 2 * SIZE, conservative);
+
+                ftdi.setWriteMode(SerialCommunicator.WRITE_MODE_BULK);
+                connection.resetCounts();
+                check("bulk written", SIZE, ftdi.write(data, SIZE));
+                int chunk = SerialCommunicator.WRITE_CHUNK_PACKETS_DEFAULT * PACKET_SIZE;
+                int bulk = connection.getBulkOutSizes().size() + connection.getControlTransfers();
+                check("bulk round trips", (SIZE + chunk - 1) / chunk, bulk);
+                ftdi.close();
+
+                if(!sErrors.isEmpty()) {
+                        for(String error : sErrors) {
+                                System.out.println("FAIL: " + error);
+                        }
+                        System.exit(1);
+                }
+                System.out.println("OK: " + SIZE + " bytes, conservative " + conservative + " round trips, bulk " + bulk);
+        }
+
+        private static void check(String name, long expected, long actual) {
+                if(expected != actual) {
+                        sErrors.add(name + " : expected " + expected + ", got " + actual);
+                }
+        }
+}
@@ -0,0 +1,48 @@
+package com.physicaloid.lib.usb.driver.uart;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+
+/**
+ * Writes the same data through UsbBulkOut.write() with chunks of 1 to 256
+ * max packets and reports the throughput of each. Every fake transfer
+ * costs a fixed time, standing for the submit and completion round trip
+ * of a real one, plus the bus time of its bytes, so the figures show how
+ * the chunk size spreads the fixed cost.
+ *
+ * Plain Java against fake android classes, run with tests/run.sh bench.
+ */
+public class UsbBulkOutBenchmark {
+
+        private static final int PACKET_SIZE = 512;
+        private static final int[] CHUNK_PACKETS = {1, 4, 16, 64, 256};
+        private static final int TOTAL = 4 * 1024 * 1024;
+        private static final long TRANSFER_NANOS = 125000;     // one high-speed microframe
+        private static final long BYTE_NANOS = 25;              // about 40 MB/s of bulk data
+        private static final int TIMEOUT = 100;
+
+        public static void main(String[] args) {
+                UsbEndpoint out = new UsbEndpoint(0x02, PACKET_SIZE);
+                UsbManager manager = new UsbManager();
+                UsbDeviceConnection connection = manager.openDevice(
+                        new UsbDevice("/dev/bus/usb/001/002", 1, 0x0403, 0x6010, new UsbInterface(0, out)));
+                connection.setBulkOutNanos(TRANSFER_NANOS, BYTE_NANOS);
+                byte[] buf = new byte[TOTAL];
+
+                for(int packets : CHUNK_PACKETS) {
+                        int chunk = packets * PACKET_SIZE;
+                        connection.resetCounts();
+                        long start = System.nanoTime();
+                        int written = UsbBulkOut.write(connection, out, buf, 0, TOTAL, chunk, TIMEOUT, true);
+                        long nanos = System.nanoTime() - start;
+                        if(written != TOTAL) {
+                                throw new IllegalStateException("wrote " + written + " of " + TOTAL);
+                        }
+                        System.out.println("chunk " + chunk + " : " + connection.getBulkOutSizes().size() + " transfers, "
+                                + ((long) TOTAL * 1000000000L / nanos / (1024 * 1024)) + " MB/s");
+                }
+        }
+}
@@ -0,0 +1,72 @@
+package com.physicaloid.lib.usb.driver.uart;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the transfer sizes of UsbBulkOut.write() and that exactly one
+ * zero-length packet follows data ending on a packet boundary.
+ *
+ * Plain Java against fake android classes, run with tests/run.sh.
+ */
+public class UsbBulkOutTest {
+
+        private static final int PACKET_SIZE = 64;
+        private static final int CHUNK = 4 * PACKET_SIZE;
+        private static final int TIMEOUT = 100;
+
+        private static final List<String> sErrors = new ArrayList<String>();
+
+        public static void main(String[] args) {
+                UsbEndpoint out = new UsbEndpoint(0x02, PACKET_SIZE);
+                UsbManager manager = new UsbManager();
+                UsbDeviceConnection connection = manager.openDevice(
+                        new UsbDevice("/dev/bus/usb/001/002", 1, 0x0403, 0x6001, new UsbInterface(0, out)));
+                byte[] buf = new byte[4 * CHUNK];
+
+                // unaligned: full chunks, then the short rest, no zero-length packet
+                check(connection, out, buf, 0, 2 * CHUNK + 10, true, CHUNK, CHUNK, 10);
+                // ends on a packet boundary inside a chunk: one zero-length packet
+                check(connection, out, buf, 0, CHUNK + 3 * PACKET_SIZE, true, CHUNK, 3 * PACKET_SIZE, 0);
+                // ends on a chunk boundary, from an offset: one zero-length packet
+                check(connection, out, buf, 7, 2 * CHUNK, true, CHUNK, CHUNK, 0);
+                // aligned without zlp: none
+                check(connection, out, buf, 0, 2 * CHUNK, false, CHUNK, CHUNK);
+                // shorter than a packet
+                check(connection, out, buf, 0, 1, true, 1);
+                // nothing to send: no transfer at all
+                check(connection, out, buf, 0, 0, true);
+
+                if(!sErrors.isEmpty()) {
+                        for(String error : sErrors) {
+                                System.out.println("FAIL: " + error);
+                        }
+                        System.exit(1);
+                }
+                System.out.println("OK");
+        }
+
+        private static void check(UsbDeviceConnection connection, UsbEndpoint out, byte[] buf, int off, int size,
+                boolean zlp, int... expected) {
+                connection.resetCounts();
+                String name = "size " + size + " off " + off + (zlp ? " zlp" : "");
+                int written = UsbBulkOut.write(connection, out, buf, off, size, CHUNK, TIMEOUT, zlp);
+                if(written != size) {
+                        sErrors.add(name + " : wrote " + written);
+                }
+                List<Integer> sizes = connection.getBulkOutSizes();
+                int[] actual = new int[sizes.size()];
+                for(int i = 0; i < actual.length; i++) {
+                        actual[i] = sizes.get(i);
+                }
+                if(!Arrays.equals(expected, actual)) {
+                        sErrors.add(name + " : expected transfers " + Arrays.toString(expected) + ", got " + Arrays.toString(actual));
+                }
+        }
+}
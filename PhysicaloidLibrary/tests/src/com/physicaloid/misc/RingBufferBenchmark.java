@@ -0,0 +1,91 @@
+package com.physicaloid.misc;
+
+/**
+ * One producer thread adds USB-packet sized chunks while one consumer
+ * thread gets them, first on the synchronized ring and then on the
+ * lock-free SPSC ring. Reports the throughput of each and checks that
+ * every byte arrives in order.
+ *
+ * Plain Java against fake android classes, run with tests/run.sh bench.
+ */
+public class RingBufferBenchmark {
+
+        private static final int RING_SIZE = 1024;
+        private static final int CHUNK = 64;
+        private static final int READ_SIZE = 256;
+        private static final long TOTAL = 64L * 1024 * 1024;
+        private static final int ROUNDS = 3;
+
+        public static void main(String[] args) throws Exception {
+                run(false);     // warm up both paths
+                run(true);
+                for(int i = 0; i < ROUNDS; i++) {
+                        report("synchronized", run(false));
+                        report("lock-free   ", run(true));
+                }
+        }
+
+        private static void report(String name, long nanos) {
+                System.out.println(name + " : " + (TOTAL * 1000000000L / nanos / (1024 * 1024)) + " MB/s");
+        }
+
+        /**
+         * @return elapsed nanoseconds
+         */
+        private static long run(boolean lockFree) throws InterruptedException {
+                final RingBuffer ring = new RingBuffer(RING_SIZE, lockFree);
+                final long[] errors = new long[1];
+                Thread producer = new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                                byte[] chunk = new byte[CHUNK];
+                                long sent = 0;
+                                while(sent < TOTAL) {
+                                        for(int i = 0; i < CHUNK; i++) {
+                                                chunk[i] = (byte) (sent + i);
+                                        }
+                                        int off = 0;
+                                        while(off < CHUNK) {  // full ring: retry, like a read thread waiting for space
+                                                int added = ring.add(chunk, CHUNK - off, off);
+                                                if(added == 0) {
+                                                        Thread.yield();
+                                                }
+                                                off += added;
+                                        }
+                                        sent += CHUNK;
+                                }
+                        }
+                });
+                Thread consumer = new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                                byte[] buf = new byte[READ_SIZE];
+                                long got = 0;
+                                while(got < TOTAL) {
+                                        int len = ring.get(buf, 0, buf.length);
+                                        if(len == 0) {
+                                                Thread.yield();
+                                        }
+                                        for(int i = 0; i < len; i++) {
+                                                if(buf[i] != (byte) (got + i)) {
+                                                        errors[0]++;
+                                                }
+                                        }
+                                        got += len;
+                                }
+                        }
+                });
+                long start = System.nanoTime();
+                producer.start();
+                consumer.start();
+                producer.join();
+                consumer.join();
+                long nanos = System.nanoTime() - start;
+                if(errors[0] != 0) {
+                        throw new IllegalStateException((lockFree ? "lock-free" : "synchronized") + " ring reordered " + errors[0] + " bytes");
+                }
+                return nanos;
+        }
+}
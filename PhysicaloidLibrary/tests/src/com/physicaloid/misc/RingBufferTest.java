@@ -0,0 +1,93 @@
+package com.physicaloid.misc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the overflow policies and their drop accounting.
+ *
+ * Plain Java against fake android classes, run with tests/run.sh.
+ */
+public class RingBufferTest {
+
+        private static final int RING_SIZE = 1024;
+
+        private static final List<String> sErrors = new ArrayList<String>();
+
+        public static void main(String[] args) {
+                dropOldestLongChunk();
+                dropOldestPartlyFull();
+                dropNewest();
+
+                if(!sErrors.isEmpty()) {
+                        for(String error : sErrors) {
+                                System.out.println("FAIL: " + error);
+                        }
+                        System.exit(1);
+                }
+                System.out.println("OK");
+        }
+
+        /**
+         * A chunk of three rings keeps the newest ring and drops two rings
+         */
+        private static void dropOldestLongChunk() {
+                RingBuffer ring = new RingBuffer(RING_SIZE);
+                ring.setOverflowPolicy(RingBuffer.OVERFLOW_DROP_OLDEST);
+                byte[] data = pattern(3 * RING_SIZE);
+                ring.add(data, data.length);
+                check("drop-oldest long chunk dropped", 2L * RING_SIZE, ring.getDroppedBytes());
+                checkContent("drop-oldest long chunk", ring, data, 2 * RING_SIZE);
+        }
+
+        /**
+         * Adding a ring to a half full ring drops the older half
+         */
+        private static void dropOldestPartlyFull() {
+                RingBuffer ring = new RingBuffer(RING_SIZE);
+                ring.setOverflowPolicy(RingBuffer.OVERFLOW_DROP_OLDEST);
+                byte[] data = pattern(RING_SIZE + RING_SIZE / 2);
+                ring.add(data, RING_SIZE / 2);
+                ring.add(data, RING_SIZE, RING_SIZE / 2);
+                check("drop-oldest half full dropped", RING_SIZE / 2, ring.getDroppedBytes());
+                checkContent("drop-oldest half full", ring, data, RING_SIZE / 2);
+        }
+
+        /**
+         * A chunk of three rings keeps the oldest ring and drops two rings
+         */
+        private static void dropNewest() {
+                RingBuffer ring = new RingBuffer(RING_SIZE);
+                byte[] data = pattern(3 * RING_SIZE);
+                int added = ring.add(data, data.length);
+                check("drop-newest added", RING_SIZE, added);
+                check("drop-newest dropped", 2L * RING_SIZE, ring.getDroppedBytes());
+                checkContent("drop-newest", ring, data, 0);
+        }
+
+        private static void checkContent(String name, RingBuffer ring, byte[] data, int from) {
+                byte[] buf = new byte[2 * RING_SIZE];
+                int len = ring.get(buf, 0, buf.length);
+                check(name + " length", data.length - from > RING_SIZE ? RING_SIZE : data.length - from, len);
+                for(int i = 0; i < len; i++) {
+                        if(buf[i] != data[from + i]) {
+                                sErrors.add(name + " wrong byte at " + i);
+                                return;
+                        }
+                }
+        }
+
+        private static void check(String name, long expected, long actual) {
+                if(expected != actual) {
+                        sErrors.add(name + " : expected " + expected + ", got " + actual);
+                }
+        }
+
+        private static byte[] pattern(int length) {
+                byte[] data = new byte[length];
+                for(int i = 0; i < length; i++) {
+                        data[i] = (byte) (i * 7 + (i >> 8));
+                }
+                return data;
+        }
+}